@@ -2,11 +2,11 @@ package ch.hevs.jscada;
 
 import ch.hevs.jscada.io.ConnectionGroup;
 import ch.hevs.jscada.model.Process;
+import ch.hevs.jscada.model.ProcessStateStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.IOException;
 
 /**
  * Represents a complete SCADA system, which can be either created using the jSCADA API or can be loaded from different
@@ -25,9 +25,10 @@ public class ScadaSystem {
 
     private int synchronizeInterval = DEFAULT_SYNCHRONIZE_INTERVAL;
     private boolean active = false;
-    private Timer synchronizationTimer = null;
     private final Process process = new Process();
     private final ConnectionGroup connections = new ConnectionGroup();
+    private boolean scanCycle = false;
+    private ProcessStateStore stateStore = null;
 
     /**
      * Returns a reference to the SCADA process. The SCADA process hosts all data points - the actual data.
@@ -50,8 +51,8 @@ public class ScadaSystem {
 
     /**
      * Returns the actual synchronization interval used by the SCADA system in order to poll connections which do not
-     * support event based communication. A value of 0 means no synchronization at all (this may cause some connections
-     * not to work).
+     * support event based communication and have no synchronization interval on their own. A value of 0 means no
+     * synchronization at all for those connections (this may cause some connections not to work).
      *
      * @return Synchronization interval in milliseconds.
      */
@@ -61,9 +62,10 @@ public class ScadaSystem {
 
     /**
      * Sets the synchronization interval used by the SCADA system in order to poll connections which do not support
-     * event based communication. A value of 0 means no synchronization at all (this may cause some connections
-     * not to work). If you change the value while the SCADA system was active, the synchronization will be stopped and
-     * restarted automatically using the new interval.
+     * event based communication and have no synchronization interval on their own. A value of 0 means no
+     * synchronization at all for those connections (this may cause some connections not to work). If you change the
+     * value while the SCADA system was active, the synchronization will be stopped and restarted automatically using
+     * the new interval.
      *
      * @param intervalMs Synchronization interval in milliseconds.
      */
@@ -85,27 +87,76 @@ public class ScadaSystem {
     }
 
     /**
-     * Starts the SCADA system. This means that all connections are synchronized using the configured synchronization
-     * interval. You can synchronize the connections manually by calling getConnections().synchronize(), if you have
-     * special constraints or if you want to synchronize manually.
+     * Returns true if the SCADA system runs in scan cycle mode.
+     *
+     * @return True if every synchronization cycle is a scan cycle of the process.
+     */
+    public synchronized boolean isScanCycle() {
+        return scanCycle;
+    }
+
+    /**
+     * Enables or disables the scan cycle mode. In scan cycle mode every synchronization cycle of the connections is a
+     * scan cycle of the process, like the scan cycle of a PLC: the inputs written by the connections during the
+     * synchronization are staged and swapped into the process all at once when the cycle ends, then the outputs get
+     * the new values in one pass. Nobody ever sees the inputs of a half synchronized cycle. The cycle times are
+     * available from {@link Process#getScanCycleStatistics()}.
+     *
+     * @param scanCycle True to enable the scan cycle mode.
+     */
+    public synchronized void setScanCycle(final boolean scanCycle) {
+        connections.setScanCycleProcess(scanCycle ? process : null);
+        this.scanCycle = scanCycle;
+    }
+
+    /**
+     * Returns the store of the last values of the data points.
+     *
+     * @return State store or null if the values are not stored.
+     */
+    public synchronized ProcessStateStore getStateStore() {
+        return stateStore;
+    }
+
+    /**
+     * Sets the store of the last values of the data points. The store is opened when the system is started: the values
+     * stored during the last run are restored into the process before the first synchronization, so the outputs and
+     * the monitors see the last known values instead of 0 or false until the devices have been polled. The store is
+     * closed when the system is stopped.
+     *
+     * @param stateStore State store or null to not store the values.
+     */
+    public synchronized void setStateStore(final ProcessStateStore stateStore) {
+        this.stateStore = stateStore;
+    }
+
+    /**
+     * Starts the SCADA system. This means that all connections are synchronized using either their own synchronization
+     * interval or the configured default synchronization interval of the system. You can synchronize the connections
+     * manually by calling getConnections().synchronize(), if you have special constraints or if you want to synchronize
+     * manually.
      */
     public void start() {
-        // If timer is not actually running...
-        if (!active && synchronizeInterval != 0) {
-            log.info("Starting system with synchronization interval {}ms.", synchronizeInterval);
-
-            // Start a new timer that synchronizes all connections (the group).
-            synchronizationTimer = new Timer();
-            synchronizationTimer.scheduleAtFixedRate(new TimerTask() {
-                @Override
-                public void run() {
-                    log.trace("Starting synchronization step...");
-                    connections.synchronize();
-                    log.trace("Finished synchronization step.");
+        // If the synchronization is not actually running...
+        if (!active) {
+            if (synchronizeInterval != NO_SYNCHRONIZATION) {
+                log.info("Starting system with synchronization interval {}ms.", synchronizeInterval);
+            } else {
+                log.info("Starting system without default synchronization.");
+            }
+
+            // Restore the last values before any connection is synchronized.
+            final ProcessStateStore stateStore = getStateStore();
+            if (stateStore != null) {
+                try {
+                    stateStore.open();
+                } catch (IOException e) {
+                    log.error("Could not restore the process state!", e);
                 }
-            }, 0, synchronizeInterval);
-        } else {
-            log.info("Starting system without synchronization.");
+            }
+
+            // Start the scheduler that synchronizes all connections of the group at their respective intervals.
+            connections.startSynchronization(synchronizeInterval);
         }
 
         // System is now active (even if we would not actually synchronize when interval is 0).
@@ -127,12 +178,18 @@ public class ScadaSystem {
      */
     public void stop() {
         log.info("Stopping SCADA system.");
-        if (synchronizationTimer != null) {
-            synchronizationTimer.cancel();
-            synchronizationTimer = null;
-        }
+        connections.stopSynchronization();
         connections.deinitializeConnections(this);
 
+        final ProcessStateStore stateStore = getStateStore();
+        if (stateStore != null) {
+            try {
+                stateStore.close();
+            } catch (IOException e) {
+                log.error("Could not write the process state!", e);
+            }
+        }
+
         active = false;
     }
 }
@@ -5,11 +5,14 @@ import ch.hevs.jscada.config.ConfigurationDictionary;
 import ch.hevs.jscada.config.ConfigurationException;
 import ch.hevs.jscada.io.Connection;
 import ch.hevs.jscada.io.ConnectionInitializeException;
+import ch.hevs.jscada.io.OverrunPolicy;
+import ch.hevs.jscada.io.ThreadMode;
 import ch.hevs.jscada.io.field.FieldConnection;
 import ch.hevs.jscada.model.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.Arrays;
@@ -196,6 +199,98 @@ public abstract class ScadaSystemFactory {
         system.setSynchronizationInterval(interval);
     }
 
+    /**
+     * Sets the synchronization interval of the connection with the given ID. The connection will be synchronized at
+     * this interval instead of the synchronization interval of the SCADA system.
+     *
+     * @param id       ID of the connection.
+     * @param interval Synchronization-interval in milliseconds.
+     */
+    protected final void setSynchronisationInterval(final String id, final int interval) {
+        system.getConnections().setSynchronizeInterval(id, interval);
+    }
+
+    /**
+     * Sets the policy the SCADA system applies when the synchronization of a connection overruns its interval.
+     *
+     * @param policy Overrun policy.
+     */
+    protected final void setOverrunPolicy(final OverrunPolicy policy) {
+        system.getConnections().setOverrunPolicy(policy);
+    }
+
+    /**
+     * Sets the number of worker threads the SCADA system uses in order to synchronize the connections.
+     *
+     * @param threadCount Number of synchronization worker threads.
+     */
+    protected final void setSynchronizationThreads(int threadCount) {
+        system.getConnections().getSynchronizationExecutor().setThreadCount(threadCount);
+    }
+
+    /**
+     * Selects where the SCADA process stores the values of the data points. Has to be called before any data point is
+     * added.
+     *
+     * @param storage Process image storage type.
+     */
+    protected final void setProcessStorage(ProcessStorage storage) {
+        system.getProcess().setStorage(storage);
+    }
+
+    /**
+     * Enables or disables the single-writer mode of the SCADA process, in which all data point updates are applied by
+     * a single process thread.
+     *
+     * @param singleWriter True to enable the single-writer mode.
+     */
+    protected final void setSingleWriter(boolean singleWriter) {
+        system.getProcess().setSingleWriter(singleWriter);
+    }
+
+    /**
+     * Enables or disables the scan cycle mode of the SCADA system, in which the inputs of a synchronization cycle are
+     * applied all at once at the end of the cycle.
+     *
+     * @param scanCycle True to enable the scan cycle mode.
+     */
+    protected final void setScanCycle(boolean scanCycle) {
+        system.setScanCycle(scanCycle);
+    }
+
+    /**
+     * Enables the store of the last values of the data points, see {@link ProcessStateStore}.
+     *
+     * @param directory          Directory of the store files.
+     * @param syncInterval       Interval at which the updates are written to disk in milliseconds.
+     * @param checkpointInterval Interval at which checkpoints are written in milliseconds.
+     */
+    protected final void setStateStore(final String directory, final int syncInterval, final int checkpointInterval) {
+        final ProcessStateStore stateStore = new ProcessStateStore(system.getProcess(), new File(directory));
+        stateStore.setSyncInterval(syncInterval);
+        stateStore.setCheckpointInterval(checkpointInterval);
+        system.setStateStore(stateStore);
+    }
+
+    /**
+     * Sets the kind of threads the SCADA system uses in order to synchronize the connections.
+     *
+     * @param threadMode Thread mode.
+     */
+    protected final void setSynchronizationThreadMode(ThreadMode threadMode) {
+        system.getConnections().getSynchronizationExecutor().setThreadMode(threadMode);
+    }
+
+    /**
+     * Sets the maximal time the synchronization of the connection with the given ID may take.
+     *
+     * @param id      ID of the connection.
+     * @param timeout Synchronization timeout in milliseconds, 0 means no limit.
+     */
+    protected final void setSynchronizationTimeout(final String id, final int timeout) {
+        system.getConnections().setSynchronizeTimeout(id, timeout);
+    }
+
     /**
      * Creates and returns a data point with the given type and ID.
      *
@@ -331,6 +426,23 @@ public abstract class ScadaSystemFactory {
             throw new ConfigurationException("Datapoint \"" + dataPointId + "\" used by multiple connectors as input!");
         }
 
+        // Optional deadbands, only floating point data points support them.
+        if (configuration.contains("deadband") || configuration.contains("deadbandPercent")) {
+            if (!(dataPoint instanceof FloatDataPoint)) {
+                throw new ConfigurationException("Datapoint \"" + dataPointId + "\" does not support deadbands!");
+            }
+            final FloatDataPoint floatDataPoint = (FloatDataPoint) dataPoint;
+            if (configuration.contains("deadband")) {
+                floatDataPoint.setDeadband(configuration.get("deadband",
+                    ConfigurationDictionary.inRange(0., Double.MAX_VALUE)));
+            }
+            if (configuration.contains("deadbandPercent")) {
+                floatDataPoint.setDeadbandPercent(configuration.get("deadbandPercent",
+                    ConfigurationDictionary.inRange(0., Double.MAX_VALUE)));
+            }
+        }
+        setCompressionDeviation(dataPoint, configuration);
+
         // Add the input to the fieldConnection.
         fieldConnection.addInput(dataPoint, configuration);
     }
@@ -363,10 +475,25 @@ public abstract class ScadaSystemFactory {
             throw new ConfigurationException("Invalid datapoint \"" + dataPointId + "\"");
         }
 
+        setCompressionDeviation(dataPoint, configuration);
+
         // Add the output to the connector.
         fieldConnection.addOutput(dataPoint, configuration);
     }
 
+    private static void setCompressionDeviation(final DataPoint dataPoint, final ConfigurationDictionary configuration)
+        throws ConfigurationException {
+        // Optional history compression, only floating point data points support it.
+        if (configuration.contains("compressionDeviation")) {
+            if (!(dataPoint instanceof FloatDataPoint)) {
+                throw new ConfigurationException("Datapoint \"" + dataPoint.getId() +
+                    "\" does not support history compression!");
+            }
+            ((FloatDataPoint) dataPoint).setCompressionDeviation(configuration.get("compressionDeviation",
+                ConfigurationDictionary.inRange(0., Double.MAX_VALUE)));
+        }
+    }
+
     private static ScadaSystemFactory getFactory(String identifier) throws IOException {
         // First validate all build-in SCADA factories...
         if (identifier.equalsIgnoreCase("xml")) {
@@ -4,9 +4,13 @@ import ch.hevs.jscada.config.ConfigurationDictionary;
 import ch.hevs.jscada.config.ConfigurationException;
 import ch.hevs.jscada.io.Connection;
 import ch.hevs.jscada.io.ConnectionInitializeException;
+import ch.hevs.jscada.io.OverrunPolicy;
+import ch.hevs.jscada.io.ThreadMode;
 import ch.hevs.jscada.io.field.FieldConnection;
 import ch.hevs.jscada.model.DataPointType;
 import ch.hevs.jscada.model.DuplicateIdException;
+import ch.hevs.jscada.model.ProcessStateStore;
+import ch.hevs.jscada.model.ProcessStorage;
 import org.xml.sax.Attributes;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
@@ -39,6 +43,28 @@ class XmlScadaSystemFactory extends ScadaSystemFactory {
         private void parseField(ConfigurationDictionary attributes) throws SAXParseException {
             try {
                 setSynchronisationInterval(attributes.get("synchronizeInterval", 0));
+                setOverrunPolicy(attributes.get("synchronizeOverrunPolicy", OverrunPolicy.SKIP));
+                if (attributes.contains("synchronizeThreads")) {
+                    setSynchronizationThreads(attributes.get("synchronizeThreads",
+                        ConfigurationDictionary.inRange(1, Integer.MAX_VALUE)));
+                }
+                setSynchronizationThreadMode(attributes.get("synchronizeThreadMode", ThreadMode.PLATFORM));
+                setSingleWriter(attributes.get("singleWriter", false));
+                setScanCycle(attributes.get("scanCycle", false));
+                setProcessStorage(attributes.get("processStorage", ProcessStorage.HEAP));
+                if (attributes.contains("stateDirectory")) {
+                    int syncInterval = ProcessStateStore.DEFAULT_SYNC_INTERVAL;
+                    if (attributes.contains("stateSyncInterval")) {
+                        syncInterval = attributes.get("stateSyncInterval",
+                            ConfigurationDictionary.inRange(1, Integer.MAX_VALUE));
+                    }
+                    int checkpointInterval = ProcessStateStore.DEFAULT_CHECKPOINT_INTERVAL;
+                    if (attributes.contains("stateCheckpointInterval")) {
+                        checkpointInterval = attributes.get("stateCheckpointInterval",
+                            ConfigurationDictionary.inRange(1, Integer.MAX_VALUE));
+                    }
+                    setStateStore(attributes.get("stateDirectory", String.class), syncInterval, checkpointInterval);
+                }
             } catch (ConfigurationException e) {
                 throw new SAXParseException(e.getMessage(), locator, e);
             }
@@ -54,6 +80,18 @@ class XmlScadaSystemFactory extends ScadaSystemFactory {
 
                 // Try to create the connection with the given configuration.
                 createConnection(clazz, id, attributes);
+
+                // Get the optional connection specific synchronization interval.
+                if (attributes.contains("synchronizeInterval")) {
+                    setSynchronisationInterval(id, attributes.get("synchronizeInterval",
+                        ConfigurationDictionary.inRange(1, Integer.MAX_VALUE)));
+                }
+
+                // Get the optional synchronization timeout.
+                if (attributes.contains("synchronizeTimeout")) {
+                    setSynchronizationTimeout(id, attributes.get("synchronizeTimeout",
+                        ConfigurationDictionary.inRange(0, Integer.MAX_VALUE)));
+                }
             } catch (ClassNotFoundException | InstantiationException
                 | IllegalAccessException | DuplicateIdException
                 | ConfigurationException
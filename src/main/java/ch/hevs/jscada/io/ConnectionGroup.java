@@ -2,13 +2,22 @@ package ch.hevs.jscada.io;
 
 import ch.hevs.jscada.ScadaSystem;
 import ch.hevs.jscada.model.DuplicateIdException;
+import ch.hevs.jscada.model.Process;
+import ch.hevs.jscada.model.ScanCycle;
 import ch.hevs.jscada.io.field.FieldConnection;
 import ch.hevs.jscada.io.field.FieldConnectionMode;
+import ch.hevs.jscada.io.scheduling.Clock;
+import ch.hevs.jscada.io.scheduling.TimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Groups multiple connections into one single group of connections and offers methods in order to execute common tasks
@@ -17,14 +26,45 @@ import java.util.concurrent.TimeUnit;
  * @author Michael Clausen (michael.clausen@hevs.ch)
  */
 public final class ConnectionGroup implements Synchronizable {
+    private static final Logger log = LoggerFactory.getLogger(ConnectionGroup.class);
+
+    /**
+     * Synchronization timeout value meaning that the synchronization of a connection is not limited in time.
+     */
+    public static final int NO_SYNCHRONIZE_TIMEOUT = 0;
+
+    /**
+     * Synchronization interval value meaning that the connection is synchronized using the default interval of the
+     * SCADA system.
+     */
+    public static final int DEFAULT_SYNCHRONIZE_INTERVAL = 0;
+
     // Connections registry.
     private final Map<String, Connection> connections = new TreeMap<>();
 
+    // Synchronization state of all field connections.
+    private final Map<String, SynchronizedConnection> synchronizedConnections = new TreeMap<>();
+
     // Connection listeners.
     private final List<ConnectionListener> connectionListeners = new ArrayList<>();
 
-    // Synchronizable listeners.
-    private final List<SynchronizableListener> listeners = new ArrayList<>();
+    // Synchronizable listeners, cycles running in parallel iterate over them.
+    private final List<SynchronizableListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Worker pool used to synchronize the connections.
+    private final SynchronizationExecutor synchronizationExecutor = new SynchronizationExecutor();
+
+    // Scheduler triggering the synchronization cycles, null if the periodic synchronization is not running.
+    private SynchronizationScheduler scheduler = null;
+    private Clock schedulerClock = Clock.SYSTEM;
+    private int schedulerTickDuration = TimingWheel.DEFAULT_TICK_DURATION;
+    private volatile OverrunPolicy overrunPolicy = OverrunPolicy.SKIP;
+
+    // Process each synchronization cycle runs a scan cycle of, null if no scan cycles are run.
+    private volatile Process scanCycleProcess = null;
+
+    // Statistics about the periodic synchronization cycles.
+    final SynchronizationStatistics cycleStatistics = new SynchronizationStatistics();
 
     // Connection handler.
     private final ConnectionListener connectionListener = new ConnectionListener() {
@@ -69,6 +109,9 @@ public final class ConnectionGroup implements Synchronizable {
 
         // Register the fieldConnection.
         connections.put(id, connection);
+        if (connection instanceof FieldConnection) {
+            synchronizedConnections.put(id, new SynchronizedConnection(id, (FieldConnection) connection));
+        }
 
         // Add the group as fieldConnection listener.
         connection.addConnectionListener(connectionListener);
@@ -84,6 +127,7 @@ public final class ConnectionGroup implements Synchronizable {
         if (connection != null) {
             connection.removeConnectionListener(connectionListener);
             connections.remove(id);
+            synchronizedConnections.remove(id);
         }
     }
 
@@ -97,6 +141,7 @@ public final class ConnectionGroup implements Synchronizable {
             if (entry.getValue() == connection) {
                 entry.getValue().removeConnectionListener(connectionListener);
                 connections.remove(entry.getKey());
+                synchronizedConnections.remove(entry.getKey());
                 return;
             }
         }
@@ -120,6 +165,202 @@ public final class ConnectionGroup implements Synchronizable {
         }
     }
 
+    /**
+     * Returns the synchronization timeout of the field connection with the given ID.
+     *
+     * @param id ID of the field connection.
+     * @return Synchronization timeout in milliseconds or {@link #NO_SYNCHRONIZE_TIMEOUT} if not limited.
+     * @throws IllegalArgumentException If there is no field connection with the given ID in the group.
+     */
+    public int getSynchronizeTimeout(final String id) {
+        return getSynchronizedConnection(id).timeout;
+    }
+
+    /**
+     * Sets the maximal time the synchronization of the field connection with the given ID may take. If a connection
+     * does not finish its synchronization in time, it gets interrupted, the cycle continues without waiting for it
+     * and a {@link SynchronizeTimeoutException} is reported to all connection listeners of the group. The connection
+     * is not synchronized again before the abandoned synchronization has actually returned.
+     *
+     * @param id        ID of the field connection.
+     * @param timeoutMs Synchronization timeout in milliseconds or {@link #NO_SYNCHRONIZE_TIMEOUT} for no limit.
+     * @throws IllegalArgumentException If there is no field connection with the given ID in the group or if the
+     *                                  timeout is negative.
+     */
+    public void setSynchronizeTimeout(final String id, final int timeoutMs) {
+        if (timeoutMs < 0) {
+            throw new IllegalArgumentException("Synchronization timeout can not be negative!");
+        }
+        getSynchronizedConnection(id).timeout = timeoutMs;
+    }
+
+    /**
+     * Returns the synchronization interval of the field connection with the given ID.
+     *
+     * @param id ID of the field connection.
+     * @return Synchronization interval in milliseconds or {@link #DEFAULT_SYNCHRONIZE_INTERVAL} if the connection uses
+     * the default interval of the SCADA system.
+     * @throws IllegalArgumentException If there is no field connection with the given ID in the group.
+     */
+    public int getSynchronizeInterval(final String id) {
+        return getSynchronizedConnection(id).interval;
+    }
+
+    /**
+     * Sets the interval at which the field connection with the given ID is synchronized, independent of the default
+     * synchronization interval of the SCADA system. The new interval takes effect the next time the periodic
+     * synchronization is started.
+     *
+     * @param id         ID of the field connection.
+     * @param intervalMs Synchronization interval in milliseconds or {@link #DEFAULT_SYNCHRONIZE_INTERVAL} in order to
+     *                   use the default interval of the SCADA system.
+     * @throws IllegalArgumentException If there is no field connection with the given ID in the group or if the
+     *                                  interval is negative.
+     */
+    public void setSynchronizeInterval(final String id, final int intervalMs) {
+        if (intervalMs < 0) {
+            throw new IllegalArgumentException("Synchronization interval can not be negative!");
+        }
+        getSynchronizedConnection(id).interval = intervalMs;
+    }
+
+    /**
+     * Starts the periodic synchronization of all field connections. Each connection is synchronized at its own
+     * interval if one was set using {@link #setSynchronizeInterval(String, int)}, otherwise at the given default
+     * interval. The connections are scheduled on a {@link TimingWheel}, connections due within the same tick of the
+     * wheel are synchronized together in one cycle and all connections share the same worker pool. If the periodic
+     * synchronization was already running, it gets restarted.
+     *
+     * @param defaultInterval Synchronization interval in milliseconds for all connections without their own interval.
+     *                        A value of 0 means that those connections are not synchronized at all.
+     */
+    public synchronized void startSynchronization(final int defaultInterval) {
+        stopSynchronization();
+        synchronizationExecutor.start();
+
+        // Add every connection with a synchronization interval to the scheduler.
+        scheduler = new SynchronizationScheduler(this, schedulerClock, schedulerTickDuration);
+        for (final SynchronizedConnection synchronizedConnection : synchronizedConnections.values()) {
+            final int interval = synchronizedConnection.effectiveInterval(defaultInterval);
+            if (interval > 0) {
+                log.debug("Synchronizing connection \"{}\" every {}ms.", synchronizedConnection.id, interval);
+                scheduler.schedule(synchronizedConnection, interval);
+            }
+        }
+        scheduler.start();
+    }
+
+    /**
+     * Stops the periodic synchronization and the worker pool. The connections can still be synchronized manually
+     * using {@link #synchronize()}.
+     */
+    public synchronized void stopSynchronization() {
+        if (scheduler != null) {
+            scheduler.stop();
+            scheduler = null;
+        }
+        synchronizationExecutor.stop();
+    }
+
+    /**
+     * Returns true if the periodic synchronization is running.
+     *
+     * @return True if the connections are synchronized periodically.
+     */
+    public synchronized boolean isSynchronizing() {
+        return scheduler != null;
+    }
+
+    /**
+     * Sets the clock and the tick duration of the timing wheel used for the periodic synchronization. The tick
+     * duration is the granularity of the synchronization intervals. The settings take effect the next time the
+     * periodic synchronization is started.
+     *
+     * @param clock        Clock to use.
+     * @param tickDuration Tick duration in milliseconds.
+     */
+    public synchronized void setSchedulerClock(final Clock clock, final int tickDuration) {
+        if (clock == null || tickDuration < 1) {
+            throw new IllegalArgumentException("Invalid scheduler clock parameters!");
+        }
+        schedulerClock = clock;
+        schedulerTickDuration = tickDuration;
+    }
+
+    /**
+     * Returns the policy applied when a periodic synchronization overruns.
+     *
+     * @return Overrun policy.
+     */
+    public OverrunPolicy getOverrunPolicy() {
+        return overrunPolicy;
+    }
+
+    /**
+     * Sets the policy to apply when the periodic synchronization of a connection overruns, this means the
+     * synchronization did not finish before the next synchronization of the connection was due. Defaults to
+     * {@link OverrunPolicy#SKIP}.
+     *
+     * @param overrunPolicy Overrun policy.
+     */
+    public void setOverrunPolicy(final OverrunPolicy overrunPolicy) {
+        if (overrunPolicy == null) {
+            throw new IllegalArgumentException("Overrun policy can not be null!");
+        }
+        this.overrunPolicy = overrunPolicy;
+    }
+
+    /**
+     * Returns the process each synchronization cycle of the group runs a scan cycle of.
+     *
+     * @return Process or null if the synchronization cycles are no scan cycles.
+     */
+    public Process getScanCycleProcess() {
+        return scanCycleProcess;
+    }
+
+    /**
+     * Sets the process each synchronization cycle of the group runs a scan cycle of. Every call to synchronize starts
+     * its own {@link ScanCycle}: the updates written by the connections while they are synchronized are staged and
+     * swapped into the process once the cycle has finished and the synchronizable listeners have been notified.
+     *
+     * @param process Process or null in order to apply the updates immediately.
+     */
+    public void setScanCycleProcess(final Process process) {
+        scanCycleProcess = process;
+    }
+
+    /**
+     * Returns the statistics of the periodic synchronization of the field connection with the given ID.
+     *
+     * @param id ID of the field connection.
+     * @return Snapshot of the synchronization statistics of the connection.
+     * @throws IllegalArgumentException If there is no field connection with the given ID in the group.
+     */
+    public SynchronizationStatistics getSynchronizationStatistics(final String id) {
+        return getSynchronizedConnection(id).statistics.snapshot();
+    }
+
+    /**
+     * Returns the statistics of the periodic synchronization cycles of the group. A cycle overruns if it does not
+     * finish before the next synchronization of one of its connections is due.
+     *
+     * @return Snapshot of the cycle statistics.
+     */
+    public SynchronizationStatistics getCycleStatistics() {
+        return cycleStatistics.snapshot();
+    }
+
+    /**
+     * Returns the worker pool the group uses in order to synchronize its connections. The pool is started and stopped
+     * by the SCADA system, but it can be configured and monitored using the reference returned.
+     *
+     * @return Synchronization executor of the group.
+     */
+    public SynchronizationExecutor getSynchronizationExecutor() {
+        return synchronizationExecutor;
+    }
+
     /**
      * Adds the given ConnectionListener and notifies the listener about events on all connections.
      *
@@ -139,40 +380,72 @@ public final class ConnectionGroup implements Synchronizable {
     }
 
     /* Synchronizable implementation **********************************************************************************/
+
+    /**
+     * Synchronizes all field connections of the group at once, independent of their synchronization intervals. Note
+     * that while the periodic synchronization is running, the synchronizable listeners of the group are notified for
+     * every cycle of every synchronization interval.
+     */
     @Override
     public void synchronize() {
-        // Notify all synchronization listeners that we start synchronizing.
+        synchronize(new ArrayList<>(synchronizedConnections.values()));
+    }
+
+    void synchronize(final List<SynchronizedConnection> cycle) {
+        final Process process = scanCycleProcess;
+        final ScanCycle scanCycle = process != null ? process.beginScanCycle() : null;
+        try {
+            synchronize(cycle, scanCycle);
+        } finally {
+            if (scanCycle != null) {
+                scanCycle.end();
+            }
+        }
+    }
+
+    private void synchronize(final List<SynchronizedConnection> cycle, final ScanCycle scanCycle) {
+        // Notify all synchronization listeners that we start synchronizing. The same listeners are notified at the end
+        // of the cycle, even if the listeners change in the meantime.
+        final List<SynchronizableListener> listeners = new ArrayList<>(this.listeners);
         for (final SynchronizableListener listener : listeners) {
             listener.willSynchronize(this);
         }
 
-        // Synchronize all connections using a thread pool to paralyze the work - normally a connection has to wait
+        // Synchronize all connections using the worker pool to paralyze the work - normally a connection has to wait
         // most of the time for responses from the peer and during this time we can handle other connections.
-        final ExecutorService exec = Executors.newCachedThreadPool();
-        for (final Connection connection : connections.values()) {
-            if (connection instanceof FieldConnection) {
-                final FieldConnection fieldConnection = (FieldConnection) connection;
-                // If the fieldConnection is event based only, we do not need to synchronize.
-                if (fieldConnection.getMode() != FieldConnectionMode.EVENT_BASED) {
+        final long cycleStart = System.nanoTime();
+        final List<SynchronizedConnection> submitted = new ArrayList<>();
+        final List<Future<?>> pending = new ArrayList<>();
+        for (final SynchronizedConnection synchronizedConnection : cycle) {
+            // If the fieldConnection is event based only, we do not need to synchronize.
+            if (synchronizedConnection.connection.getMode() != FieldConnectionMode.EVENT_BASED) {
+                // Do not pile up synchronizations of a connection that did not return from a previous cycle.
+                if (synchronizedConnection.enqueue()) {
                     // Submit fieldConnection synchronization to the thread pool.
-                    exec.submit(new Runnable() {
-                        @Override
-                        public void run() {
-                            fieldConnection.synchronize();
-                        }
-                    });
+                    synchronizedConnection.scanCycle = scanCycle;
+                    submitted.add(synchronizedConnection);
+                    pending.add(synchronizationExecutor.submit(synchronizedConnection));
+                } else {
+                    log.warn("Connection \"{}\" is still busy with a previous synchronization, skipping.",
+                        synchronizedConnection.id);
                 }
             }
         }
 
-        // Isolate running threads and disallow new ones.
-        exec.shutdown();
-        try {
-            // Wait for all the connection synchronization methods to finish.
-            // TODO: Limiting to a reasonable time would actually make sense here...
-            exec.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        // Wait for all the connection synchronization methods to finish, connections with a timeout first as the
+        // deadlines of all connections are relative to the start of the cycle.
+        boolean interrupted = false;
+        for (final boolean timed : new boolean[]{true, false}) {
+            for (int i = 0; i < submitted.size() && !interrupted; ++i) {
+                final SynchronizedConnection synchronizedConnection = submitted.get(i);
+                final int timeout = synchronizedConnection.timeout;
+                if ((timeout != NO_SYNCHRONIZE_TIMEOUT) == timed) {
+                    interrupted = awaitSynchronization(synchronizedConnection, pending.get(i), cycleStart);
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
 
         // Inform all listeners that the synchronization took place.
@@ -181,6 +454,60 @@ public final class ConnectionGroup implements Synchronizable {
         }
     }
 
+    /**
+     * Waits for the given synchronization to finish, but at most until the synchronization timeout of the connection
+     * has elapsed since the start of the cycle. If the deadline is missed, the synchronization is interrupted and the
+     * timeout is reported to the connection listeners. Exceptions thrown by the synchronization are reported to the
+     * connection listeners too, a synchronization cancelled because the executor was stopped is given up.
+     *
+     * @param synchronizedConnection The connection being synchronized.
+     * @param future                 Future of the synchronization task.
+     * @param cycleStart             Start time of the synchronization cycle in nanoseconds.
+     * @return True if the waiting thread was interrupted.
+     */
+    private boolean awaitSynchronization(final SynchronizedConnection synchronizedConnection, final Future<?> future,
+                                         final long cycleStart) {
+        final int timeout = synchronizedConnection.timeout;
+        try {
+            if (timeout == NO_SYNCHRONIZE_TIMEOUT) {
+                future.get();
+            } else {
+                final long remaining = TimeUnit.MILLISECONDS.toNanos(timeout) - (System.nanoTime() - cycleStart);
+                future.get(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            return true;
+        } catch (CancellationException e) {
+            // The executor was stopped before the synchronization started.
+            synchronizedConnection.abandon();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            log.error("Synchronization of connection \"{}\" failed!", synchronizedConnection.id, cause);
+            if (cause instanceof Exception) {
+                for (final ConnectionListener listener : connectionListeners) {
+                    listener.connectionThrownException(synchronizedConnection.connection, (Exception) cause);
+                }
+            }
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            synchronizedConnection.abandon();
+            final SynchronizeTimeoutException exception =
+                new SynchronizeTimeoutException(synchronizedConnection.id, timeout);
+            for (final ConnectionListener listener : connectionListeners) {
+                listener.connectionThrownException(synchronizedConnection.connection, exception);
+            }
+        }
+        return false;
+    }
+
+    private SynchronizedConnection getSynchronizedConnection(final String id) {
+        final SynchronizedConnection synchronizedConnection = synchronizedConnections.get(id);
+        if (synchronizedConnection == null) {
+            throw new IllegalArgumentException("No field connection with ID \"" + id + "\" in group!");
+        }
+        return synchronizedConnection;
+    }
+
     @Override
     public void addSynchronizableListener(final SynchronizableListener listener) {
         if (listener != null) {
@@ -0,0 +1,32 @@
+package ch.hevs.jscada.io;
+
+/**
+ * Defines how the periodic synchronization of a connection continues after an overrun. An overrun happens when the
+ * synchronization of a connection did not finish before its next synchronization was due, either because the
+ * synchronization itself took longer than the synchronization interval or because it was started too late.
+ * <br><br>
+ * Whatever the policy, missed synchronizations are never executed back to back in order to catch up, as this would
+ * hammer the field devices.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ * @see ConnectionGroup#setOverrunPolicy(OverrunPolicy)
+ */
+public enum OverrunPolicy {
+    /**
+     * Missed synchronizations are skipped, the connection is synchronized again at the next deadline of its original
+     * schedule.
+     */
+    SKIP,
+
+    /**
+     * The missed synchronization is executed once as soon as possible and the schedule continues from there on, so
+     * the schedule of the connection shifts by the delay.
+     */
+    DELAY,
+
+    /**
+     * The synchronization interval of the connection is stretched to the time the synchronization actually takes and
+     * shrinks back to the configured interval as soon as the connection keeps up again.
+     */
+    STRETCH
+}
@@ -0,0 +1,288 @@
+package ch.hevs.jscada.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-lived pool of worker threads used by a {@link ConnectionGroup} in order to synchronize its connections. The
+ * pool is created once when the executor is started and is reused for every synchronization cycle, so no threads have
+ * to be created and destroyed on each cycle.
+ * <br><br>
+ * The executor offers some basic metrics in order to monitor the synchronization load: The number of synchronization
+ * tasks waiting for a free worker ({@link #getQueueDepth()}), the number of workers actually busy
+ * ({@link #getActiveWorkers()}) and the fraction of the available worker time that was effectively spent
+ * synchronizing connections ({@link #getWorkerUtilization()}).
+ * <br><br>
+ * Connections blocking on network I/O most of the time can be synchronized on virtual threads instead of the pool of
+ * platform threads by setting the thread mode to {@link ThreadMode#VIRTUAL}. As jSCADA is built for older Java
+ * versions, virtual threads are looked up at runtime and the executor falls back to the platform thread pool if the
+ * Java runtime does not support them.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+public final class SynchronizationExecutor {
+    private static final Logger log = LoggerFactory.getLogger(SynchronizationExecutor.class);
+
+    /**
+     * Default number of worker threads.
+     */
+    public static final int DEFAULT_THREAD_COUNT = 16;
+
+    // Number of worker threads to use when the executor gets started.
+    private int threadCount = DEFAULT_THREAD_COUNT;
+
+    // Kind of threads to use when the executor gets started.
+    private ThreadMode threadMode = ThreadMode.PLATFORM;
+
+    // Actual executor, null if the executor is not running.
+    private ExecutorService pool = null;
+
+    // Metrics.
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicLong completedTasks = new AtomicLong();
+    private long startTimeNanos = 0;
+
+    /**
+     * Returns the number of worker threads the executor uses.
+     *
+     * @return Number of worker threads.
+     */
+    public synchronized int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Sets the number of worker threads to use. If the executor is already running, the pool is resized on the fly.
+     *
+     * @param threadCount Number of worker threads, has to be at least 1.
+     */
+    public synchronized void setThreadCount(final int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("The synchronization executor needs at least one thread!");
+        }
+        this.threadCount = threadCount;
+        if (pool instanceof ThreadPoolExecutor) {
+            final ThreadPoolExecutor threadPool = (ThreadPoolExecutor) pool;
+            if (threadCount > threadPool.getMaximumPoolSize()) {
+                threadPool.setMaximumPoolSize(threadCount);
+                threadPool.setCorePoolSize(threadCount);
+            } else {
+                threadPool.setCorePoolSize(threadCount);
+                threadPool.setMaximumPoolSize(threadCount);
+            }
+        }
+    }
+
+    /**
+     * Returns the kind of threads the executor is configured to use.
+     *
+     * @return Thread mode.
+     */
+    public synchronized ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    /**
+     * Sets the kind of threads to use. The mode takes effect the next time the executor is started. In
+     * {@link ThreadMode#VIRTUAL} mode the thread count is ignored, as every synchronization gets its own thread.
+     *
+     * @param threadMode Thread mode.
+     */
+    public synchronized void setThreadMode(final ThreadMode threadMode) {
+        if (threadMode == null) {
+            throw new IllegalArgumentException("Thread mode can not be null!");
+        }
+        this.threadMode = threadMode;
+    }
+
+    /**
+     * Returns true if the executor is running and synchronizes the connections on virtual threads.
+     *
+     * @return True if virtual threads are in use.
+     */
+    public synchronized boolean isVirtual() {
+        return pool != null && !(pool instanceof ThreadPoolExecutor);
+    }
+
+    /**
+     * Returns true if the Java runtime supports virtual threads.
+     *
+     * @return True if virtual threads are available.
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Starts the worker pool. Calling this method on a running executor has no effect.
+     */
+    public synchronized void start() {
+        if (pool == null) {
+            if (threadMode == ThreadMode.VIRTUAL) {
+                pool = newVirtualThreadExecutor();
+                if (pool == null) {
+                    log.warn("Virtual threads are not supported by the Java runtime, using platform threads.");
+                }
+            }
+            if (pool == null) {
+                pool = newPlatformThreadPool();
+            }
+            busyNanos.set(0);
+            completedTasks.set(0);
+            startTimeNanos = System.nanoTime();
+        }
+    }
+
+    private ExecutorService newPlatformThreadPool() {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "jscada-sync-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        threadPool.allowCoreThreadTimeOut(true);
+        return threadPool;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stops the worker pool. Tasks already running are allowed to finish, but tasks still waiting in the queue are
+     * discarded and their futures are cancelled, the connections they would have synchronized are given up (see
+     * {@link SynchronizedConnection#abandon()}) so they are synchronized again after a restart. This method does not
+     * wait for the running tasks. The executor can be
+     * restarted at any time using {@link #start()}.
+     */
+    public synchronized void stop() {
+        if (pool != null) {
+            pool.shutdown();
+            if (pool instanceof ThreadPoolExecutor) {
+                final List<Runnable> queued = new ArrayList<>();
+                ((ThreadPoolExecutor) pool).getQueue().drainTo(queued);
+                for (final Runnable task : queued) {
+                    if (task instanceof Future) {
+                        ((Future<?>) task).cancel(false);
+                    }
+                }
+            }
+            pool = null;
+        }
+    }
+
+    /**
+     * Returns true if the executor is running.
+     *
+     * @return True if running, false otherwise.
+     */
+    public synchronized boolean isRunning() {
+        return pool != null;
+    }
+
+    /**
+     * Submits the given synchronization task to the worker pool. If the executor is not running, it gets started.
+     *
+     * @param task Task to execute.
+     * @return Future representing the pending completion of the task.
+     */
+    public Future<?> submit(final Runnable task) {
+        final ExecutorService executor;
+        synchronized (this) {
+            start();
+            executor = pool;
+        }
+        final FutureTask<Void> future = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                final long start = System.nanoTime();
+                activeWorkers.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    activeWorkers.decrementAndGet();
+                    busyNanos.addAndGet(System.nanoTime() - start);
+                    completedTasks.incrementAndGet();
+                }
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                // A connection whose synchronization never started would stay queued forever.
+                if (isCancelled() && task instanceof SynchronizedConnection) {
+                    ((SynchronizedConnection) task).abandon();
+                }
+            }
+        };
+        executor.execute(future);
+        return future;
+    }
+
+    /**
+     * Returns the number of synchronization tasks waiting for a free worker thread. Always 0 when using virtual
+     * threads.
+     *
+     * @return Actual queue depth.
+     */
+    public synchronized int getQueueDepth() {
+        return pool instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) pool).getQueue().size() : 0;
+    }
+
+    /**
+     * Returns the number of worker threads actually busy synchronizing a connection.
+     *
+     * @return Number of busy worker threads.
+     */
+    public int getActiveWorkers() {
+        return activeWorkers.get();
+    }
+
+    /**
+     * Returns the total number of synchronization tasks completed since the executor was started.
+     *
+     * @return Number of completed tasks.
+     */
+    public long getCompletedTasks() {
+        return completedTasks.get();
+    }
+
+    /**
+     * Returns the worker utilization since the executor was started. The utilization is the time the workers spent
+     * synchronizing connections divided by the total worker time available (elapsed time multiplied by the number of
+     * workers). A value of 1 means that all workers were busy all the time. When using virtual threads, the
+     * utilization is relative to the configured thread count and can be bigger than 1.
+     *
+     * @return Worker utilization.
+     */
+    public synchronized double getWorkerUtilization() {
+        if (pool == null) {
+            return 0;
+        }
+        final long available = (System.nanoTime() - startTimeNanos) * threadCount;
+        final double utilization = available > 0 ? (double) busyNanos.get() / available : 0;
+        return pool instanceof ThreadPoolExecutor ? Math.min(1., utilization) : utilization;
+    }
+}
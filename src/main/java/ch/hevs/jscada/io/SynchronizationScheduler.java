@@ -0,0 +1,159 @@
+package ch.hevs.jscada.io;
+
+import ch.hevs.jscada.io.scheduling.Clock;
+import ch.hevs.jscada.io.scheduling.TimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives the periodic synchronization of the field connections of a {@link ConnectionGroup}. Every connection is a
+ * task on a {@link TimingWheel} that is rescheduled at its synchronization interval, a single thread advances the
+ * wheel and all connections expiring within the same tick are synchronized together as one cycle. A connection is
+ * rescheduled only after its cycle has finished, overruns are handled according to the {@link OverrunPolicy} of the
+ * group.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+final class SynchronizationScheduler {
+    private static final Logger log = LoggerFactory.getLogger(SynchronizationScheduler.class);
+
+    private final ConnectionGroup group;
+    private final TimingWheel<SynchronizedConnection> wheel;
+    private final ExecutorService cycles;
+    private final Thread tickThread;
+    private volatile boolean running = true;
+
+    // Hands the expired connections over to a cycle thread.
+    private final TimingWheel.ExpirationHandler<SynchronizedConnection> expirationHandler =
+        new TimingWheel.ExpirationHandler<SynchronizedConnection>() {
+            @Override
+            public void expired(final long deadline, final List<SynchronizedConnection> batch) {
+                try {
+                    cycles.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            runCycle(deadline, batch);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // The scheduler has been stopped in the meantime.
+                }
+            }
+        };
+
+    SynchronizationScheduler(final ConnectionGroup group, final Clock clock, final int tickDuration) {
+        this.group = group;
+        wheel = new TimingWheel<>(clock, tickDuration, TimingWheel.DEFAULT_WHEEL_SIZE);
+
+        // Cycles of different connections can overlap, but no more cycles than the group has workers can make progress
+        // at the same time. Further cycles wait in the queue, which is bounded by the number of connections as a
+        // connection is rescheduled only once its cycle has finished.
+        final int threadCount = group.getSynchronizationExecutor().getThreadCount();
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "jscada-cycle-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        threadPool.allowCoreThreadTimeOut(true);
+        cycles = threadPool;
+
+        tickThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    final long wait = wheel.getNextTickTime() - wheel.getClock().currentTimeMillis();
+                    if (wait > 0) {
+                        try {
+                            Thread.sleep(wait);
+                        } catch (InterruptedException e) {
+                            break;
+                        }
+                    }
+                    if (running) {
+                        wheel.advance(expirationHandler);
+                    }
+                }
+            }
+        }, "jscada-scheduler");
+        tickThread.setDaemon(true);
+    }
+
+    /**
+     * Synchronizes the given batch of connections as one cycle and reschedules every connection according to the
+     * overrun policy of the group once the cycle has finished, so a connection is never due again while it is still
+     * being synchronized.
+     *
+     * @param deadline Time at which the cycle was due.
+     * @param batch    Connections to synchronize.
+     */
+    private void runCycle(final long deadline, final List<SynchronizedConnection> batch) {
+        final Clock clock = wheel.getClock();
+        final long start = clock.currentTimeMillis();
+        try {
+            group.synchronize(batch);
+        } catch (RuntimeException e) {
+            log.error("Synchronization cycle failed!", e);
+        }
+        if (!running) {
+            return;
+        }
+
+        // Cycle statistics, the cycle overran if it did not finish before the next connection of the batch was due.
+        final long now = clock.currentTimeMillis();
+        final OverrunPolicy policy = group.getOverrunPolicy();
+        int interval = Integer.MAX_VALUE;
+        for (final SynchronizedConnection synchronizedConnection : batch) {
+            interval = Math.min(interval, Math.max(synchronizedConnection.activeInterval,
+                synchronizedConnection.stretchedInterval));
+        }
+        final boolean overrun = now > deadline + interval;
+        group.cycleStatistics.record(start - deadline, now - start, interval, overrun);
+        if (overrun) {
+            log.debug("Synchronization cycle due at {} overran its {}ms interval by {}ms.", deadline, interval,
+                now - deadline - interval);
+        }
+
+        // Schedule the next synchronization of all connections.
+        for (final SynchronizedConnection synchronizedConnection : batch) {
+            wheel.scheduleAt(synchronizedConnection, synchronizedConnection.reschedule(now, policy));
+        }
+    }
+
+    /**
+     * Adds the given connection to the scheduler. The first synchronization takes place with the next tick.
+     *
+     * @param synchronizedConnection Connection to synchronize periodically.
+     * @param interval               Synchronization interval in milliseconds.
+     */
+    void schedule(final SynchronizedConnection synchronizedConnection, final int interval) {
+        synchronizedConnection.clock = wheel.getClock();
+        synchronizedConnection.activeInterval = interval;
+        synchronizedConnection.stretchedInterval = 0;
+        synchronizedConnection.deadline = wheel.getClock().currentTimeMillis();
+        wheel.scheduleAt(synchronizedConnection, synchronizedConnection.deadline);
+    }
+
+    void start() {
+        tickThread.start();
+    }
+
+    void stop() {
+        running = false;
+        tickThread.interrupt();
+        cycles.shutdownNow();
+    }
+}
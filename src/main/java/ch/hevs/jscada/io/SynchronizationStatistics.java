@@ -0,0 +1,130 @@
+package ch.hevs.jscada.io;
+
+/**
+ * Statistics about the periodic synchronization of either a single connection or of the synchronization cycles of a
+ * {@link ConnectionGroup}. The lag is the time between the moment a synchronization was due and the moment it actually
+ * started, the duration is the time the synchronization took.
+ * <br><br>
+ * Instances returned by the {@link ConnectionGroup} are snapshots and do not change anymore.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ * @see ConnectionGroup#getSynchronizationStatistics(String)
+ * @see ConnectionGroup#getCycleStatistics()
+ */
+public final class SynchronizationStatistics {
+    private long count = 0;
+    private long overruns = 0;
+    private long skipped = 0;
+    private long lastDuration = 0;
+    private long maxDuration = 0;
+    private long lastLag = 0;
+    private long maxLag = 0;
+    private long interval = 0;
+
+    SynchronizationStatistics() {
+    }
+
+    private SynchronizationStatistics(final SynchronizationStatistics other) {
+        count = other.count;
+        overruns = other.overruns;
+        skipped = other.skipped;
+        lastDuration = other.lastDuration;
+        maxDuration = other.maxDuration;
+        lastLag = other.lastLag;
+        maxLag = other.maxLag;
+        interval = other.interval;
+    }
+
+    /**
+     * Returns the number of synchronizations that took place.
+     *
+     * @return Number of synchronizations.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of synchronizations that did not finish before the next synchronization was due.
+     *
+     * @return Number of overruns.
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * Returns the number of synchronizations that were skipped because of overruns.
+     *
+     * @return Number of skipped synchronizations.
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Returns the duration of the last synchronization.
+     *
+     * @return Duration in milliseconds.
+     */
+    public long getLastDuration() {
+        return lastDuration;
+    }
+
+    /**
+     * Returns the longest duration of a synchronization.
+     *
+     * @return Duration in milliseconds.
+     */
+    public long getMaxDuration() {
+        return maxDuration;
+    }
+
+    /**
+     * Returns the lag of the last synchronization.
+     *
+     * @return Lag in milliseconds.
+     */
+    public long getLastLag() {
+        return lastLag;
+    }
+
+    /**
+     * Returns the biggest lag of a synchronization.
+     *
+     * @return Lag in milliseconds.
+     */
+    public long getMaxLag() {
+        return maxLag;
+    }
+
+    /**
+     * Returns the synchronization interval actually applied, this can be longer than the configured interval if the
+     * interval was stretched using {@link OverrunPolicy#STRETCH}.
+     *
+     * @return Synchronization interval in milliseconds.
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    synchronized void record(final long lag, final long duration, final long interval, final boolean overrun) {
+        ++count;
+        lastLag = lag;
+        maxLag = Math.max(maxLag, lag);
+        lastDuration = duration;
+        maxDuration = Math.max(maxDuration, duration);
+        this.interval = interval;
+        if (overrun) {
+            ++overruns;
+        }
+    }
+
+    synchronized void recordSkipped(final long skipped) {
+        this.skipped += skipped;
+    }
+
+    synchronized SynchronizationStatistics snapshot() {
+        return new SynchronizationStatistics(this);
+    }
+}
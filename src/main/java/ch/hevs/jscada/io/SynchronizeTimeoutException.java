@@ -0,0 +1,20 @@
+package ch.hevs.jscada.io;
+
+/**
+ * This exception is reported to the connection listeners of a {@link ConnectionGroup} if the synchronization of a
+ * connection did not finish within the synchronization timeout configured for that connection.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+@SuppressWarnings("serial")
+public class SynchronizeTimeoutException extends Exception {
+    /**
+     * Creates a SynchronizeTimeoutException for the connection with the given ID.
+     *
+     * @param id        ID of the connection that did not finish synchronization in time.
+     * @param timeoutMs The synchronization timeout in milliseconds that was exceeded.
+     */
+    public SynchronizeTimeoutException(final String id, final int timeoutMs) {
+        super("Synchronization of connection \"" + id + "\" did not finish within " + timeoutMs + "ms");
+    }
+}
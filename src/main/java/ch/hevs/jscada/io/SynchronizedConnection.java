@@ -0,0 +1,158 @@
+package ch.hevs.jscada.io;
+
+import ch.hevs.jscada.io.field.FieldConnection;
+import ch.hevs.jscada.io.scheduling.Clock;
+import ch.hevs.jscada.model.ScanCycle;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Synchronization state the {@link ConnectionGroup} keeps for each field connection it contains.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+final class SynchronizedConnection implements Runnable {
+    // Synchronization states.
+    private static final int IDLE = 0;
+    private static final int QUEUED = 1;
+    private static final int RUNNING = 2;
+
+    // ID of the connection inside the group.
+    final String id;
+
+    // The connection itself.
+    final FieldConnection connection;
+
+    // Maximal time in milliseconds a synchronization may take, 0 for no limit.
+    volatile int timeout = ConnectionGroup.NO_SYNCHRONIZE_TIMEOUT;
+
+    // Synchronization interval in milliseconds, 0 in order to use the default interval of the SCADA system.
+    volatile int interval = ConnectionGroup.DEFAULT_SYNCHRONIZE_INTERVAL;
+
+    // Statistics of the periodic synchronization.
+    final SynchronizationStatistics statistics = new SynchronizationStatistics();
+
+    // Clock used to measure the synchronization. The intervals and the deadline are only accessed by the scheduler.
+    volatile Clock clock = Clock.SYSTEM;
+    int activeInterval = 0;
+    int stretchedInterval = 0;
+    long deadline = 0;
+
+    // Scan cycle the synchronization belongs to, null if the group does not run scan cycles.
+    volatile ScanCycle scanCycle = null;
+
+    // Actual synchronization state.
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+
+    // Start and end time of the last synchronization.
+    private volatile long lastStart = Long.MIN_VALUE;
+    private volatile long lastEnd = Long.MIN_VALUE;
+
+    SynchronizedConnection(final String id, final FieldConnection connection) {
+        this.id = id;
+        this.connection = connection;
+    }
+
+    /**
+     * Returns the interval at which the connection has to be synchronized.
+     *
+     * @param defaultInterval The default interval used for connections without their own interval.
+     * @return Effective synchronization interval in milliseconds, 0 if the connection is not synchronized at all.
+     */
+    int effectiveInterval(final int defaultInterval) {
+        final int interval = this.interval;
+        return interval != ConnectionGroup.DEFAULT_SYNCHRONIZE_INTERVAL ? interval : defaultInterval;
+    }
+
+    /**
+     * Marks the connection as queued for synchronization. Fails if the connection is still queued or running from a
+     * previous cycle, for example because a previous synchronization was abandoned after a timeout but the connection
+     * did not react on the interruption.
+     *
+     * @return True if the connection was marked as queued, false if the connection is still busy.
+     */
+    boolean enqueue() {
+        return state.compareAndSet(IDLE, QUEUED);
+    }
+
+    /**
+     * Gives up a synchronization that has not started yet. A synchronization already running is not affected.
+     */
+    void abandon() {
+        state.compareAndSet(QUEUED, IDLE);
+    }
+
+    /**
+     * Updates the statistics for the synchronization that was due at the actual deadline and computes the deadline of
+     * the next synchronization according to the given overrun policy. Only called by the scheduler once the cycle the
+     * connection was part of has finished.
+     *
+     * @param now    Actual time in milliseconds.
+     * @param policy Policy to apply if the synchronization overran.
+     * @return The deadline of the next synchronization.
+     */
+    long reschedule(final long now, final OverrunPolicy policy) {
+        // Did the synchronization due at the deadline actually start and when did (or will) it finish?
+        final long start = lastStart;
+        final boolean started = start >= deadline;
+        final boolean running = started && state.get() == RUNNING;
+        final long finished = started && !running ? lastEnd : now;
+        final long lag = (started ? start : now) - deadline;
+        final long duration = started ? finished - start : 0;
+
+        // It is an overrun if the synchronization did not take place or did not finish before the next deadline.
+        final int currentInterval = Math.max(stretchedInterval, activeInterval);
+        final boolean overrun = !started || finished > deadline + currentInterval;
+        statistics.record(lag, duration, currentInterval, overrun);
+
+        switch (policy) {
+            case DELAY:
+                deadline = overrun ? now : deadline + activeInterval;
+                break;
+
+            case STRETCH:
+                if (overrun) {
+                    stretchedInterval = (int) Math.min(Integer.MAX_VALUE, finished - deadline);
+                } else {
+                    // Shrink back smoothly, but never below the time the synchronization actually takes.
+                    stretchedInterval = (int) Math.max(activeInterval,
+                        Math.max(duration, (stretchedInterval + activeInterval) / 2));
+                }
+                deadline = Math.max(deadline + Math.max(stretchedInterval, activeInterval), now);
+                break;
+
+            case SKIP:
+            default:
+                long next = deadline + activeInterval;
+                if (next < now) {
+                    final long missed = (now - next + activeInterval - 1) / activeInterval;
+                    statistics.recordSkipped(missed);
+                    next += missed * activeInterval;
+                }
+                deadline = next;
+                break;
+        }
+        return deadline;
+    }
+
+    @Override
+    public void run() {
+        if (state.compareAndSet(QUEUED, RUNNING)) {
+            final Clock clock = this.clock;
+            lastStart = clock.currentTimeMillis();
+            final ScanCycle scanCycle = this.scanCycle;
+            if (scanCycle != null) {
+                scanCycle.attach();
+            }
+            try {
+                connection.synchronize();
+            } finally {
+                if (scanCycle != null) {
+                    scanCycle.detach();
+                }
+                lastEnd = clock.currentTimeMillis();
+                state.set(IDLE);
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package ch.hevs.jscada.io;
+
+/**
+ * Defines the kind of threads the {@link SynchronizationExecutor} uses in order to synchronize connections.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ * @see SynchronizationExecutor#setThreadMode(ThreadMode)
+ */
+public enum ThreadMode {
+    /**
+     * A fixed size pool of platform threads. Works on any Java runtime.
+     */
+    PLATFORM,
+
+    /**
+     * Every synchronization runs on its own virtual thread, so the number of connections that can block at the same
+     * time is not limited by the size of a thread pool. Requires a Java runtime supporting virtual threads (Java 21 or
+     * newer), on older runtimes the executor falls back to {@link #PLATFORM} threads.
+     */
+    VIRTUAL
+}
@@ -24,6 +24,10 @@ public interface FieldConnection extends Connection, Synchronizable {
 	 * selected the data, the selection will fail. If you are adding an input, you need to know that the data point
 	 * assigned to the input will be permanently selected and you will not be able to update the data point from another
 	 * source.
+	 * <br><br>
+	 * Connections knowing when a value was sampled or how reliable it is should pass the source timestamp and the
+	 * quality along with the value, using for example
+	 * {@link DataPoint#setStringValue(String, long, ch.hevs.jscada.model.DataPointQuality, Object)}.
 	 * 
 	 * @param dataPoint					The data point to update using the input value from the connection.
 	 * @param inputConfiguration		The configuration of the input, this can be for example data type or address...
@@ -0,0 +1,255 @@
+package ch.hevs.jscada.io.history;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Returns the aggregates (minimum, maximum, average and number of samples) of a data point over buckets of a given
+ * interval, see {@link HistoryReader#aggregate(String, long, long, long)}. The aggregates are computed on the fly from
+ * consecutive time ranges of the rollups, coarsest first, followed by the raw samples for the part of the history no
+ * rollup covers yet. No object is created per aggregate. The cursor moves from bucket to bucket using {@link #next()},
+ * buckets without samples are skipped.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+public final class AggregateCursor {
+    // Interval of the buckets.
+    private final long interval;
+
+    // Rollup sources in time order and the one actually read.
+    private RollupSource[] rollups = new RollupSource[0];
+    private int rollup = 0;
+
+    // Raw samples source following the rollups, null if there is none.
+    private HistoryCursor samples = null;
+    private long[] timestamps;
+    private double[] values;
+    private int position = 0;
+    private int size = 0;
+
+    // Next entry read from the sources, if not yet aggregated.
+    private boolean pending = false;
+    private long entryStart;
+    private double entryMin;
+    private double entryMax;
+    private double entrySum;
+    private long entrySamples;
+
+    // Actual aggregate.
+    private long start;
+    private double min;
+    private double max;
+    private double sum;
+    private long count = 0;
+
+    AggregateCursor(final long interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * Appends the aggregates of the given rollup with bucket starts within the given range to the sources. The range
+     * has to follow the range of the sources added before.
+     *
+     * @param resolution Resolution of the rollup.
+     * @param segments   Segment files of the rollup.
+     * @param index      Blocks of the data point at the time the query was started.
+     * @param from       First bucket start, inclusive.
+     * @param to         Last bucket start, inclusive.
+     */
+    void addRollup(final RollupResolution resolution, final ByteBuffer[] segments, final BlockIndex index,
+                   final long from, final long to) {
+        rollups = Arrays.copyOf(rollups, rollups.length + 1);
+        rollups[rollups.length - 1] = new RollupSource(resolution, segments, index, from, to);
+    }
+
+    /**
+     * Sets the raw samples read after all rollups.
+     *
+     * @param samples Cursor returning the samples following the range of the rollups.
+     */
+    void setSamples(final HistoryCursor samples) {
+        this.samples = samples;
+        timestamps = new long[256];
+        values = new double[256];
+    }
+
+    /**
+     * Moves to the next bucket.
+     *
+     * @return True if there was a next bucket, false if all buckets have been read.
+     */
+    public boolean next() {
+        if (!pending && !fetch()) {
+            count = 0;
+            return false;
+        }
+        pending = false;
+        start = RollupResolution.bucketOf(entryStart, interval);
+        min = entryMin;
+        max = entryMax;
+        sum = entrySum;
+        count = entrySamples;
+        while (fetch()) {
+            if (RollupResolution.bucketOf(entryStart, interval) != start) {
+                pending = true;
+                break;
+            }
+            min = Math.min(min, entryMin);
+            max = Math.max(max, entryMax);
+            sum += entrySum;
+            count += entrySamples;
+        }
+        return true;
+    }
+
+    private boolean fetch() {
+        while (rollup < rollups.length) {
+            final RollupSource source = rollups[rollup];
+            if (source.next()) {
+                final ByteBuffer entries = source.entries;
+                final int offset = source.offset;
+                entryStart = entries.getLong(offset);
+                entryMin = entries.getDouble(offset + 8);
+                entryMax = entries.getDouble(offset + 16);
+                entrySum = entries.getDouble(offset + 24);
+                entrySamples = entries.getLong(offset + 32);
+                return true;
+            }
+            ++rollup;
+        }
+        return samples != null && fetchSample();
+    }
+
+    private boolean fetchSample() {
+        while (true) {
+            if (position == size) {
+                size = samples.read(timestamps, values);
+                position = 0;
+                if (size < 0) {
+                    size = 0;
+                    return false;
+                }
+            }
+            final double value = values[position];
+            entryStart = timestamps[position++];
+            if (!Double.isNaN(value)) {
+                entryMin = value;
+                entryMax = value;
+                entrySum = value;
+                entrySamples = 1;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the coarsest rollup the aggregates are computed from.
+     *
+     * @return Resolution of the rollup or null if the aggregates are computed from the raw samples only.
+     */
+    public RollupResolution getResolution() {
+        return rollups.length > 0 ? rollups[0].resolution : null;
+    }
+
+    /**
+     * Returns the start of the actual bucket.
+     *
+     * @return Timestamp in milliseconds.
+     */
+    public long getStart() {
+        return start;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getAverage() {
+        return count > 0 ? sum / count : Double.NaN;
+    }
+
+    /**
+     * Returns the number of samples in the actual bucket.
+     *
+     * @return Number of samples.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    // Aggregates of a rollup with bucket starts within a given range.
+    private static final class RollupSource {
+        // Resolution of the rollup and range of the bucket starts.
+        private final RollupResolution resolution;
+        private final long from;
+        private final long to;
+
+        // The blocks at the time the query was started.
+        private final ByteBuffer[] segments;
+        private final int[] blockSegments;
+        private final int[] offsets;
+        private final int[] counts;
+        private final long[] firsts;
+        private final long[] lasts;
+        private final int blockCount;
+        private int block;
+
+        // Entries of the actual block and offset of the actual entry.
+        private ByteBuffer entries = null;
+        private int entriesOffset = 0;
+        private int entry = 0;
+        private int entryCount = 0;
+        private int offset;
+
+        RollupSource(final RollupResolution resolution, final ByteBuffer[] segments, final BlockIndex index,
+                     final long from, final long to) {
+            this.resolution = resolution;
+            this.from = from;
+            this.to = to;
+            this.segments = segments;
+            blockSegments = index.segments;
+            offsets = index.offsets;
+            counts = index.counts;
+            firsts = index.firsts;
+            lasts = index.lasts;
+            blockCount = index.size;
+            block = index.lowerBound(from);
+        }
+
+        boolean next() {
+            while (true) {
+                if (entry == entryCount) {
+                    if (!nextBlock()) {
+                        return false;
+                    }
+                }
+                offset = entriesOffset + RollupEncoder.ENTRY_SIZE * entry++;
+                final long entryStart = entries.getLong(offset);
+                if (entryStart > to) {
+                    // Aggregates within a block are in time order.
+                    entry = entryCount;
+                } else if (entryStart >= from) {
+                    return true;
+                }
+            }
+        }
+
+        private boolean nextBlock() {
+            while (block < blockCount && firsts[block] <= to) {
+                final int index = block++;
+                if (lasts[index] >= from) {
+                    entries = segments[blockSegments[index]];
+                    entriesOffset = offsets[index];
+                    entry = 0;
+                    entryCount = counts[index];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
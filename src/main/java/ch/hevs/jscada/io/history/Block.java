@@ -0,0 +1,36 @@
+package ch.hevs.jscada.io.history;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Block of entries of a single data point written to a segment file by the {@link SegmentWriter}.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ * @see SegmentFormat
+ */
+interface Block {
+    /**
+     * Returns the number of entries in the block.
+     *
+     * @return Number of entries.
+     */
+    int getCount();
+
+    long getFirstTimestamp();
+
+    long getLastTimestamp();
+
+    /**
+     * Returns the size of the payload of the block.
+     *
+     * @return Number of bytes needed by {@link #writeTo(ByteBuffer)}.
+     */
+    int getByteCount();
+
+    /**
+     * Writes the payload of the block to the given buffer.
+     *
+     * @param buffer Buffer to write the bytes to.
+     */
+    void writeTo(ByteBuffer buffer);
+}
@@ -0,0 +1,143 @@
+package ch.hevs.jscada.io.history;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes a block of samples compressed by the {@link BlockEncoder}. The samples are decoded one after the other
+ * using {@link #next()}, the actual sample is read using {@link #getTimestamp()} and {@link #getValue()}. The decoder
+ * reads directly from the buffer, which can be a memory-mapped segment file, and does not create any objects per
+ * sample. A decoder can be reused for any number of blocks.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+final class BlockDecoder {
+    // Compressed samples.
+    private ByteBuffer buffer;
+    private int offset;
+    private long bitPosition;
+    private long bitLimit;
+
+    // Number of samples left and the actual sample.
+    private int remaining = 0;
+    private boolean first;
+    private long timestamp;
+    private long value;
+
+    // Decoder state, see BlockEncoder.
+    private long lastDelta;
+    private int lastLeading;
+    private int lastTrailing;
+
+    /**
+     * Starts decoding the given block.
+     *
+     * @param buffer         Buffer containing the block.
+     * @param offset         Position of the compressed samples in the buffer.
+     * @param length         Size of the compressed samples in bytes.
+     * @param firstTimestamp Timestamp of the first sample, from the block header.
+     * @param count          Number of samples in the block.
+     */
+    void reset(final ByteBuffer buffer, final int offset, final int length, final long firstTimestamp,
+               final int count) {
+        this.buffer = buffer;
+        this.offset = offset;
+        bitPosition = 0;
+        bitLimit = 8L * length;
+        remaining = count;
+        first = true;
+        timestamp = firstTimestamp;
+        value = 0;
+        lastDelta = 0;
+        lastLeading = -1;
+        lastTrailing = 0;
+    }
+
+    /**
+     * Moves to the next sample.
+     *
+     * @return True if there was a next sample, false if all samples of the block have been read.
+     * @throws IllegalStateException If the block is corrupted.
+     */
+    boolean next() {
+        if (remaining == 0) {
+            return false;
+        }
+        if (first) {
+            value = readBits(64);
+            first = false;
+        } else {
+            lastDelta += readDeltaOfDelta();
+            timestamp += lastDelta;
+            readXor();
+        }
+        --remaining;
+        return true;
+    }
+
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    double getValue() {
+        return Double.longBitsToDouble(value);
+    }
+
+    private long readDeltaOfDelta() {
+        if (readBit() == 0) {
+            return 0;
+        } else if (readBit() == 0) {
+            return signed(readBits(7), 7);
+        } else if (readBit() == 0) {
+            return signed(readBits(9), 9);
+        } else if (readBit() == 0) {
+            return signed(readBits(12), 12);
+        } else if (readBit() == 0) {
+            return signed(readBits(32), 32);
+        } else {
+            return readBits(64);
+        }
+    }
+
+    private void readXor() {
+        if (readBit() == 0) {
+            return;
+        }
+        if (readBit() != 0) {
+            lastLeading = (int) readBits(5);
+            final int meaningful = (int) readBits(6);
+            lastTrailing = 64 - lastLeading - (meaningful == 0 ? 64 : meaningful);
+        } else if (lastLeading < 0) {
+            throw new IllegalStateException("Corrupted history block!");
+        }
+        value ^= readBits(64 - lastLeading - lastTrailing) << lastTrailing;
+    }
+
+    private static long signed(final long bits, final int length) {
+        return bits << (64 - length) >> (64 - length);
+    }
+
+    private int readBit() {
+        if (bitPosition >= bitLimit) {
+            throw new IllegalStateException("Corrupted history block!");
+        }
+        final int bit = buffer.get(offset + (int) (bitPosition >>> 3)) >>> (7 - (int) (bitPosition & 7)) & 1;
+        ++bitPosition;
+        return bit;
+    }
+
+    private long readBits(int length) {
+        if (bitPosition + length > bitLimit) {
+            throw new IllegalStateException("Corrupted history block!");
+        }
+        long bits = 0;
+        while (length > 0) {
+            final int used = (int) (bitPosition & 7);
+            final int take = Math.min(8 - used, length);
+            final int current = buffer.get(offset + (int) (bitPosition >>> 3)) & 0xFF;
+            bits = bits << take | (current >>> (8 - used - take)) & ((1 << take) - 1);
+            bitPosition += take;
+            length -= take;
+        }
+        return bits;
+    }
+}
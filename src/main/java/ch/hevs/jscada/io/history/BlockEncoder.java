@@ -0,0 +1,165 @@
+package ch.hevs.jscada.io.history;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compresses a block of samples (timestamp and value) of a single data point into a bit stream, using the scheme of
+ * Facebook's Gorilla time series database:
+ * <ul>
+ * <li>Timestamps are stored as delta of the deltas between consecutive timestamps. Periodically sampled values have
+ * a constant delta, so most timestamps take a single bit.</li>
+ * <li>Values are XORed with the previous value. Unchanged values take a single bit, slowly changing values differ only
+ * in a few bits in the middle of the word and only those meaningful bits are stored.</li>
+ * </ul>
+ * The timestamp of the first sample is not part of the bit stream, it is stored in the block header. An encoder is
+ * reused for all blocks of a data point, so encoding does not allocate memory once the buffer is big enough.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ * @see BlockDecoder
+ */
+final class BlockEncoder implements Block {
+    // Bit stream, the bits are filled into the words from the most significant bit on.
+    private long[] words = new long[64];
+    private int bitCount = 0;
+
+    // Number of samples, first and last timestamp.
+    private int count = 0;
+    private long firstTimestamp = 0;
+    private long lastTimestamp = 0;
+
+    // Delta between the last two timestamps, previous value and the window of the last stored meaningful XOR bits.
+    private long lastDelta = 0;
+    private long lastValue = 0;
+    private int lastLeading = -1;
+    private int lastTrailing = 0;
+
+    /**
+     * Adds a sample to the block.
+     *
+     * @param timestamp Timestamp in milliseconds.
+     * @param value     Value.
+     */
+    void append(final long timestamp, final double value) {
+        final long bits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            firstTimestamp = timestamp;
+            writeBits(bits, 64);
+        } else {
+            final long delta = timestamp - lastTimestamp;
+            writeDeltaOfDelta(delta - lastDelta);
+            lastDelta = delta;
+            writeXor(bits ^ lastValue);
+        }
+        lastTimestamp = timestamp;
+        lastValue = bits;
+        ++count;
+    }
+
+    private void writeDeltaOfDelta(final long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            writeBits(0, 1);
+        } else if (deltaOfDelta >= -64 && deltaOfDelta < 64) {
+            writeBits(0x2, 2);
+            writeBits(deltaOfDelta, 7);
+        } else if (deltaOfDelta >= -256 && deltaOfDelta < 256) {
+            writeBits(0x6, 3);
+            writeBits(deltaOfDelta, 9);
+        } else if (deltaOfDelta >= -2048 && deltaOfDelta < 2048) {
+            writeBits(0xE, 4);
+            writeBits(deltaOfDelta, 12);
+        } else if (deltaOfDelta >= Integer.MIN_VALUE && deltaOfDelta <= Integer.MAX_VALUE) {
+            writeBits(0x1E, 5);
+            writeBits(deltaOfDelta, 32);
+        } else {
+            writeBits(0x1F, 5);
+            writeBits(deltaOfDelta, 64);
+        }
+    }
+
+    private void writeXor(final long xor) {
+        if (xor == 0) {
+            writeBits(0, 1);
+            return;
+        }
+
+        final int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        final int trailing = Long.numberOfTrailingZeros(xor);
+        if (lastLeading >= 0 && leading >= lastLeading && trailing >= lastTrailing) {
+            // The meaningful bits fit into the window of the previous value.
+            writeBits(0x2, 2);
+            writeBits(xor >>> lastTrailing, 64 - lastLeading - lastTrailing);
+        } else {
+            final int meaningful = 64 - leading - trailing;
+            writeBits(0x3, 2);
+            writeBits(leading, 5);
+            writeBits(meaningful & 63, 6);
+            writeBits(xor >>> trailing, meaningful);
+            lastLeading = leading;
+            lastTrailing = trailing;
+        }
+    }
+
+    private void writeBits(final long value, final int length) {
+        if (length == 0) {
+            return;
+        }
+        final long bits = length < 64 ? value & ((1L << length) - 1) : value;
+        final int index = bitCount >>> 6;
+        if (index + 1 >= words.length) {
+            words = Arrays.copyOf(words, 2 * words.length);
+        }
+        final int free = 64 - (bitCount & 63);
+        if (length <= free) {
+            words[index] |= bits << (free - length);
+        } else {
+            words[index] |= bits >>> (length - free);
+            words[index + 1] |= bits << (64 - length + free);
+        }
+        bitCount += length;
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    @Override
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    @Override
+    public int getByteCount() {
+        return (bitCount + 7) >>> 3;
+    }
+
+    @Override
+    public void writeTo(final ByteBuffer buffer) {
+        final int byteCount = getByteCount();
+        final int fullWords = byteCount >>> 3;
+        for (int i = 0; i < fullWords; ++i) {
+            buffer.putLong(words[i]);
+        }
+        for (int i = fullWords << 3; i < byteCount; ++i) {
+            buffer.put((byte) (words[i >>> 3] >>> (56 - 8 * (i & 7))));
+        }
+    }
+
+    /**
+     * Clears the block in order to encode the next one.
+     */
+    void reset() {
+        Arrays.fill(words, 0, (bitCount >>> 6) + 1, 0);
+        bitCount = 0;
+        count = 0;
+        lastDelta = 0;
+        lastLeading = -1;
+        lastTrailing = 0;
+    }
+}
@@ -0,0 +1,115 @@
+package ch.hevs.jscada.io.history;
+
+import java.util.Arrays;
+
+/**
+ * Time index of the blocks of a single data point. The blocks are kept ordered by the timestamp of their first
+ * sample, together with the running maximum of the timestamps of their last samples, so the first block overlapping a
+ * time range is found using a binary search even if the timestamps of some blocks overlap. The samples within a block
+ * are in time order, see {@link HistorianConnection}.
+ * <br><br>
+ * Appending a block in order only writes behind the actual size, inserting a block out of order copies the arrays.
+ * A {@link HistoryCursor} can therefore keep using the arrays it took while the index grows.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+final class BlockIndex {
+    // Number of blocks.
+    int size = 0;
+
+    // Segment, position and size of the compressed samples, number of samples and first and last timestamp per block.
+    int[] segments = new int[16];
+    int[] offsets = new int[16];
+    int[] lengths = new int[16];
+    int[] counts = new int[16];
+    long[] firsts = new long[16];
+    long[] lasts = new long[16];
+
+    // Maximal last timestamp of all blocks up to and including the block.
+    long[] maxLasts = new long[16];
+
+    /**
+     * Adds a block to the index.
+     *
+     * @param segment Index of the segment containing the block.
+     * @param offset  Position of the compressed samples in the segment.
+     * @param length  Size of the compressed samples in bytes.
+     * @param count   Number of samples.
+     * @param first   Timestamp of the first sample.
+     * @param last    Timestamp of the last sample.
+     */
+    void add(final int segment, final int offset, final int length, final int count, final long first,
+             final long last) {
+        int index = size;
+        if (size > 0 && firsts[size - 1] > first) {
+            // Out of order, never modify the arrays a cursor might use.
+            index = upperBound(first);
+            copy(Math.max(16, 2 * size));
+        } else if (size == segments.length) {
+            copy(2 * size);
+        }
+
+        final int moved = size - index;
+        System.arraycopy(segments, index, segments, index + 1, moved);
+        System.arraycopy(offsets, index, offsets, index + 1, moved);
+        System.arraycopy(lengths, index, lengths, index + 1, moved);
+        System.arraycopy(counts, index, counts, index + 1, moved);
+        System.arraycopy(firsts, index, firsts, index + 1, moved);
+        System.arraycopy(lasts, index, lasts, index + 1, moved);
+        segments[index] = segment;
+        offsets[index] = offset;
+        lengths[index] = length;
+        counts[index] = count;
+        firsts[index] = first;
+        lasts[index] = last;
+        ++size;
+
+        for (int i = index; i < size; ++i) {
+            maxLasts[i] = i > 0 ? Math.max(maxLasts[i - 1], lasts[i]) : lasts[i];
+        }
+    }
+
+    /**
+     * Returns the index of the first block that might contain samples at or after the given timestamp.
+     *
+     * @param timestamp Timestamp.
+     * @return Index of the block or the number of blocks if there is none.
+     */
+    int lowerBound(final long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (maxLasts[middle] < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int upperBound(final long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (firsts[middle] <= timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void copy(final int capacity) {
+        segments = Arrays.copyOf(segments, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        firsts = Arrays.copyOf(firsts, capacity);
+        lasts = Arrays.copyOf(lasts, capacity);
+        maxLasts = Arrays.copyOf(maxLasts, capacity);
+    }
+}
@@ -0,0 +1,474 @@
+package ch.hevs.jscada.io.history;
+
+import ch.hevs.jscada.ScadaSystem;
+import ch.hevs.jscada.config.ConfigurationDictionary;
+import ch.hevs.jscada.config.ConfigurationException;
+import ch.hevs.jscada.io.AbstractConnection;
+import ch.hevs.jscada.io.ConnectionInitializeException;
+import ch.hevs.jscada.io.ConnectionState;
+import ch.hevs.jscada.model.DataPoint;
+import ch.hevs.jscada.model.DataPointQuality;
+import ch.hevs.jscada.model.FloatDataPoint;
+import ch.hevs.jscada.model.IntegerDataPoint;
+import ch.hevs.jscada.model.Process;
+import ch.hevs.jscada.model.SampleListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Connection recording the history of the numeric data points of a process into compressed segment files on the local
+ * disk. Every update of a floating point or integer data point whose ID matches the configured pattern is recorded
+ * as sample consisting of the source timestamp and the value.
+ * <br><br>
+ * The samples of each data point are collected in blocks compressed using delta-of-delta encoding for the timestamps
+ * and XOR encoding for the values (see {@link BlockEncoder}), periodically sampled values need only a few bits per
+ * sample. Full blocks are appended to the actual segment file. The samples are compressed by the thread updating the
+ * data point without allocating memory. Completed blocks are encoded into a frame and handed over to a writer thread
+ * appending them to the segment files, so the threads acquiring the values never wait for the disk unless the writer
+ * falls behind by more than {@value #WRITE_QUEUE_CAPACITY} blocks. Blocks not yet full are kept in memory until
+ * {@link #flush()} is called or the connection is deinitialized. The recorded history is queried using a
+ * {@link HistoryReader}.
+ * <br><br>
+ * In addition to the raw samples, the historian maintains rollup aggregates (minimum, maximum, sum and number of
+ * samples) of every data point at the resolutions of {@link RollupResolution} as the updates arrive. The rollups are
+ * stored next to the raw samples in a sub directory per resolution, so queries over long time ranges do not have to
+ * decode the raw samples.
+ * <br><br>
+ * The history of floating point data points with a compression deviation (see
+ * {@link FloatDataPoint#setCompressionDeviation(double)}) is compressed using swinging door trending before being
+ * stored: only the samples needed to reconstruct every update within the deviation by linear interpolation are stored,
+ * see {@link SwingingDoorFilter}. The rollups are always computed from all updates.
+ * <br><br>
+ * Configuration parameters:
+ * <ul>
+ * <li><b>directory</b>: Directory for the segment files, mandatory. Created if it does not exist.</li>
+ * <li><b>pattern</b>: Pattern of the IDs of the data points to record, see {@link Process#getDataPoints(String)}.
+ * Defaults to "**", all data points.</li>
+ * <li><b>blockSize</b>: Number of samples per block, defaults to {@value #DEFAULT_BLOCK_SIZE}.</li>
+ * <li><b>segmentSize</b>: Size of a segment file in bytes after which a new segment file is started, defaults to
+ * {@value #DEFAULT_SEGMENT_SIZE}, at most {@value #MAX_SEGMENT_SIZE} in order for the segments to be memory-mapped by
+ * the {@link HistoryReader}.</li>
+ * <li><b>rollups</b>: True to maintain the rollup aggregates, defaults to true.</li>
+ * </ul>
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+public class HistorianConnection extends AbstractConnection {
+    private static final Logger log = LoggerFactory.getLogger(HistorianConnection.class);
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    public static final long MAX_SEGMENT_SIZE = 1024L * 1024 * 1024;
+
+    // Number of aggregates per rollup block.
+    private static final int ROLLUP_BLOCK_SIZE = 64;
+
+    // Number of completed blocks waiting for the writer thread before the updating threads have to wait.
+    static final int WRITE_QUEUE_CAPACITY = 1024;
+
+    // Configuration.
+    private File directory = null;
+    private String pattern = null;
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+    private boolean rollups = true;
+
+    // Process the history is recorded from, the writer of the segment files and the writers of the rollups.
+    private Process process = null;
+    private SegmentWriter writer = null;
+    private final SegmentWriter[] rollupWriters = new SegmentWriter[RollupResolution.values().length];
+
+    // Encoded blocks waiting to be written, the thread writing them and the first write error since the last flush.
+    private final BlockingQueue<PendingWrite> writes = new ArrayBlockingQueue<>(WRITE_QUEUE_CAPACITY);
+    private Thread writerThread = null;
+    private volatile IOException writeFailure = null;
+
+    // Series of the recorded data points indexed by handle, created on the first update. Data points not matching the
+    // pattern get the ignored series, so the pattern is matched only once per data point.
+    private static final Series IGNORED = new Series("", false);
+    private final Object seriesLock = new Object();
+    private volatile Series[] series = new Series[0];
+
+    // Registered once at the process, gets the value and the timestamp of every update.
+    private final SampleListener listener = new SampleListener() {
+        @Override
+        public void onSample(final DataPoint dataPoint, final long bits, final long timestamp,
+                             final DataPointQuality quality) {
+            record(dataPoint, bits, timestamp);
+        }
+    };
+
+    /**
+     * Frame to append to a segment file. Frames without writer are markers: a latch to count down once all frames
+     * before have been written, or no latch in order to stop the writer thread.
+     */
+    private static final class PendingWrite {
+        private final SegmentWriter writer;
+        private final ByteBuffer frame;
+        private final CountDownLatch written;
+
+        PendingWrite(final SegmentWriter writer, final ByteBuffer frame, final CountDownLatch written) {
+            this.writer = writer;
+            this.frame = frame;
+            this.written = written;
+        }
+    }
+
+    /**
+     * Samples, compression filter and rollups of a single data point.
+     */
+    private static final class Series {
+        private final byte[] id;
+        private final BlockEncoder block = new BlockEncoder();
+        private final RollupEncoder[] rollups;
+        private final SwingingDoorFilter filter = new SwingingDoorFilter();
+        private long sampleCount = 0;
+        private long storedSampleCount = 0;
+        private long lastTimestamp = Long.MIN_VALUE;
+
+        Series(final String id, final boolean rollups) {
+            this.id = id.getBytes(SegmentFormat.ID_CHARSET);
+            this.rollups = new RollupEncoder[rollups ? RollupResolution.values().length : 0];
+            for (int i = 0; i < this.rollups.length; ++i) {
+                this.rollups[i] = new RollupEncoder(RollupResolution.values()[i], ROLLUP_BLOCK_SIZE);
+            }
+        }
+    }
+
+    @Override
+    public void initialize(final ConfigurationDictionary configuration, final ScadaSystem scadaSystem)
+        throws ConfigurationException, ConnectionInitializeException {
+        directory = new File(configuration.get("directory", String.class));
+        pattern = configuration.get("pattern", "**");
+        blockSize = DEFAULT_BLOCK_SIZE;
+        if (configuration.contains("blockSize")) {
+            blockSize = configuration.get("blockSize", ConfigurationDictionary.inRange(2, 1 << 20));
+        }
+        long segmentSize = DEFAULT_SEGMENT_SIZE;
+        if (configuration.contains("segmentSize")) {
+            segmentSize = configuration.get("segmentSize", ConfigurationDictionary.inRange(4096L, MAX_SEGMENT_SIZE));
+        }
+        rollups = configuration.get("rollups", true);
+
+        createDirectory(directory);
+        writer = new SegmentWriter(directory, segmentSize);
+        for (final RollupResolution resolution : RollupResolution.values()) {
+            rollupWriters[resolution.ordinal()] = null;
+            if (rollups) {
+                final File rollupDirectory = new File(directory, resolution.getDirectoryName());
+                createDirectory(rollupDirectory);
+                rollupWriters[resolution.ordinal()] = new SegmentWriter(rollupDirectory, segmentSize);
+            }
+        }
+        writeFailure = null;
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeFrames();
+            }
+        }, "jscada-historian");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        process = scadaSystem.getProcess();
+        process.addSampleListener(listener);
+        setState(ConnectionState.CONNECTED);
+    }
+
+    @Override
+    public void deinitialize(final ScadaSystem scadaSystem) {
+        if (process != null) {
+            process.removeSampleListener(listener);
+            process = null;
+        }
+        try {
+            try {
+                flush();
+            } finally {
+                stopWriterThread();
+            }
+            if (writer != null) {
+                writer.close();
+            }
+            for (final SegmentWriter rollupWriter : rollupWriters) {
+                if (rollupWriter != null) {
+                    rollupWriter.close();
+                }
+            }
+        } catch (IOException e) {
+            log.error("Could not close the history segment!", e);
+            notifyAboutException(e);
+        }
+        setState(ConnectionState.IDLE);
+    }
+
+    private static void createDirectory(final File directory) throws ConnectionInitializeException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new ConnectionInitializeException("Can not create historian directory \"" + directory + "\"!");
+        }
+    }
+
+    /**
+     * Returns the directory the segment files are written to.
+     *
+     * @return Historian directory.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Writes all samples and aggregates kept in memory to the segment files and forces the files to the storage
+     * device. The aggregates of the actual buckets are written too, they are continued by further aggregates of the
+     * same buckets.
+     *
+     * @throws IOException If the samples could not be written.
+     */
+    public void flush() throws IOException {
+        if (writerThread == null) {
+            return;
+        }
+        for (final Series series : this.series) {
+            if (series != null && series != IGNORED) {
+                synchronized (series) {
+                    writeBlocks(series);
+                }
+            }
+        }
+        awaitWrites();
+        writer.force();
+        for (final SegmentWriter rollupWriter : rollupWriters) {
+            if (rollupWriter != null) {
+                rollupWriter.force();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of samples recorded since the connection was initialized.
+     *
+     * @return Number of samples.
+     */
+    public long getSampleCount() {
+        long count = 0;
+        for (final Series series : this.series) {
+            if (series != null && series != IGNORED) {
+                synchronized (series) {
+                    count += series.sampleCount;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of samples stored since the connection was initialized. Less samples than recorded are stored
+     * if the history of data points is compressed, see {@link FloatDataPoint#setCompressionDeviation(double)}.
+     *
+     * @return Number of samples.
+     */
+    public long getStoredSampleCount() {
+        long count = 0;
+        for (final Series series : this.series) {
+            if (series != null && series != IGNORED) {
+                synchronized (series) {
+                    count += series.storedSampleCount;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of bytes written to the segment files since the connection was initialized, the samples kept
+     * in memory are not part of it.
+     *
+     * @return Number of bytes.
+     */
+    public long getBytesWritten() {
+        return writer != null ? writer.getByteCount() : 0;
+    }
+
+    private void record(final DataPoint dataPoint, final long bits, final long timestamp) {
+        final double value;
+        double deviation = 0;
+        if (dataPoint instanceof FloatDataPoint) {
+            value = Double.longBitsToDouble(bits);
+            deviation = ((FloatDataPoint) dataPoint).getCompressionDeviation();
+        } else if (dataPoint instanceof IntegerDataPoint) {
+            value = bits;
+        } else {
+            return;
+        }
+
+        final Series series = seriesOf(dataPoint);
+        if (series == IGNORED) {
+            return;
+        }
+        synchronized (series) {
+            ++series.sampleCount;
+
+            // Entries within a block are kept in time order, a sample older than the last one starts new blocks.
+            if (timestamp < series.lastTimestamp) {
+                writeBlocks(series);
+            }
+            series.lastTimestamp = timestamp;
+
+            final int count = series.filter.add(timestamp, value, deviation);
+            for (int i = 0; i < count; ++i) {
+                store(series, series.filter.timestamps[i], series.filter.values[i]);
+            }
+
+            // The rollups are computed from all samples, not only from the stored ones.
+            for (final RollupEncoder rollup : series.rollups) {
+                rollup.add(timestamp, value);
+                if (rollup.getCount() >= ROLLUP_BLOCK_SIZE) {
+                    writeRollup(series, rollup);
+                }
+            }
+        }
+    }
+
+    // Has to be called with the lock of the series held.
+    private void store(final Series series, final long timestamp, final double value) {
+        series.block.append(timestamp, value);
+        ++series.storedSampleCount;
+        if (series.block.getCount() >= blockSize) {
+            enqueue(writer, SegmentWriter.encode(series.id, series.block));
+            series.block.reset();
+        }
+    }
+
+    // Has to be called with the lock of the series held.
+    private void writeBlocks(final Series series) {
+        if (series.filter.flush() > 0) {
+            series.block.append(series.filter.timestamps[0], series.filter.values[0]);
+            ++series.storedSampleCount;
+        }
+        if (series.block.getCount() > 0) {
+            enqueue(writer, SegmentWriter.encode(series.id, series.block));
+            series.block.reset();
+        }
+        for (final RollupEncoder rollup : series.rollups) {
+            rollup.close();
+            if (rollup.getCount() > 0) {
+                writeRollup(series, rollup);
+            }
+        }
+    }
+
+    private void writeRollup(final Series series, final RollupEncoder rollup) {
+        enqueue(rollupWriters[rollup.getResolution().ordinal()], SegmentWriter.encode(series.id, rollup));
+        rollup.reset();
+    }
+
+    // Hands the given frame over to the writer thread, waits only if the queue is full.
+    private void enqueue(final SegmentWriter writer, final ByteBuffer frame) {
+        put(new PendingWrite(writer, frame, null));
+    }
+
+    private void put(final PendingWrite write) {
+        // A block must not get lost because the updating thread got interrupted, for example by a synchronization
+        // timeout.
+        boolean interrupted = false;
+        while (true) {
+            try {
+                writes.put(write);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Waits until all frames handed over before have been written and reports the first write error since then.
+    void awaitWrites() throws IOException {
+        final CountDownLatch written = new CountDownLatch(1);
+        put(new PendingWrite(null, null, written));
+        try {
+            written.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the history to be written!");
+        }
+        final IOException failure = writeFailure;
+        writeFailure = null;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void stopWriterThread() {
+        if (writerThread != null) {
+            put(new PendingWrite(null, null, null));
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writerThread = null;
+        }
+    }
+
+    private void writeFrames() {
+        while (true) {
+            final PendingWrite write;
+            try {
+                write = writes.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (write.writer != null) {
+                try {
+                    write.writer.write(write.frame);
+                } catch (IOException e) {
+                    if (writeFailure == null) {
+                        writeFailure = e;
+                    }
+                    log.error("Could not write history!", e);
+                    notifyAboutException(e);
+                }
+            } else if (write.written != null) {
+                write.written.countDown();
+            } else {
+                return;
+            }
+        }
+    }
+
+    private Series seriesOf(final DataPoint dataPoint) {
+        final int handle = dataPoint.getHandle();
+        if (handle == Process.NO_HANDLE) {
+            return IGNORED;
+        }
+        Series[] series = this.series;
+        if (handle < series.length && series[handle] != null) {
+            return series[handle];
+        }
+        synchronized (seriesLock) {
+            series = this.series;
+            if (handle >= series.length) {
+                series = Arrays.copyOf(series, Math.max(handle + 1, 2 * series.length));
+            } else if (series[handle] != null) {
+                return series[handle];
+            } else {
+                series = series.clone();
+            }
+            final String id = dataPoint.getId();
+            series[handle] = "**".equals(pattern) || Process.matches(pattern, id) ? new Series(id, rollups) : IGNORED;
+            this.series = series;
+            return series[handle];
+        }
+    }
+}
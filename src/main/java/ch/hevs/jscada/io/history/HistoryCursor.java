@@ -0,0 +1,118 @@
+package ch.hevs.jscada.io.history;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streams the samples of a time range query into primitive arrays, see {@link HistoryReader#query(String, long, long)}.
+ * Only the blocks overlapping the time range are decoded, directly from the memory-mapped segment files, and no
+ * object is created per sample. The cursor sees the blocks indexed at the time the query was started.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+public final class HistoryCursor {
+    // Time range.
+    private final long from;
+    private final long to;
+
+    // Segments and index of the blocks at the time the query was started.
+    private final ByteBuffer[] segments;
+    private final int[] blockSegments;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int[] counts;
+    private final long[] firsts;
+    private final long[] lasts;
+    private final int blockCount;
+
+    // Next block to decode and the decoder of the actual block.
+    private int block;
+    private boolean decoding = false;
+    private final BlockDecoder decoder = new BlockDecoder();
+
+    // Number of blocks decoded.
+    private int decodedBlocks = 0;
+
+    HistoryCursor(final ByteBuffer[] segments, final BlockIndex index, final long from, final long to) {
+        this.from = from;
+        this.to = to;
+        this.segments = segments;
+        blockSegments = index.segments;
+        offsets = index.offsets;
+        lengths = index.lengths;
+        counts = index.counts;
+        firsts = index.firsts;
+        lasts = index.lasts;
+        blockCount = index.size;
+        block = index.lowerBound(from);
+    }
+
+    /**
+     * Reads the next samples into the given arrays.
+     *
+     * @param timestamps Array receiving the timestamps.
+     * @param values     Array receiving the values.
+     * @return Number of samples read or -1 if all samples have been read.
+     */
+    public int read(final long[] timestamps, final double[] values) {
+        return read(timestamps, values, 0, Math.min(timestamps.length, values.length));
+    }
+
+    /**
+     * Reads the next samples into the given arrays.
+     *
+     * @param timestamps Array receiving the timestamps.
+     * @param values     Array receiving the values.
+     * @param offset     Index of the first sample in the arrays.
+     * @param length     Maximal number of samples to read.
+     * @return Number of samples read or -1 if all samples have been read.
+     */
+    public int read(final long[] timestamps, final double[] values, final int offset, final int length) {
+        if (offset < 0 || length < 0 || offset + length > timestamps.length || offset + length > values.length) {
+            throw new IllegalArgumentException("Invalid offset or length!");
+        }
+
+        int count = 0;
+        while (count < length) {
+            if (!decoding && !nextBlock()) {
+                break;
+            }
+            if (!decoder.next()) {
+                decoding = false;
+                continue;
+            }
+            final long timestamp = decoder.getTimestamp();
+            if (timestamp > to) {
+                // Samples within a block are in time order.
+                decoding = false;
+            } else if (timestamp >= from) {
+                timestamps[offset + count] = timestamp;
+                values[offset + count] = decoder.getValue();
+                ++count;
+            }
+        }
+        return count == 0 && length > 0 ? -1 : count;
+    }
+
+    private boolean nextBlock() {
+        while (block < blockCount && firsts[block] <= to) {
+            final int index = block++;
+            if (lasts[index] >= from) {
+                decoder.reset(segments[blockSegments[index]], offsets[index], lengths[index], firsts[index],
+                    counts[index]);
+                decoding = true;
+                ++decodedBlocks;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of blocks decoded so far.
+     *
+     * @return Number of blocks.
+     */
+    public int getDecodedBlocks() {
+        return decodedBlocks;
+    }
+}
@@ -0,0 +1,180 @@
+package ch.hevs.jscada.io.history;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads the history recorded by a {@link HistorianConnection}. The segment files of the historian directory are mapped
+ * into memory and the headers of their blocks are scanned once in order to build a time index of the blocks of every
+ * data point. A query only decodes the blocks overlapping the requested time range and streams the samples into
+ * primitive arrays, see {@link HistoryCursor}.
+ * <br><br>
+ * Aggregates over longer time ranges are served from the rollups maintained by the historian, see
+ * {@link #aggregate(String, long, long, long)}.
+ * <br><br>
+ * Blocks written after the reader was opened become visible by calling {@link #refresh()}, only the new part of the
+ * segment files is scanned. Samples the historian keeps in memory are not visible until they have been flushed.
+ * <br><br>
+ * The reader is thread-safe, a cursor is meant to be used by a single thread.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+public class HistoryReader {
+    // Historian directory.
+    private final File directory;
+
+    // Raw samples and the rollups ordered by resolution.
+    private final SegmentIndex samples;
+    private final SegmentIndex[] rollups = new SegmentIndex[RollupResolution.values().length];
+
+    /**
+     * Opens the history of the given directory and indexes all blocks present.
+     *
+     * @param directory Historian directory.
+     * @throws IOException If a segment file could not be read.
+     */
+    public HistoryReader(final File directory) throws IOException {
+        this.directory = directory;
+        samples = new SegmentIndex(directory);
+        for (final RollupResolution resolution : RollupResolution.values()) {
+            rollups[resolution.ordinal()] = new SegmentIndex(new File(directory, resolution.getDirectoryName()));
+        }
+        refresh();
+    }
+
+    /**
+     * Indexes the blocks written since the reader was opened or refreshed the last time.
+     *
+     * @throws IOException If a segment file could not be read.
+     */
+    public synchronized void refresh() throws IOException {
+        samples.refresh();
+        for (final SegmentIndex rollup : rollups) {
+            rollup.refresh();
+        }
+    }
+
+    /**
+     * Returns the historian directory.
+     *
+     * @return Directory of the segment files.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the number of blocks of raw samples indexed.
+     *
+     * @return Number of blocks.
+     */
+    public synchronized long getBlockCount() {
+        return samples.getBlockCount();
+    }
+
+    /**
+     * Returns true if there is recorded history for the data point with the given ID.
+     *
+     * @param id ID of the data point.
+     * @return True if at least one block of the data point has been indexed.
+     */
+    public synchronized boolean contains(final String id) {
+        return samples.get(id) != null;
+    }
+
+    /**
+     * Starts a query for the samples of the given data point with timestamps within the given range. The samples are
+     * returned block by block in the order the blocks have been written, which is time order as long as the source
+     * timestamps of the data point never went backwards.
+     *
+     * @param id   ID of the data point.
+     * @param from Start of the time range in milliseconds, inclusive.
+     * @param to   End of the time range in milliseconds, inclusive.
+     * @return Cursor returning the samples, empty if there is no history for the data point.
+     */
+    public synchronized HistoryCursor query(final String id, final long from, final long to) {
+        if (id == null) {
+            throw new IllegalArgumentException("Data point ID can not be null!");
+        }
+        final BlockIndex index = samples.get(id);
+        if (index == null || from > to) {
+            return new HistoryCursor(samples.getSegments(), new BlockIndex(), from, to);
+        }
+        return new HistoryCursor(samples.getSegments(), index, from, to);
+    }
+
+    /**
+     * Reads the samples of the given data point with timestamps within the given range into the given arrays. At most
+     * as many samples as fit into the arrays are read, use {@link #query(String, long, long)} in order to read larger
+     * ranges in chunks.
+     *
+     * @param id         ID of the data point.
+     * @param from       Start of the time range in milliseconds, inclusive.
+     * @param to         End of the time range in milliseconds, inclusive.
+     * @param timestamps Array receiving the timestamps.
+     * @param values     Array receiving the values.
+     * @return Number of samples read.
+     */
+    public int query(final String id, final long from, final long to, final long[] timestamps, final double[] values) {
+        final int count = query(id, from, to).read(timestamps, values, 0, Math.min(timestamps.length, values.length));
+        return Math.max(count, 0);
+    }
+
+    /**
+     * Starts a query for the aggregates (minimum, maximum, average and number of samples) of the given data point over
+     * buckets of the given interval. The buckets are aligned to the epoch, all buckets overlapping the time range are
+     * returned. Only rollups whose resolution divides the interval are used. The coarsest of them serves the buckets
+     * it covers completely, the buckets following its last aggregate are served by the finer rollups the same way and
+     * the rest, for example the samples of a day not yet flushed into the day rollup, by the raw samples.
+     *
+     * @param id       ID of the data point.
+     * @param from     Start of the time range in milliseconds, inclusive.
+     * @param to       End of the time range in milliseconds, inclusive.
+     * @param interval Duration of the buckets in milliseconds.
+     * @return Cursor returning the aggregates.
+     */
+    public synchronized AggregateCursor aggregate(final String id, final long from, final long to,
+                                                  final long interval) {
+        if (id == null) {
+            throw new IllegalArgumentException("Data point ID can not be null!");
+        }
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval has to be positive!");
+        }
+
+        final AggregateCursor cursor = new AggregateCursor(interval);
+        if (from > to) {
+            cursor.setSamples(query(id, from, to));
+            return cursor;
+        }
+
+        final long start = RollupResolution.bucketOf(from, interval);
+        final long last = RollupResolution.bucketOf(to, interval);
+        final long end = last > Long.MAX_VALUE - (interval - 1) ? Long.MAX_VALUE : last + (interval - 1);
+
+        // A rollup covers the history up to the last sample aggregated into it, the buckets after the one containing
+        // that sample are served by the next finer source.
+        final BlockIndex raw = samples.get(id);
+        final long available = raw != null && raw.size > 0 ? Math.min(end, raw.maxLasts[raw.size - 1]) : Long.MIN_VALUE;
+        long next = start;
+        for (final RollupResolution resolution : RollupResolution.coarsestFirst()) {
+            final SegmentIndex rollup = rollups[resolution.ordinal()];
+            final BlockIndex index = rollup.get(id);
+            if (interval % resolution.getPeriod() != 0 || index == null || index.size == 0) {
+                continue;
+            }
+            final long covered = index.maxLasts[index.size - 1];
+            if (covered >= available) {
+                cursor.addRollup(resolution, rollup.getSegments(), index, next, end);
+                return cursor;
+            }
+            final long partial = RollupResolution.bucketOf(covered, resolution.getPeriod());
+            if (partial > next) {
+                cursor.addRollup(resolution, rollup.getSegments(), index, next, partial - 1);
+                next = partial;
+            }
+        }
+        cursor.setSamples(query(id, next, end));
+        return cursor;
+    }
+}
@@ -0,0 +1,161 @@
+package ch.hevs.jscada.io.history;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Maintains the rollup aggregates of a single data point at a given resolution. The aggregate of the actual bucket is
+ * updated with every sample, once a sample falls into another bucket, the aggregate is closed and added to the block.
+ * The payload of a block consists of {@value #ENTRY_SIZE} bytes per aggregate:
+ * <pre>
+ * long   start of the bucket
+ * double minimum
+ * double maximum
+ * double sum of the values
+ * long   number of samples
+ * </pre>
+ * The first timestamp of a block is the start of its first bucket, the last timestamp is the timestamp of the last
+ * sample aggregated, so readers know up to which point in time a rollup is complete.
+ * <br><br>
+ * The aggregates within a block have to be in time order, the block has to be written before adding a sample older
+ * than the previous one. An aggregate closed early by {@link #close()} is continued as a new aggregate for the same
+ * bucket, the readers merge consecutive aggregates of the same bucket. NaN values are not part of the aggregates.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ * @see AggregateCursor
+ */
+final class RollupEncoder implements Block {
+    static final int ENTRY_SIZE = 40;
+
+    private final RollupResolution resolution;
+    private final long period;
+
+    // Aggregate of the actual bucket.
+    private long start = 0;
+    private double min = 0;
+    private double max = 0;
+    private double sum = 0;
+    private long samples = 0;
+    private long last = 0;
+
+    // Closed aggregates and the timestamp of the last sample aggregated by them.
+    private long closedLast = 0;
+    private int count = 0;
+    private long[] starts;
+    private double[] mins;
+    private double[] maxs;
+    private double[] sums;
+    private long[] counts;
+
+    /**
+     * Creates an encoder.
+     *
+     * @param resolution Resolution of the aggregates.
+     * @param capacity   Initial number of closed aggregates per block.
+     */
+    RollupEncoder(final RollupResolution resolution, final int capacity) {
+        this.resolution = resolution;
+        period = resolution.getPeriod();
+        starts = new long[capacity];
+        mins = new double[capacity];
+        maxs = new double[capacity];
+        sums = new double[capacity];
+        counts = new long[capacity];
+    }
+
+    /**
+     * Adds a sample to the aggregate of its bucket.
+     *
+     * @param timestamp Timestamp in milliseconds.
+     * @param value     Value.
+     */
+    void add(final long timestamp, final double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        final long bucket = RollupResolution.bucketOf(timestamp, period);
+        if (samples > 0 && bucket != start) {
+            close();
+        }
+        if (samples == 0) {
+            start = bucket;
+            min = value;
+            max = value;
+            sum = value;
+            last = timestamp;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            last = Math.max(last, timestamp);
+        }
+        ++samples;
+    }
+
+    /**
+     * Closes the aggregate of the actual bucket and adds it to the block.
+     */
+    void close() {
+        if (samples == 0) {
+            return;
+        }
+        if (count == starts.length) {
+            final int capacity = Math.max(16, 2 * count);
+            starts = Arrays.copyOf(starts, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        starts[count] = start;
+        mins[count] = min;
+        maxs[count] = max;
+        sums[count] = sum;
+        counts[count] = samples;
+        closedLast = last;
+        ++count;
+        samples = 0;
+    }
+
+    RollupResolution getResolution() {
+        return resolution;
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public long getFirstTimestamp() {
+        return starts[0];
+    }
+
+    @Override
+    public long getLastTimestamp() {
+        return closedLast;
+    }
+
+    @Override
+    public int getByteCount() {
+        return count * ENTRY_SIZE;
+    }
+
+    @Override
+    public void writeTo(final ByteBuffer buffer) {
+        for (int i = 0; i < count; ++i) {
+            buffer.putLong(starts[i]);
+            buffer.putDouble(mins[i]);
+            buffer.putDouble(maxs[i]);
+            buffer.putDouble(sums[i]);
+            buffer.putLong(counts[i]);
+        }
+    }
+
+    /**
+     * Removes the closed aggregates, the aggregate of the actual bucket is kept.
+     */
+    void reset() {
+        count = 0;
+    }
+}
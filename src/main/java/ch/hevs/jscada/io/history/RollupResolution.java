@@ -0,0 +1,54 @@
+package ch.hevs.jscada.io.history;
+
+/**
+ * Resolutions at which the {@link HistorianConnection} maintains rollup aggregates (minimum, maximum, average and
+ * number of samples) of the numeric data points. The buckets are aligned to the epoch, so the daily buckets correspond
+ * to days in UTC.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+public enum RollupResolution {
+    MINUTE(60 * 1000L, "rollup-1m"),
+    HOUR(60 * 60 * 1000L, "rollup-1h"),
+    DAY(24 * 60 * 60 * 1000L, "rollup-1d");
+
+    // Cached values, the coarsest resolution first.
+    private static final RollupResolution[] COARSEST_FIRST = {DAY, HOUR, MINUTE};
+
+    private final long period;
+    private final String directoryName;
+
+    RollupResolution(final long period, final String directoryName) {
+        this.period = period;
+        this.directoryName = directoryName;
+    }
+
+    /**
+     * Returns the duration of a bucket.
+     *
+     * @return Period in milliseconds.
+     */
+    public long getPeriod() {
+        return period;
+    }
+
+    String getDirectoryName() {
+        return directoryName;
+    }
+
+    static RollupResolution[] coarsestFirst() {
+        return COARSEST_FIRST.clone();
+    }
+
+    /**
+     * Returns the start of the bucket the given timestamp belongs to.
+     *
+     * @param timestamp Timestamp in milliseconds.
+     * @param period    Duration of the buckets in milliseconds.
+     * @return Start of the bucket in milliseconds.
+     */
+    static long bucketOf(final long timestamp, final long period) {
+        final long bucket = timestamp / period * period;
+        return bucket > timestamp ? Math.max(bucket, Long.MIN_VALUE + period) - period : bucket;
+    }
+}
@@ -0,0 +1,96 @@
+package ch.hevs.jscada.io.history;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Layout of the historian's segment files. A segment file starts with a header (magic number and format version)
+ * followed by the compressed blocks, each block consists of a header and the compressed samples:
+ * <pre>
+ * short  length of the data point ID in bytes
+ * byte[] data point ID (UTF-8)
+ * long   timestamp of the first sample
+ * long   timestamp of the last sample
+ * int    number of samples
+ * int    size of the compressed samples in bytes
+ * byte[] compressed samples, see {@link BlockEncoder}
+ * </pre>
+ * The segment files of the rollups use the same layout, their blocks contain aggregates instead of samples and the
+ * header holds the start of the first bucket and the timestamp of the last sample aggregated, see
+ * {@link RollupEncoder}.
+ * All numbers are stored in big endian order. Segment files are only ever appended to, a block cut off by a crash at
+ * the end of a segment is ignored by the readers.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+final class SegmentFormat {
+    static final int MAGIC = 0x4A534853;
+    static final int VERSION = 1;
+    static final int FILE_HEADER_SIZE = 8;
+    static final Charset ID_CHARSET = Charset.forName("UTF-8");
+
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".seg";
+
+    private SegmentFormat() {
+    }
+
+    /**
+     * Returns the size of the header of a block.
+     *
+     * @param idLength Length of the data point ID in bytes.
+     * @return Size of the block header in bytes.
+     */
+    static int blockHeaderSize(final int idLength) {
+        return 2 + idLength + 8 + 8 + 4 + 4;
+    }
+
+    /**
+     * Returns the file name of the segment with the given sequence number.
+     *
+     * @param sequence Sequence number of the segment.
+     * @return File name.
+     */
+    static String fileName(final long sequence) {
+        return String.format("%s%016d%s", PREFIX, sequence, SUFFIX);
+    }
+
+    /**
+     * Returns the sequence number of the segment with the given file name.
+     *
+     * @param fileName File name.
+     * @return Sequence number or -1 if the file is not a segment file.
+     */
+    static long sequenceOf(final String fileName) {
+        if (!fileName.startsWith(PREFIX) || !fileName.endsWith(SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileName.substring(PREFIX.length(), fileName.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns all segment files in the given directory, ordered by sequence number.
+     *
+     * @param directory Historian directory.
+     * @return Segment files, the oldest first.
+     */
+    static File[] list(final File directory) {
+        final File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return sequenceOf(name) >= 0;
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+}
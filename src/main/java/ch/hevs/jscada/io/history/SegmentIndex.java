@@ -0,0 +1,144 @@
+package ch.hevs.jscada.io.history;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Memory-mapped segment files of a directory and the time index of their blocks per data point. The index is not
+ * thread-safe, the {@link HistoryReader} synchronizes the access.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ * @see SegmentFormat
+ */
+final class SegmentIndex {
+    private static final Logger log = LoggerFactory.getLogger(SegmentIndex.class);
+
+    private final File directory;
+
+    // Mapped segment files, their names and the position up to which their blocks have been indexed.
+    private ByteBuffer[] segments = new ByteBuffer[0];
+    private String[] segmentNames = new String[0];
+    private long[] scanned = new long[0];
+
+    // Block index per data point ID.
+    private final Map<String, BlockIndex> indexes = new HashMap<>();
+    private long blockCount = 0;
+
+    SegmentIndex(final File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Indexes the blocks written since the last refresh.
+     *
+     * @throws IOException If a segment file could not be read.
+     */
+    void refresh() throws IOException {
+        for (final File file : SegmentFormat.list(directory)) {
+            int segment = Arrays.asList(segmentNames).indexOf(file.getName());
+            if (segment < 0) {
+                segment = segments.length;
+                segments = Arrays.copyOf(segments, segment + 1);
+                segmentNames = Arrays.copyOf(segmentNames, segment + 1);
+                scanned = Arrays.copyOf(scanned, segment + 1);
+                segmentNames[segment] = file.getName();
+            }
+
+            final long length = file.length();
+            if (segments[segment] == null || length > segments[segment].capacity()) {
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("Segment \"" + file + "\" is too large to be mapped!");
+                }
+                // Cursors keep using the array they took.
+                segments = segments.clone();
+                segments[segment] = map(file, length);
+            }
+            scan(segment);
+        }
+    }
+
+    private static ByteBuffer map(final File file, final long length) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            // The mapping stays valid after the file has been closed.
+            randomAccessFile.close();
+        }
+    }
+
+    private void scan(final int segment) {
+        final ByteBuffer buffer = segments[segment];
+        final int limit = buffer.capacity();
+        long position = scanned[segment];
+        if (position == 0) {
+            if (limit < SegmentFormat.FILE_HEADER_SIZE) {
+                return;
+            }
+            if (buffer.getInt(0) != SegmentFormat.MAGIC || buffer.getInt(4) != SegmentFormat.VERSION) {
+                log.warn("Ignoring history segment \"{}\" with unknown format.", segmentNames[segment]);
+                scanned[segment] = Long.MAX_VALUE;
+                return;
+            }
+            position = SegmentFormat.FILE_HEADER_SIZE;
+        }
+
+        // A block cut off at the end of the segment is either still being written or was cut off by a crash.
+        while (position + 2 <= limit) {
+            final int pos = (int) position;
+            final int idLength = buffer.getShort(pos) & 0xFFFF;
+            final int headerSize = SegmentFormat.blockHeaderSize(idLength);
+            if (position + headerSize > limit) {
+                break;
+            }
+            final int payloadLength = buffer.getInt(pos + headerSize - 4);
+            if (payloadLength < 0 || position + headerSize + payloadLength > limit) {
+                break;
+            }
+
+            final byte[] id = new byte[idLength];
+            for (int i = 0; i < idLength; ++i) {
+                id[i] = buffer.get(pos + 2 + i);
+            }
+            final String key = new String(id, SegmentFormat.ID_CHARSET);
+            BlockIndex index = indexes.get(key);
+            if (index == null) {
+                index = new BlockIndex();
+                indexes.put(key, index);
+            }
+            final int header = pos + 2 + idLength;
+            index.add(segment, pos + headerSize, payloadLength, buffer.getInt(header + 16), buffer.getLong(header),
+                buffer.getLong(header + 8));
+            ++blockCount;
+            position += headerSize + payloadLength;
+        }
+        scanned[segment] = position;
+    }
+
+    ByteBuffer[] getSegments() {
+        return segments;
+    }
+
+    /**
+     * Returns the block index of the given data point.
+     *
+     * @param id ID of the data point.
+     * @return Block index or null if there are no blocks of the data point.
+     */
+    BlockIndex get(final String id) {
+        return indexes.get(id);
+    }
+
+    long getBlockCount() {
+        return blockCount;
+    }
+}
@@ -0,0 +1,137 @@
+package ch.hevs.jscada.io.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends compressed blocks to the segment files of a historian directory. A new segment file is started once the
+ * actual one has reached the configured size. Existing segment files are never modified, the writer always starts a
+ * new segment when opened.
+ * <br><br>
+ * Blocks are encoded into frames using {@link #encode(byte[], Block)} by the thread completing them, so only writing
+ * the frames to disk has to be done by the thread owning the writer.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ * @see SegmentFormat
+ */
+final class SegmentWriter {
+    private final File directory;
+    private final long segmentSize;
+
+    // Actual segment file and the sequence number of the next segment.
+    private RandomAccessFile file = null;
+    private FileChannel channel = null;
+    private long position = 0;
+    private long nextSequence;
+
+    // Statistics.
+    private long blockCount = 0;
+    private long byteCount = 0;
+
+    /**
+     * Creates a writer for the given directory.
+     *
+     * @param directory   Historian directory, has to exist.
+     * @param segmentSize Size in bytes after which a new segment file is started.
+     */
+    SegmentWriter(final File directory, final long segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        final File[] segments = SegmentFormat.list(directory);
+        nextSequence = segments.length > 0 ? SegmentFormat.sequenceOf(segments[segments.length - 1].getName()) + 1 : 0;
+    }
+
+    /**
+     * Encodes the given block together with its header into a frame ready to be written by {@link #write(ByteBuffer)}.
+     *
+     * @param id    Data point ID encoded as UTF-8.
+     * @param block The block to encode.
+     * @return Frame containing the block header and the block.
+     */
+    static ByteBuffer encode(final byte[] id, final Block block) {
+        final ByteBuffer frame = ByteBuffer.allocate(SegmentFormat.blockHeaderSize(id.length) + block.getByteCount());
+        frame.putShort((short) id.length);
+        frame.put(id);
+        frame.putLong(block.getFirstTimestamp());
+        frame.putLong(block.getLastTimestamp());
+        frame.putInt(block.getCount());
+        frame.putInt(block.getByteCount());
+        block.writeTo(frame);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Writes the given frame to the actual segment.
+     *
+     * @param frame Frame encoded using {@link #encode(byte[], Block)}.
+     * @throws IOException If the frame could not be written.
+     */
+    synchronized void write(final ByteBuffer frame) throws IOException {
+        if (channel == null || position >= segmentSize) {
+            startSegment();
+        }
+
+        final int size = frame.remaining();
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+        position += size;
+        ++blockCount;
+        byteCount += size;
+    }
+
+    private void startSegment() throws IOException {
+        close();
+        file = new RandomAccessFile(new File(directory, SegmentFormat.fileName(nextSequence++)), "rw");
+        channel = file.getChannel();
+        final ByteBuffer header = ByteBuffer.allocate(SegmentFormat.FILE_HEADER_SIZE);
+        header.putInt(SegmentFormat.MAGIC);
+        header.putInt(SegmentFormat.VERSION);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        position = SegmentFormat.FILE_HEADER_SIZE;
+        byteCount += SegmentFormat.FILE_HEADER_SIZE;
+    }
+
+    /**
+     * Forces all written blocks to the storage device.
+     *
+     * @throws IOException If the segment could not be synchronized.
+     */
+    synchronized void force() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Closes the actual segment, the next write starts a new segment.
+     *
+     * @throws IOException If the segment could not be closed.
+     */
+    synchronized void close() throws IOException {
+        if (file != null) {
+            try {
+                channel.force(false);
+            } finally {
+                file.close();
+                file = null;
+                channel = null;
+            }
+        }
+    }
+
+    synchronized long getBlockCount() {
+        return blockCount;
+    }
+
+    synchronized long getByteCount() {
+        return byteCount;
+    }
+}
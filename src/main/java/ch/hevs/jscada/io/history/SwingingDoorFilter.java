@@ -0,0 +1,106 @@
+package ch.hevs.jscada.io.history;
+
+/**
+ * Swinging door trending (SDT) compression of the samples of a single data point. Instead of storing every sample,
+ * the filter stores the end points of straight line segments such that every received sample lies within the
+ * compression deviation of the linear interpolation between the stored samples.
+ * <br><br>
+ * Starting at the last stored sample, every received sample restricts the slopes of the lines passing within the
+ * deviation of all samples received since then (the doors). As long as there are such lines, the last sample is held
+ * back. Once a sample closes the doors, a sample is stored at the time of the held sample on the center line of the
+ * remaining slopes, its value differs by at most the deviation from the held sample, and the filter starts over from
+ * there.
+ * <br><br>
+ * A deviation of 0, NaN and infinite values and samples not newer than the previous ones are never compressed. The
+ * filter does not allocate memory, the samples to store are returned in {@link #timestamps} and {@link #values}.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+final class SwingingDoorFilter {
+    // Samples to store after a call to add() or flush().
+    final long[] timestamps = new long[2];
+    final double[] values = new double[2];
+
+    // Last stored sample.
+    private boolean archived = false;
+    private long archiveTimestamp;
+    private double archiveValue;
+
+    // Sample held back and the range of slopes from the last stored sample through all samples since then.
+    private boolean held = false;
+    private long heldTimestamp;
+    private double heldValue;
+    private double lowSlope;
+    private double highSlope;
+
+    /**
+     * Passes a sample through the filter.
+     *
+     * @param timestamp Timestamp in milliseconds.
+     * @param value     Value.
+     * @param deviation Compression deviation, 0 to store every sample.
+     * @return Number of samples to store, they are available in {@link #timestamps} and {@link #values}.
+     */
+    int add(final long timestamp, final double value, final double deviation) {
+        if (deviation == 0 || Double.isNaN(value) || Double.isInfinite(value) || !archived ||
+            timestamp <= archiveTimestamp || held && timestamp <= heldTimestamp) {
+            final int count = flush();
+            timestamps[count] = timestamp;
+            values[count] = value;
+            archive(timestamp, value);
+            archived = !Double.isNaN(value) && !Double.isInfinite(value);
+            return count + 1;
+        }
+
+        long delta = timestamp - archiveTimestamp;
+        final double low = Math.max(lowSlope, (value - deviation - archiveValue) / delta);
+        final double high = Math.min(highSlope, (value + deviation - archiveValue) / delta);
+        if (low <= high) {
+            lowSlope = low;
+            highSlope = high;
+            held = true;
+            heldTimestamp = timestamp;
+            heldValue = value;
+            return 0;
+        }
+
+        // The doors are closed, store the end of the segment and restart from there with the actual sample.
+        final int count = flush();
+        delta = timestamp - archiveTimestamp;
+        lowSlope = (value - deviation - archiveValue) / delta;
+        highSlope = (value + deviation - archiveValue) / delta;
+        held = true;
+        heldTimestamp = timestamp;
+        heldValue = value;
+        return count;
+    }
+
+    /**
+     * Ends the actual segment at the sample held back, if any.
+     *
+     * @return Number of samples to store, 0 or 1, available in {@link #timestamps} and {@link #values}.
+     */
+    int flush() {
+        if (!held) {
+            return 0;
+        }
+        final double slope = (lowSlope + highSlope) / 2;
+        double value = archiveValue + slope * (heldTimestamp - archiveTimestamp);
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            value = heldValue;
+        }
+        timestamps[0] = heldTimestamp;
+        values[0] = value;
+        archive(heldTimestamp, value);
+        return 1;
+    }
+
+    private void archive(final long timestamp, final double value) {
+        archived = true;
+        archiveTimestamp = timestamp;
+        archiveValue = value;
+        held = false;
+        lowSlope = Double.NEGATIVE_INFINITY;
+        highSlope = Double.POSITIVE_INFINITY;
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Embedded time-series historian recording the values of the data points of a process into compressed segment files.
+ */
+package ch.hevs.jscada.io.history;
@@ -0,0 +1,28 @@
+package ch.hevs.jscada.io.scheduling;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Source of time for the scheduling infrastructure. The time returned does not need to be related to the wall clock,
+ * it just has to be monotonic. Tests can provide their own implementation in order to control the time.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+public interface Clock {
+    /**
+     * Monotonic system clock based on {@link System#nanoTime()}.
+     */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        }
+    };
+
+    /**
+     * Returns the actual time in milliseconds.
+     *
+     * @return Actual time in milliseconds.
+     */
+    long currentTimeMillis();
+}
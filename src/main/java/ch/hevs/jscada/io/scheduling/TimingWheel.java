@@ -0,0 +1,279 @@
+package ch.hevs.jscada.io.scheduling;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timing wheel. Tasks are scheduled for a deadline and expire once the wheel has been advanced past that
+ * deadline. Scheduling and cancelling a task are O(1) operations, advancing the wheel by one tick costs time
+ * proportional to the number of tasks in the bucket of that tick.
+ * <br><br>
+ * Time is divided into ticks of a fixed duration and every deadline is rounded up to the end of its tick, so all tasks
+ * expiring within the same tick are handed out together as one batch. The wheel does not own a thread, it has to be
+ * advanced by calling {@link #advance(ExpirationHandler)}, typically from a thread sleeping until
+ * {@link #getNextTickTime()}. The time is taken from the {@link Clock} passed to the constructor, which makes the wheel
+ * fully deterministic in tests.
+ *
+ * @param <T> Type of the scheduled tasks.
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+public final class TimingWheel<T> {
+    /**
+     * Default tick duration in milliseconds.
+     */
+    public static final int DEFAULT_TICK_DURATION = 10;
+
+    /**
+     * Default number of buckets of the wheel.
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /**
+     * Receives the tasks that expired during a tick.
+     *
+     * @param <T> Type of the scheduled tasks.
+     */
+    public interface ExpirationHandler<T> {
+        /**
+         * Called for every tick at which at least one task expired.
+         *
+         * @param deadline Time in milliseconds at which the tick ended.
+         * @param batch    The tasks that expired during the tick.
+         */
+        void expired(long deadline, List<T> batch);
+    }
+
+    /**
+     * Handle to a task scheduled on the wheel.
+     */
+    public final class Timeout {
+        private final T task;
+        private final long deadlineTick;
+        private Timeout previous;
+        private Timeout next;
+        private int bucket = -1;
+
+        private Timeout(final T task, final long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * Returns the scheduled task.
+         *
+         * @return Scheduled task.
+         */
+        public T getTask() {
+            return task;
+        }
+
+        /**
+         * Returns the time in milliseconds at which the task expires.
+         *
+         * @return Deadline in milliseconds.
+         */
+        public long getDeadline() {
+            return startTime + deadlineTick * tickDuration;
+        }
+
+        /**
+         * Returns true while the task is scheduled, false once it expired or was cancelled.
+         *
+         * @return True if still scheduled.
+         */
+        public boolean isPending() {
+            synchronized (TimingWheel.this) {
+                return bucket >= 0;
+            }
+        }
+
+        /**
+         * Removes the task from the wheel.
+         *
+         * @return True if the task was removed, false if it had already expired or was cancelled before.
+         */
+        public boolean cancel() {
+            synchronized (TimingWheel.this) {
+                if (bucket < 0) {
+                    return false;
+                }
+                unlink(this);
+                return true;
+            }
+        }
+    }
+
+    private final Clock clock;
+    private final long tickDuration;
+    private final long startTime;
+    private final Object[] heads;
+    private final int mask;
+    private long currentTick = 0;
+    private int size = 0;
+
+    /**
+     * Creates a timing wheel using the system clock and the default tick duration and wheel size.
+     */
+    public TimingWheel() {
+        this(Clock.SYSTEM, DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Creates a timing wheel.
+     *
+     * @param clock        Clock to take the time from.
+     * @param tickDuration Duration of a tick in milliseconds.
+     * @param wheelSize    Number of buckets, rounded up to the next power of two.
+     */
+    public TimingWheel(final Clock clock, final int tickDuration, final int wheelSize) {
+        if (clock == null || tickDuration < 1 || wheelSize < 1 || wheelSize > 1 << 30) {
+            throw new IllegalArgumentException("Invalid timing wheel parameters!");
+        }
+        this.clock = clock;
+        this.tickDuration = tickDuration;
+        this.startTime = clock.currentTimeMillis();
+        int buckets = 1;
+        while (buckets < wheelSize) {
+            buckets <<= 1;
+        }
+        heads = new Object[buckets];
+        mask = buckets - 1;
+    }
+
+    /**
+     * Returns the clock used by the wheel.
+     *
+     * @return Clock of the wheel.
+     */
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Returns the duration of a tick.
+     *
+     * @return Tick duration in milliseconds.
+     */
+    public long getTickDuration() {
+        return tickDuration;
+    }
+
+    /**
+     * Schedules the given task to expire after the given delay.
+     *
+     * @param task    Task to schedule.
+     * @param delayMs Delay in milliseconds.
+     * @return Handle that can be used to cancel the task.
+     */
+    public Timeout schedule(final T task, final long delayMs) {
+        return scheduleAt(task, clock.currentTimeMillis() + Math.max(delayMs, 0));
+    }
+
+    /**
+     * Schedules the given task to expire at the given time. Deadlines in the past expire with the next tick.
+     *
+     * @param task     Task to schedule.
+     * @param deadline Time in milliseconds (as returned by the clock of the wheel) at which the task expires.
+     * @return Handle that can be used to cancel the task.
+     */
+    public synchronized Timeout scheduleAt(final T task, final long deadline) {
+        long tick = (deadline - startTime + tickDuration - 1) / tickDuration;
+        if (tick <= currentTick) {
+            tick = currentTick + 1;
+        }
+        final Timeout timeout = new Timeout(task, tick);
+        link(timeout, (int) (tick & mask));
+        return timeout;
+    }
+
+    /**
+     * Returns the time at which the next tick ends and the wheel should be advanced.
+     *
+     * @return Time in milliseconds.
+     */
+    public synchronized long getNextTickTime() {
+        return startTime + (currentTick + 1) * tickDuration;
+    }
+
+    /**
+     * Returns the number of tasks actually scheduled.
+     *
+     * @return Number of scheduled tasks.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Advances the wheel up to the actual time of the clock and passes the expired tasks of every tick as one batch
+     * to the given handler. The handler is called after the internal lock has been released, so it can schedule new
+     * tasks.
+     *
+     * @param handler Handler for the expired tasks.
+     * @return Number of expired tasks.
+     */
+    public int advance(final ExpirationHandler<T> handler) {
+        final List<Long> deadlines = new ArrayList<>();
+        final List<List<T>> batches = new ArrayList<>();
+        synchronized (this) {
+            final long now = clock.currentTimeMillis();
+            while (startTime + (currentTick + 1) * tickDuration <= now) {
+                ++currentTick;
+                List<T> batch = null;
+                final int bucket = (int) (currentTick & mask);
+                @SuppressWarnings("unchecked")
+                Timeout timeout = (Timeout) heads[bucket];
+                while (timeout != null) {
+                    final Timeout next = timeout.next;
+                    if (timeout.deadlineTick <= currentTick) {
+                        unlink(timeout);
+                        if (batch == null) {
+                            batch = new ArrayList<>();
+                        }
+                        batch.add(timeout.task);
+                    }
+                    timeout = next;
+                }
+                if (batch != null) {
+                    deadlines.add(startTime + currentTick * tickDuration);
+                    batches.add(batch);
+                }
+            }
+        }
+
+        int expired = 0;
+        for (int i = 0; i < batches.size(); ++i) {
+            expired += batches.get(i).size();
+            handler.expired(deadlines.get(i), batches.get(i));
+        }
+        return expired;
+    }
+
+    private void link(final Timeout timeout, final int bucket) {
+        @SuppressWarnings("unchecked")
+        final Timeout head = (Timeout) heads[bucket];
+        timeout.bucket = bucket;
+        timeout.previous = null;
+        timeout.next = head;
+        if (head != null) {
+            head.previous = timeout;
+        }
+        heads[bucket] = timeout;
+        ++size;
+    }
+
+    private void unlink(final Timeout timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            heads[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        --size;
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Scheduling infrastructure used in order to trigger the periodic synchronization of connections.
+ */
+package ch.hevs.jscada.io.scheduling;
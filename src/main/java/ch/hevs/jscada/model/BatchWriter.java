@@ -0,0 +1,288 @@
+package ch.hevs.jscada.model;
+
+import java.util.Arrays;
+
+/**
+ * Collects value updates for many data points of a process and applies them all at once on {@link #commit()}.
+ * <br><br>
+ * Commit first stores all values and only then notifies the listeners, so a listener always sees the complete new
+ * state of the batch and never a half applied cycle. If a data point is written several times in the same batch, only
+ * the last value is applied and the listeners of the data point are notified only once. In single-writer mode the
+ * whole batch is applied by the process thread as a single step.
+ * <br><br>
+ * A batch writer can be reused after {@link #commit()} or {@link #discard()}, so a connection can keep one writer
+ * for all its synchronization cycles. A batch writer must only be used by one thread at a time.
+ * <br><br>
+ * Example:
+ * <pre>
+ * {@code
+ * BatchWriter batch = process.beginBatch();
+ * batch.setValue(temperature, 21.5, this);
+ * batch.setValue(pressure, 1013, this);
+ * batch.commit();
+ * }
+ * </pre>
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ * @see Process#beginBatch()
+ */
+public final class BatchWriter {
+    // Process the batch is applied to.
+    private final Process process;
+
+    // Pending updates: data point, the new value encoded as 64 bit word and the packed timestamp and quality.
+    private DataPoint[] points = new DataPoint[16];
+    private long[] values = new long[16];
+    private long[] metas = new long[16];
+    private int size = 0;
+
+    // Reused by the updates applied in place: true for each pending update that changed its data point.
+    private boolean[] changed = new boolean[16];
+
+    // Position of each data point in the pending updates indexed by handle, -1 if not part of the batch.
+    private int[] positions = new int[0];
+
+    BatchWriter(final Process process) {
+        this.process = process;
+    }
+
+    /**
+     * Returns the number of data points with pending updates.
+     *
+     * @return Number of data points updated by the batch.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds an update of the given floating point data point to the batch.
+     *
+     * @param dataPoint Data point to update.
+     * @param value     The new value for the data point.
+     * @param owner     Reference to the object that wants to write the value. Used to check if the object has selected
+     *                  the datapoint before.
+     * @throws SelectException If the data point is not selected by the owner.
+     */
+    public void setValue(final FloatDataPoint dataPoint, final double value, final Object owner)
+        throws SelectException {
+        setValue(dataPoint, value, System.currentTimeMillis(), DataPointQuality.GOOD, owner);
+    }
+
+    /**
+     * Adds an update of the value, source timestamp and quality of the given floating point data point to the batch.
+     *
+     * @param dataPoint Data point to update.
+     * @param value     The new value for the data point.
+     * @param timestamp Time the value was sampled at the source in milliseconds since the epoch.
+     * @param quality   Quality of the value.
+     * @param owner     Reference to the object that wants to write the value. Used to check if the object has selected
+     *                  the datapoint before.
+     * @throws SelectException If the data point is not selected by the owner.
+     */
+    public void setValue(final FloatDataPoint dataPoint, final double value, final long timestamp,
+                         final DataPointQuality quality, final Object owner) throws SelectException {
+        add(dataPoint, Double.doubleToRawLongBits(value), DataPoint.metaOf(timestamp, quality), owner);
+    }
+
+    /**
+     * Adds an update of the given integer data point to the batch.
+     *
+     * @param dataPoint Data point to update.
+     * @param value     The new value for the data point.
+     * @param owner     Reference to the object that wants to write the value. Used to check if the object has selected
+     *                  the datapoint before.
+     * @throws SelectException If the data point is not selected by the owner.
+     */
+    public void setValue(final IntegerDataPoint dataPoint, final long value, final Object owner)
+        throws SelectException {
+        setValue(dataPoint, value, System.currentTimeMillis(), DataPointQuality.GOOD, owner);
+    }
+
+    /**
+     * Adds an update of the value, source timestamp and quality of the given integer data point to the batch.
+     *
+     * @param dataPoint Data point to update.
+     * @param value     The new value for the data point.
+     * @param timestamp Time the value was sampled at the source in milliseconds since the epoch.
+     * @param quality   Quality of the value.
+     * @param owner     Reference to the object that wants to write the value. Used to check if the object has selected
+     *                  the datapoint before.
+     * @throws SelectException If the data point is not selected by the owner.
+     */
+    public void setValue(final IntegerDataPoint dataPoint, final long value, final long timestamp,
+                         final DataPointQuality quality, final Object owner) throws SelectException {
+        add(dataPoint, value, DataPoint.metaOf(timestamp, quality), owner);
+    }
+
+    /**
+     * Adds an update of the given boolean data point to the batch.
+     *
+     * @param dataPoint Data point to update.
+     * @param value     The new value for the data point.
+     * @param owner     Reference to the object that wants to write the value. Used to check if the object has selected
+     *                  the datapoint before.
+     * @throws SelectException If the data point is not selected by the owner.
+     */
+    public void setValue(final BooleanDataPoint dataPoint, final boolean value, final Object owner)
+        throws SelectException {
+        setValue(dataPoint, value, System.currentTimeMillis(), DataPointQuality.GOOD, owner);
+    }
+
+    /**
+     * Adds an update of the value, source timestamp and quality of the given boolean data point to the batch.
+     *
+     * @param dataPoint Data point to update.
+     * @param value     The new value for the data point.
+     * @param timestamp Time the value was sampled at the source in milliseconds since the epoch.
+     * @param quality   Quality of the value.
+     * @param owner     Reference to the object that wants to write the value. Used to check if the object has selected
+     *                  the datapoint before.
+     * @throws SelectException If the data point is not selected by the owner.
+     */
+    public void setValue(final BooleanDataPoint dataPoint, final boolean value, final long timestamp,
+                         final DataPointQuality quality, final Object owner) throws SelectException {
+        add(dataPoint, value ? 1 : 0, DataPoint.metaOf(timestamp, quality), owner);
+    }
+
+    private void add(final DataPoint dataPoint, final long bits, final long meta, final Object owner)
+        throws SelectException {
+        if (dataPoint == null) {
+            throw new IllegalArgumentException("Data point can not be null!");
+        }
+        final int handle = dataPoint.getHandle();
+        if (process.getDataPoint(handle) != dataPoint) {
+            throw new IllegalArgumentException(String.format("Datapoint \"%s\" is not part of the batch's process!",
+                dataPoint.getId()));
+        }
+        dataPoint.ensureSelectedBy(owner);
+        put(dataPoint, bits, meta);
+    }
+
+    /**
+     * Adds an update to the batch without any checks, the data point has to be part of the process.
+     *
+     * @param dataPoint Data point to update.
+     * @param bits      New value encoded as 64 bit word.
+     * @param meta      Packed timestamp and quality.
+     */
+    void put(final DataPoint dataPoint, final long bits, final long meta) {
+        final int handle = dataPoint.getHandle();
+        if (handle >= positions.length) {
+            final int length = positions.length;
+            positions = Arrays.copyOf(positions, Math.max(handle + 1, 2 * length));
+            Arrays.fill(positions, length, positions.length, -1);
+        }
+
+        // Replace the value if the data point is already part of the batch.
+        final int position = positions[handle];
+        if (position >= 0) {
+            values[position] = bits;
+            metas[position] = meta;
+            return;
+        }
+
+        if (size == points.length) {
+            points = Arrays.copyOf(points, 2 * size);
+            values = Arrays.copyOf(values, 2 * size);
+            metas = Arrays.copyOf(metas, 2 * size);
+        }
+        points[size] = dataPoint;
+        values[size] = bits;
+        metas[size] = meta;
+        positions[handle] = size;
+        ++size;
+    }
+
+    /**
+     * Applies all pending updates and notifies the listeners, each data point's listeners are notified once. In
+     * single-writer mode the updates are applied asynchronously by the process thread. While a scan cycle of the
+     * process is running, the updates are staged and applied at the end of the cycle together with all other updates of
+     * the cycle. The batch is empty afterwards.
+     */
+    public void commit() {
+        if (size == 0) {
+            return;
+        }
+        if (process.stage(points, values, metas, size)) {
+            discard();
+            return;
+        }
+        publish();
+    }
+
+    /**
+     * Applies all pending updates without staging them, used to swap the buffer of a {@link ScanCycle}. The batch is
+     * empty afterwards.
+     */
+    void publish() {
+        if (size == 0) {
+            return;
+        }
+
+        // Only a batch handed over to the process thread needs a copy, otherwise the updates are applied in place.
+        final ProcessEventLoop loop = process.getEventLoop();
+        if (loop != null && !loop.inEventLoop()) {
+            loop.post(drain());
+        } else {
+            try {
+                if (changed.length < size) {
+                    changed = new boolean[points.length];
+                }
+                apply(points, values, metas, changed, size);
+            } finally {
+                discard();
+            }
+        }
+    }
+
+    /**
+     * Takes a copy of all pending updates out of the batch. The batch is empty afterwards.
+     *
+     * @return Task applying the updates, null if the batch was empty.
+     */
+    Runnable drain() {
+        if (size == 0) {
+            return null;
+        }
+        final int count = size;
+        final DataPoint[] points = Arrays.copyOf(this.points, count);
+        final long[] values = Arrays.copyOf(this.values, count);
+        final long[] metas = Arrays.copyOf(this.metas, count);
+        discard();
+        return new Runnable() {
+            @Override
+            public void run() {
+                apply(points, values, metas, new boolean[count], count);
+            }
+        };
+    }
+
+    /**
+     * Drops all pending updates.
+     */
+    public void discard() {
+        for (int i = 0; i < size; ++i) {
+            positions[points[i].getHandle()] = -1;
+            points[i] = null;
+        }
+        size = 0;
+    }
+
+    private static void apply(final DataPoint[] points, final long[] values, final long[] metas,
+                              final boolean[] changed, final int count) {
+        // Store all values before the first listener gets notified, as a single write for snapshots.
+        final ProcessImage image = points[0].image;
+        final int token = image.beginWrite();
+        try {
+            for (int i = 0; i < count; ++i) {
+                changed[i] = points[i].store(token, values[i]) | points[i].storeMeta(token, metas[i]);
+            }
+        } finally {
+            image.endWrite(token);
+        }
+        for (int i = 0; i < count; ++i) {
+            points[i].dispatch(changed[i], values[i], metas[i]);
+        }
+    }
+}
@@ -8,8 +8,10 @@ import java.util.Locale;
  * @author Michael Clausen (michael.clausen@hevs.ch)
  */
 public class BooleanDataPoint extends DataPoint {
-    // Data point's value.
-    private boolean value = false;
+    // Typed value listeners.
+    private static final BooleanValueListener[] NO_VALUE_LISTENERS = new BooleanValueListener[0];
+    private volatile BooleanValueListener[] valueUpdateListeners = NO_VALUE_LISTENERS;
+    private volatile BooleanValueListener[] valueChangeListeners = NO_VALUE_LISTENERS;
 
     /**
      * Creates the boolean data point with the given ID. Note that the ID has to be unique and that the
@@ -19,7 +21,7 @@ public class BooleanDataPoint extends DataPoint {
      * @param process SCADA process to which the data point has to be added.
      */
     public BooleanDataPoint(final String id, final Process process) throws DuplicateIdException {
-        super(id, process);
+        super(id, process, DataPointType.BOOLEAN);
     }
 
     @Override
@@ -33,33 +35,133 @@ public class BooleanDataPoint extends DataPoint {
      * @return Data points boolean value.
      */
     public boolean getValue() {
-        return value;
+        return image.getBoolean(slot);
     }
 
     /**
-     * Updates the data point's value and notifies all listeners about the update.
+     * Updates the data point's value and notifies all listeners about the update. The value gets the actual time as
+     * timestamp and {@link DataPointQuality#GOOD} as quality.
      *
      * @param value The new value for the data point.
      * @param owner Reference to the object that wants to write the value. Used to check if the object has selected the
      *              datapoint before.
      */
     public void setValue(final boolean value, final Object owner) throws SelectException {
+        setValue(value, System.currentTimeMillis(), DataPointQuality.GOOD, owner);
+    }
+
+    /**
+     * Updates the data point's value, source timestamp and quality and notifies all listeners about the update. If the
+     * process is in single-writer mode, the update is applied asynchronously by the process thread, during a scan cycle
+     * it is staged until the end of the cycle.
+     *
+     * @param value     The new value for the data point.
+     * @param timestamp Time the value was sampled at the source in milliseconds since the epoch.
+     * @param quality   Quality of the value.
+     * @param owner     Reference to the object that wants to write the value. Used to check if the object has selected
+     *                  the datapoint before.
+     */
+    public void setValue(final boolean value, final long timestamp, final DataPointQuality quality, final Object owner)
+        throws SelectException {
         ensureSelectedBy(owner);
-        boolean changed = value != this.value;
-        this.value = value;
-        update(changed);
+        final long meta = metaOf(timestamp, quality);
+        if (stage(value ? 1 : 0, meta)) {
+            return;
+        }
+        final ProcessEventLoop writer = getWriter();
+        if (writer != null) {
+            writer.post(this, value ? 1 : 0, meta);
+        } else {
+            assign(value, meta);
+        }
+    }
+
+    private void assign(final boolean value, final long meta) {
+        final int token = image.beginWrite();
+        final boolean changed;
+        try {
+            changed = store(token, value ? 1 : 0) | storeMeta(token, meta);
+        } finally {
+            image.endWrite(token);
+        }
+        notifyListeners(value, changed, meta);
+    }
+
+    @Override
+    boolean store(final int token, final long bits) {
+        final boolean value = bits != 0;
+        boolean changed = value != getValue();
+        image.setBoolean(token, slot, value);
+        return changed;
+    }
+
+    @Override
+    void dispatch(final boolean changed, final long bits, final long meta) {
+        notifyListeners(bits != 0, changed, meta);
+    }
+
+    private void notifyListeners(final boolean value, final boolean changed, final long meta) {
+        for (final BooleanValueListener listener : valueUpdateListeners) {
+            listener.onValue(this, value);
+        }
+        if (changed) {
+            for (final BooleanValueListener listener : valueChangeListeners) {
+                listener.onValue(this, value);
+            }
+        }
+        update(changed, value ? 1 : 0, meta);
+    }
+
+    /**
+     * Adds a typed value listener to the data point. The listener gets the new value passed directly, so there is no
+     * need to read and convert the value. If onlyOnChanges is false, the listener will be informed about each update
+     * of the data point, otherwise only if the value actually changes.
+     *
+     * @param listener      Reference to the listener.
+     * @param onlyOnChanges If true, the listener is informed only if the data point's value effectively changes.
+     */
+    public final void addValueListener(final BooleanValueListener listener, final boolean onlyOnChanges) {
+        if (listener != null) {
+            synchronized (this) {
+                if (onlyOnChanges) {
+                    valueChangeListeners = added(valueChangeListeners, listener);
+                } else {
+                    valueUpdateListeners = added(valueUpdateListeners, listener);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the given typed value listener from the data point.
+     *
+     * @param listener Reference to the listener.
+     */
+    public final void removeValueListener(final BooleanValueListener listener) {
+        if (listener != null) {
+            synchronized (this) {
+                valueChangeListeners = removed(valueChangeListeners, listener);
+                valueUpdateListeners = removed(valueUpdateListeners, listener);
+            }
+        }
     }
 
     @Override
     public String getStringValue() {
-        return Boolean.toString(value);
+        return Boolean.toString(getValue());
     }
 
     @Override
     public void setStringValue(final String value, final Object owner) throws ConversionException, SelectException {
+        setStringValue(value, System.currentTimeMillis(), DataPointQuality.GOOD, owner);
+    }
+
+    @Override
+    public void setStringValue(final String value, final long timestamp, final DataPointQuality quality,
+                               final Object owner) throws ConversionException, SelectException {
         if (value != null) {
             if (value.toLowerCase(Locale.ROOT).equals("true") || value.toLowerCase(Locale.ROOT).equals("false")) {
-                setValue(Boolean.parseBoolean(value), owner);
+                setValue(Boolean.parseBoolean(value), timestamp, quality, owner);
             } else {
                 throw new ConversionException(value, String.class, BooleanDataPoint.class);
             }
@@ -70,11 +172,17 @@ public class BooleanDataPoint extends DataPoint {
 
     @Override
     public double getDoubleValue() {
-        return value ? 1 : 0;
+        return getValue() ? 1 : 0;
     }
 
     @Override
     public void setDoubleValue(final double value, final Object owner) throws ConversionException, SelectException {
-        setValue(value != 0, owner);
+        setDoubleValue(value, System.currentTimeMillis(), DataPointQuality.GOOD, owner);
+    }
+
+    @Override
+    public void setDoubleValue(final double value, final long timestamp, final DataPointQuality quality,
+                               final Object owner) throws ConversionException, SelectException {
+        setValue(value != 0, timestamp, quality, owner);
     }
 }
@@ -0,0 +1,216 @@
+package ch.hevs.jscada.model;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps track of the version of the last update of each data point of a process.
+ * <br><br>
+ * Every update gets the next number of a process wide atomic sequence and the version is stored into an atomic array
+ * indexed by the handle of the data point, so recording an update never takes a lock. The array is divided into pages
+ * of fixed size like the columns of the {@link ProcessImage}, so it can grow without moving the versions already
+ * stored.
+ * <br><br>
+ * In addition, the handle of every update is published into a ring indexed by version. The data points updated since
+ * a given version are found by walking the ring from that version on, so a query only visits the updates since then.
+ * Only if the ring has been overrun since the given version, the versions of all data points are scanned instead.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+final class ChangeLog {
+    // Number of versions per page.
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // Marks a data point whose update is being recorded. It is reported as updated to any reader, as the value has
+    // already been stored when the update gets recorded.
+    private static final long IN_FLIGHT = Long.MAX_VALUE;
+
+    // Number of updates kept in the ring.
+    private static final int RING_SHIFT = 16;
+    private static final int RING_SIZE = 1 << RING_SHIFT;
+    private static final int RING_MASK = RING_SIZE - 1;
+
+    // Number of attempts to read an update of the ring which is not yet published.
+    private static final int PUBLISH_SPINS = 64;
+
+    // Version of the last update.
+    private final AtomicLong version = new AtomicLong();
+
+    // Version of the last update of each data point indexed by handle, 0 if never updated.
+    private volatile AtomicLongArray[] pages = new AtomicLongArray[0];
+
+    // Handle of each update indexed by version, the upper 32 bits hold the version divided by the ring size in order to
+    // detect entries not yet published or overwritten. -1 if the slot was never used.
+    private final AtomicLongArray ring = new AtomicLongArray(RING_SIZE);
+
+    ChangeLog() {
+        for (int i = 0; i < RING_SIZE; ++i) {
+            ring.set(i, -1);
+        }
+    }
+
+    /**
+     * Stamps an update of the data point with the given handle with the next version.
+     *
+     * @param handle Handle of the updated data point.
+     * @return The version of the update.
+     */
+    long record(final int handle) {
+        AtomicLongArray[] pages = this.pages;
+        if (handle >>> PAGE_SHIFT >= pages.length) {
+            pages = grow(handle);
+        }
+        final AtomicLongArray page = pages[handle >>> PAGE_SHIFT];
+        final int index = handle & PAGE_MASK;
+
+        // Mark the data point before taking the version, so a reader that sees the new version of the process does
+        // never miss the data point.
+        page.set(index, IN_FLIGHT);
+        final long recorded = version.incrementAndGet();
+
+        // Concurrent updates of the same data point keep the highest version.
+        while (true) {
+            final long current = page.get(index);
+            if ((current != IN_FLIGHT && current >= recorded) || page.compareAndSet(index, current, recorded)) {
+                break;
+            }
+        }
+
+        // Publish the update once the version of the data point is stored, see updatedSince().
+        ring.set((int) recorded & RING_MASK, tagOf(recorded) << 32 | handle);
+        return recorded;
+    }
+
+    private static long tagOf(final long version) {
+        return (version >>> RING_SHIFT) & 0xFFFFFFFFL;
+    }
+
+    private synchronized AtomicLongArray[] grow(final int handle) {
+        final int pageCount = (handle >>> PAGE_SHIFT) + 1;
+        if (pageCount > pages.length) {
+            final AtomicLongArray[] grown = Arrays.copyOf(pages, pageCount);
+            for (int i = pages.length; i < pageCount; ++i) {
+                grown[i] = new AtomicLongArray(PAGE_SIZE);
+            }
+            pages = grown;
+        }
+        return pages;
+    }
+
+    /**
+     * Returns the version of the last update of any data point.
+     *
+     * @return Actual version.
+     */
+    long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Returns the version of the last update of the data point with the given handle.
+     *
+     * @param handle Handle of the data point.
+     * @return Version of the last update, 0 if the data point was never updated.
+     */
+    long getVersion(final int handle) {
+        final AtomicLongArray[] pages = this.pages;
+        if (handle < 0 || handle >>> PAGE_SHIFT >= pages.length) {
+            return 0;
+        }
+        final long recorded = pages[handle >>> PAGE_SHIFT].get(handle & PAGE_MASK);
+        return recorded != IN_FLIGHT ? recorded : version.get();
+    }
+
+    /**
+     * Returns the handles of all data points updated after the given version, ordered by the version of their last
+     * update.
+     *
+     * @param since Version.
+     * @return Handles of the updated data points.
+     */
+    int[] updatedSince(final long since) {
+        final long last = version.get();
+        if (since < 0 || last - since > RING_SIZE) {
+            return scan(since);
+        }
+
+        // A data point is reported with its last update only. If the data point has been updated again after the last
+        // version read, the new update gets reported by the next query.
+        int count = 0;
+        int[] handles = new int[(int) Math.min(16, Math.max(last - since, 1))];
+        for (long v = since + 1; v <= last; ++v) {
+            final int handle = published(v);
+            if (handle < 0) {
+                return scan(since);
+            }
+            final AtomicLongArray page = pages[handle >>> PAGE_SHIFT];
+            if (page.get(handle & PAGE_MASK) == v) {
+                if (count == handles.length) {
+                    handles = Arrays.copyOf(handles, 2 * count);
+                }
+                handles[count++] = handle;
+            }
+        }
+        return Arrays.copyOf(handles, count);
+    }
+
+    // Returns the handle of the update with the given version, -1 if it is not published or has been overwritten.
+    private int published(final long version) {
+        final int slot = (int) version & RING_MASK;
+        final long tag = tagOf(version);
+        for (int i = 0; i < PUBLISH_SPINS; ++i) {
+            final long entry = ring.get(slot);
+            if (entry >>> 32 == tag) {
+                return (int) entry;
+            }
+            // The update is being recorded by another thread.
+            Thread.yield();
+        }
+        return -1;
+    }
+
+    // Finds the data points updated after the given version by scanning the versions of all data points.
+    private int[] scan(final long since) {
+        final AtomicLongArray[] pages = this.pages;
+        int count = 0;
+        int[] handles = new int[16];
+        long[] versions = new long[16];
+        for (int p = 0; p < pages.length; ++p) {
+            final AtomicLongArray page = pages[p];
+            for (int i = 0; i < PAGE_SIZE; ++i) {
+                final long recorded = page.get(i);
+                if (recorded > since) {
+                    if (count == handles.length) {
+                        handles = Arrays.copyOf(handles, 2 * count);
+                        versions = Arrays.copyOf(versions, 2 * count);
+                    }
+                    handles[count] = (p << PAGE_SHIFT) | i;
+                    versions[count] = recorded;
+                    ++count;
+                }
+            }
+        }
+
+        // Order by version.
+        final long[] sortVersions = versions;
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                return Long.compare(sortVersions[a], sortVersions[b]);
+            }
+        });
+        final int[] updated = new int[count];
+        for (int i = 0; i < count; ++i) {
+            updated[i] = handles[order[i]];
+        }
+        return updated;
+    }
+}
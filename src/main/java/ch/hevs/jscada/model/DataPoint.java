@@ -1,14 +1,21 @@
 package ch.hevs.jscada.model;
 
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * The base class of each data point in the SCADA process model.
  * <br><br>
  * Additionally this base class disposes the central repository where every data point is registered. There is no need
  * to register any data point manually, this is done automatically in the constructor for you.
+ * <br><br>
+ * The build-in data point types do not store their value themselves, the value lives in a slot of the process image
+ * (see {@link ProcessStorage}), the data point object is only a view onto that slot.
+ * <br><br>
+ * Every value comes with the time the value was sampled at its source and with a quality (VTQ). Both are set by the
+ * connection writing the value and are stored as primitives packed into a single 64 bit word, so updates do not
+ * allocate memory. Listeners can read them using {@link #getTimestamp()} and {@link #getQuality()}.
  *
  * @author Michael Clausen (michael.clausen@hevs.ch)
  */
@@ -16,12 +23,54 @@ public abstract class DataPoint implements Selectable, StringConvertible, Double
     // Data point identification.
     private final String id;
 
-    // Data point listeners.
-    private final List<DataPointListener> updateListeners = new ArrayList<>();
-    private final List<DataPointListener> changeListeners = new ArrayList<>();
+    // Process the data point belongs to.
+    private final Process process;
+
+    // Handle of the data point inside the process, assigned by the process on registration.
+    int handle = Process.NO_HANDLE;
+
+    // Data point listeners. The arrays are never modified, they are replaced by a copy on each registration change
+    // while holding the monitor of the data point.
+    private static final DataPointListener[] NO_LISTENERS = new DataPointListener[0];
+    private volatile DataPointListener[] updateListeners = NO_LISTENERS;
+    private volatile DataPointListener[] changeListeners = NO_LISTENERS;
+
+    // Location of the data point's value in the process image, null and -1 for data points storing their value.
+    final ProcessImage image;
+    final int slot;
 
-    // Operate locking using select before operate principle.
-    private WeakReference<Object> selectOwner = null;
+    // Location of the timestamp and quality in the process image, -1 for data points storing their value.
+    final int metaSlot;
+
+    // Timestamp and quality of data points storing their value.
+    private volatile long meta = 0;
+
+    // Timestamp and quality passed by the calling thread together with a value a data point storing its value still
+    // has to convert. They are stored by update() once the converted value is published.
+    private static final ThreadLocal<PendingMeta> PENDING_META = new ThreadLocal<PendingMeta>() {
+        @Override
+        protected PendingMeta initialValue() {
+            return new PendingMeta();
+        }
+    };
+
+    private static final class PendingMeta {
+        private DataPoint dataPoint = null;
+        private long meta = 0;
+    }
+
+    // Qualities indexed by their ordinal, the timestamp is stored in the upper 56 bits of the packed word.
+    private static final DataPointQuality[] QUALITIES = DataPointQuality.values();
+    private static final int QUALITY_BITS = 8;
+    private static final long QUALITY_MASK = (1L << QUALITY_BITS) - 1;
+    private static final long MAX_TIMESTAMP = Long.MAX_VALUE >> QUALITY_BITS;
+    private static final long MIN_TIMESTAMP = Long.MIN_VALUE >> QUALITY_BITS;
+
+    // Operate locking using select before operate principle. Only changed using compare-and-set.
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<DataPoint, WeakReference> SELECT_OWNER =
+        AtomicReferenceFieldUpdater.newUpdater(DataPoint.class, WeakReference.class, "selectOwner");
+    private volatile WeakReference<Object> selectOwner = null;
 
     /**
      * Constructor, creates a data point with the given ID and registers the data point within the global data point
@@ -32,8 +81,12 @@ public abstract class DataPoint implements Selectable, StringConvertible, Double
      * @throws DuplicateIdException
      */
     protected DataPoint(final String id, final Process process) throws DuplicateIdException {
-        // Save ID.
+        // Save ID and process.
         this.id = id;
+        this.process = process;
+        image = null;
+        slot = -1;
+        metaSlot = -1;
 
         // Register data point within the SCADA process.
         if (process != null) {
@@ -41,6 +94,37 @@ public abstract class DataPoint implements Selectable, StringConvertible, Double
         }
     }
 
+    /**
+     * Constructor for the data points storing their value in the process image. Allocates a slot for the value in the
+     * image of the process, or in a private image if the data point is not part of any process.
+     *
+     * @param id      ID of the data point. Note that the ID should be unique across a system
+     * @param process SCADA process to which the data point has to be added.
+     * @param type    Type of the data point, defines the column the value is stored in.
+     * @throws DuplicateIdException
+     */
+    DataPoint(final String id, final Process process, final DataPointType type) throws DuplicateIdException {
+        // Save ID and process.
+        this.id = id;
+        this.process = process;
+
+        // Allocate the value inside the process image.
+        image = process != null ? process.getImage() : new ProcessImage(ProcessStorage.HEAP);
+        slot = image.allocate(type);
+        metaSlot = image.allocateMeta();
+
+        // Register data point within the SCADA process.
+        if (process != null) {
+            try {
+                process.addDataPoint(this);
+            } catch (DuplicateIdException e) {
+                image.releaseMeta(metaSlot);
+                image.release(type, slot);
+                throw e;
+            }
+        }
+    }
+
     /**
      * Returns the actual type of the data point.
      *
@@ -57,6 +141,136 @@ public abstract class DataPoint implements Selectable, StringConvertible, Double
         return id;
     }
 
+    /**
+     * Returns the handle of the data point inside its process. Handles are dense integers starting at 0 and allow fast
+     * lookups using {@link Process#getDataPoint(int)}.
+     *
+     * @return Data point's handle or {@link Process#NO_HANDLE} if the data point is not part of a process.
+     */
+    public final int getHandle() {
+        return handle;
+    }
+
+    /**
+     * Returns the time the actual value was sampled at its source. If the connection did not provide a timestamp, this
+     * is the time the value was written.
+     *
+     * @return Source timestamp in milliseconds since the epoch, 0 if the data point was never written.
+     */
+    public final long getTimestamp() {
+        return timestampOf(getMeta());
+    }
+
+    /**
+     * Returns the quality of the actual value.
+     *
+     * @return Quality of the value, {@link DataPointQuality#NO_VALUE} if the data point was never written.
+     */
+    public final DataPointQuality getQuality() {
+        return qualityOf(getMeta());
+    }
+
+    final long getMeta() {
+        return image != null ? image.getMeta(metaSlot) : meta;
+    }
+
+    /**
+     * Packs the given timestamp and quality into a 64 bit word.
+     *
+     * @param timestamp Source timestamp in milliseconds since the epoch.
+     * @param quality   Quality of the value.
+     * @return Packed timestamp and quality.
+     */
+    static long metaOf(final long timestamp, final DataPointQuality quality) {
+        if (quality == null) {
+            throw new IllegalArgumentException("Quality can not be null!");
+        }
+        if (timestamp > MAX_TIMESTAMP || timestamp < MIN_TIMESTAMP) {
+            throw new IllegalArgumentException("Timestamp " + timestamp + " is out of range!");
+        }
+        return timestamp << QUALITY_BITS | quality.ordinal();
+    }
+
+    static long timestampOf(final long meta) {
+        return meta >> QUALITY_BITS;
+    }
+
+    static DataPointQuality qualityOf(final long meta) {
+        return QUALITIES[(int) (meta & QUALITY_MASK)];
+    }
+
+    /**
+     * Updates the value of the data point using the given string together with the source timestamp and the quality of
+     * the value. Data points storing their value themselves convert the value using
+     * {@link #setStringValue(String, Object)}, the timestamp and quality are stored together with the converted value
+     * when the listeners get notified. A value that can not be converted leaves the timestamp and quality unchanged.
+     *
+     * @param value     String representation of the new value.
+     * @param timestamp Time the value was sampled at the source in milliseconds since the epoch.
+     * @param quality   Quality of the value.
+     * @param owner     Reference to the object that wants to write the value. Used to check if the object has selected
+     *                  the datapoint before.
+     * @throws ConversionException Thrown if the value can not be converted from the given string.
+     * @throws SelectException     If the data point is not selected by the owner.
+     */
+    public void setStringValue(final String value, final long timestamp, final DataPointQuality quality,
+                               final Object owner) throws ConversionException, SelectException {
+        ensureSelectedBy(owner);
+        final PendingMeta pending = PENDING_META.get();
+        final DataPoint outerDataPoint = pending.dataPoint;
+        final long outerMeta = pending.meta;
+        pending.meta = metaOf(timestamp, quality);
+        pending.dataPoint = this;
+        try {
+            setStringValue(value, owner);
+        } finally {
+            // Listeners may have written other data points in the meantime.
+            pending.dataPoint = outerDataPoint;
+            pending.meta = outerMeta;
+        }
+    }
+
+    /**
+     * Updates the value of the data point using the given double together with the source timestamp and the quality of
+     * the value. Data points storing their value themselves convert the value using
+     * {@link #setDoubleValue(double, Object)}, the timestamp and quality are stored together with the converted value
+     * when the listeners get notified. A value that can not be converted leaves the timestamp and quality unchanged.
+     *
+     * @param value     The new value as double.
+     * @param timestamp Time the value was sampled at the source in milliseconds since the epoch.
+     * @param quality   Quality of the value.
+     * @param owner     Reference to the object that wants to write the value. Used to check if the object has selected
+     *                  the datapoint before.
+     * @throws ConversionException Thrown if the value can not be converted from a double.
+     * @throws SelectException     If the data point is not selected by the owner.
+     */
+    public void setDoubleValue(final double value, final long timestamp, final DataPointQuality quality,
+                               final Object owner) throws ConversionException, SelectException {
+        ensureSelectedBy(owner);
+        final PendingMeta pending = PENDING_META.get();
+        final DataPoint outerDataPoint = pending.dataPoint;
+        final long outerMeta = pending.meta;
+        pending.meta = metaOf(timestamp, quality);
+        pending.dataPoint = this;
+        try {
+            setDoubleValue(value, owner);
+        } finally {
+            // Listeners may have written other data points in the meantime.
+            pending.dataPoint = outerDataPoint;
+            pending.meta = outerMeta;
+        }
+    }
+
+    /**
+     * Returns the version of the last update of the data point.
+     *
+     * @return Version of the last update or 0 if the data point was never updated or is not part of a process.
+     * @see Process#changesSince(long)
+     */
+    public final long getVersion() {
+        return process != null ? process.getVersion(this) : 0;
+    }
+
     /**
      * Adds a listener to the data point. If onlyOnChanges is false, the listener will be informed about each update
      * of the data point. Update means that the value has been updated, but not necessarily that the value has changed.
@@ -69,10 +283,12 @@ public abstract class DataPoint implements Selectable, StringConvertible, Double
         // TODO: can we check the type of the listener here?
         if (listener != null) {
             // Depending if the listener is added for updates or changes, add it to the respective list.
-            if (onlyOnChanges) {
-                changeListeners.add(listener);
-            } else {
-                updateListeners.add(listener);
+            synchronized (this) {
+                if (onlyOnChanges) {
+                    changeListeners = added(changeListeners, listener);
+                } else {
+                    updateListeners = added(updateListeners, listener);
+                }
             }
         }
     }
@@ -85,11 +301,45 @@ public abstract class DataPoint implements Selectable, StringConvertible, Double
     public final void removeListener(final DataPointListener listener) {
         if (listener != null) {
             // Remove the listener from booth lists.
-            changeListeners.remove(listener);
-            updateListeners.remove(listener);
+            synchronized (this) {
+                changeListeners = removed(changeListeners, listener);
+                updateListeners = removed(updateListeners, listener);
+            }
         }
     }
 
+    /**
+     * Returns a copy of the given listener array with the given listener appended.
+     *
+     * @param listeners Actual listeners.
+     * @param listener  Listener to add.
+     * @return New listener array.
+     */
+    static <T> T[] added(final T[] listeners, final T listener) {
+        final T[] copy = Arrays.copyOf(listeners, listeners.length + 1);
+        copy[listeners.length] = listener;
+        return copy;
+    }
+
+    /**
+     * Returns a copy of the given listener array without the first occurrence of the given listener. Returns the array
+     * itself if it does not contain the listener.
+     *
+     * @param listeners Actual listeners.
+     * @param listener  Listener to remove.
+     * @return New listener array.
+     */
+    static <T> T[] removed(final T[] listeners, final T listener) {
+        for (int i = 0; i < listeners.length; ++i) {
+            if (listeners[i].equals(listener)) {
+                final T[] copy = Arrays.copyOf(listeners, listeners.length - 1);
+                System.arraycopy(listeners, i + 1, copy, i, listeners.length - i - 1);
+                return copy;
+            }
+        }
+        return listeners;
+    }
+
     /**
      * Checks that the reference to the object passed as parameter has gained modification rights by selecting the
      * data point using the method {@link DataPoint#select(Object)}. Throws an exception if not.
@@ -99,18 +349,139 @@ public abstract class DataPoint implements Selectable, StringConvertible, Double
      *                         {@link DataPoint#select(Object)} method before by the calling object.
      */
     protected final void ensureSelectedBy(final Object owner) throws SelectException {
-        if (selectOwner == null || selectOwner.get() != owner) {
+        final WeakReference<Object> selected = selectOwner;
+        if (selected == null || selected.get() != owner) {
             throw new SelectException(String.format("Datapoint \"%s\" is not selected by object %s!", id,
                 String.valueOf(owner)));
         }
     }
 
     /**
-     * Informs all listeners about the change of the data point's value.
+     * Returns the process thread the data point updates have to be posted to. Returns null if the update can be applied
+     * directly, either because the process is not in single-writer mode or because the caller is the process thread.
+     *
+     * @return Process thread or null.
+     */
+    final ProcessEventLoop getWriter() {
+        final ProcessEventLoop loop = process != null ? process.getEventLoop() : null;
+        return loop != null && !loop.inEventLoop() ? loop : null;
+    }
+
+    /**
+     * Stages the update if a scan cycle of the process is running, the update is applied at the end of the cycle.
+     *
+     * @param bits New value encoded as 64 bit word (raw double bits, integer value or 0/1 for booleans).
+     * @param meta Packed timestamp and quality.
+     * @return True if the update was staged, false if it has to be applied immediately.
+     */
+    final boolean stage(final long bits, final long meta) {
+        return process != null && process.stage(this, bits, meta);
+    }
+
+    /**
+     * Stores the given timestamp and quality, the counterpart of {@link #store(int, long)}.
+     *
+     * @param token Write token obtained from {@link ProcessImage#beginWrite()}.
+     * @param meta  Packed timestamp and quality.
+     * @return True if the quality has changed, the first write of a data point does not change the quality.
+     */
+    final boolean storeMeta(final int token, final long meta) {
+        final long previous = getMeta();
+        final boolean changed = ((meta ^ previous) & QUALITY_MASK) != 0
+            && (previous & QUALITY_MASK) != DataPointQuality.NO_VALUE.ordinal();
+        if (image != null) {
+            image.setMeta(token, metaSlot, meta);
+        } else {
+            this.meta = meta;
+        }
+        return changed;
+    }
+
+    /**
+     * Stores the given value without notifying the listeners. Used by the {@link BatchWriter} in order to apply all
+     * values of a batch before sending any notification. Only supported by the build-in data point types.
+     *
+     * @param token Write token obtained from {@link ProcessImage#beginWrite()}.
+     * @param bits  New value encoded as 64 bit word (raw double bits, integer value or 0/1 for booleans).
+     * @return True if the value has changed.
+     */
+    boolean store(final int token, final long bits) {
+        throw new UnsupportedOperationException("Data point \"" + id + "\" does not support batch updates!");
+    }
+
+    /**
+     * Stores the given value, timestamp and quality as a single write and informs all listeners about the update. Used
+     * by the process thread in order to apply the updates posted in single-writer mode.
+     *
+     * @param bits New value encoded as 64 bit word (raw double bits, integer value or 0/1 for booleans).
+     * @param meta Packed timestamp and quality.
+     */
+    final void apply(final long bits, final long meta) {
+        final int token = image.beginWrite();
+        final boolean changed;
+        try {
+            changed = store(token, bits) | storeMeta(token, meta);
+        } finally {
+            image.endWrite(token);
+        }
+        dispatch(changed, bits, meta);
+    }
+
+    /**
+     * Informs all listeners about an update that has been stored using {@link #store(int, long)} before.
+     *
+     * @param changed Set to true to indicate that the value has not only updated, it has changed too.
+     * @param bits    Value of the update encoded as 64 bit word.
+     * @param meta    Packed timestamp and quality of the update.
+     */
+    void dispatch(final boolean changed, final long bits, final long meta) {
+        update(changed, bits, meta);
+    }
+
+    /**
+     * Informs all listeners about the change of the data point's value, including the process-wide listeners.
      *
      * @param changed Set to true to indicate that the value has not only updated, it has changed too.
      */
     protected final void update(final boolean changed) {
+        // The value has been converted and stored, store the timestamp and quality passed with it.
+        if (image == null) {
+            final PendingMeta pending = PENDING_META.get();
+            if (pending.dataPoint == this) {
+                meta = pending.meta;
+                pending.dataPoint = null;
+            }
+        }
+
+        notifyDataPointListeners(changed);
+        if (process != null) {
+            process.dataPointUpdated(this, changed);
+        }
+    }
+
+    /**
+     * Informs all listeners about the given update of a build-in data point, the sample listeners of the process get
+     * the value and the timestamp and quality of the update.
+     *
+     * @param changed Set to true to indicate that the value has not only updated, it has changed too.
+     * @param bits    Value of the update encoded as 64 bit word.
+     * @param meta    Packed timestamp and quality of the update.
+     */
+    final void update(final boolean changed, final long bits, final long meta) {
+        notifyDataPointListeners(changed);
+        if (process != null) {
+            process.dataPointUpdated(this, changed);
+            process.sampleRecorded(this, bits, meta);
+        }
+    }
+
+    private void notifyDataPointListeners(final boolean changed) {
+        // Stamp the update with the next version of the process.
+        if (process != null) {
+            process.recordUpdate(this);
+        }
+
+        // Listeners (un)registered during the notification are not taken into account before the next update.
         for (final DataPointListener listener : updateListeners) {
             // TODO: can we check the type of the listener here?
             listener.dataPointUpdated(this);
@@ -131,31 +502,41 @@ public abstract class DataPoint implements Selectable, StringConvertible, Double
         if (object == null) {
             throw new SelectException("null can not be used as select object!");
         }
-        if (isSelected() && selectOwner.get() != object) {
-            throw new SelectException(String.format("Datapoint \"%s\" is already selected by %s", id,
-                String.valueOf(selectOwner.get())));
+        WeakReference<Object> selection = null;
+        while (true) {
+            final WeakReference<Object> current = selectOwner;
+            final Object owner = current != null ? current.get() : null;
+            if (owner == object) {
+                return;
+            }
+            if (owner != null) {
+                throw new SelectException(String.format("Datapoint \"%s\" is already selected by %s", id,
+                    String.valueOf(owner)));
+            }
+
+            // Not selected or the owner has been garbage collected, try to take over the selection.
+            if (selection == null) {
+                selection = new WeakReference<>(object);
+            }
+            if (SELECT_OWNER.compareAndSet(this, current, selection)) {
+                return;
+            }
         }
-        selectOwner = new WeakReference<>(object);
     }
 
     @Override
     public boolean isSelected() {
-        if (selectOwner != null) {
-            if (selectOwner.get() != null) {
-                return true;
-            } else {
-                selectOwner = null;
-                return false;
-            }
-        } else {
-            return false;
-        }
+        final WeakReference<Object> current = selectOwner;
+        return current != null && current.get() != null;
     }
 
     @Override
     public final void deselect(final Object object) {
-        if (selectOwner != null && selectOwner.get() == object) {
-            selectOwner = null;
+        while (true) {
+            final WeakReference<Object> current = selectOwner;
+            if (current == null || current.get() != object || SELECT_OWNER.compareAndSet(this, current, null)) {
+                return;
+            }
         }
     }
 
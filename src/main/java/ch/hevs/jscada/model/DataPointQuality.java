@@ -0,0 +1,30 @@
+package ch.hevs.jscada.model;
+
+/**
+ * Quality of the value of a data point, set by the connection providing the value together with the source timestamp.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ * @see DataPoint#getQuality()
+ */
+public enum DataPointQuality {
+    /**
+     * The data point was never written, the value is the initial value.
+     */
+    NO_VALUE,
+
+    /**
+     * The value is valid.
+     */
+    GOOD,
+
+    /**
+     * The value may be inaccurate, for example because the sensor is out of calibration or because the value is the
+     * last known value of a source that does not respond anymore.
+     */
+    UNCERTAIN,
+
+    /**
+     * The value is not usable, for example because of a sensor failure or because the connection to the device is lost.
+     */
+    BAD
+}
@@ -2,12 +2,31 @@ package ch.hevs.jscada.model;
 
 /**
  * Implements a data point as floating point number.
+ * <br><br>
+ * Analog values read from sensors are noisy, so the data point can be given a deadband: the stored value always
+ * follows the updates, but the update only counts as change (and the change listeners are only notified) if the value
+ * moved away from the value of the last change by more than the deadband. As the reference is the last reported value
+ * and not the previous one, slow drifts are reported as soon as they add up to a significant move (hysteresis).
+ * <br><br>
+ * The data point can also be given a compression deviation used by the historian in order to store a curve of bounded
+ * error instead of every update, see {@link ch.hevs.jscada.io.history.HistorianConnection}.
  *
  * @author Michael Clausen (michael.clausen@hevs.ch)
  */
 public class FloatDataPoint extends DataPoint {
-    // Data point's value
-    private double value;
+    // Typed value listeners.
+    private static final FloatValueListener[] NO_VALUE_LISTENERS = new FloatValueListener[0];
+    private volatile FloatValueListener[] valueUpdateListeners = NO_VALUE_LISTENERS;
+    private volatile FloatValueListener[] valueChangeListeners = NO_VALUE_LISTENERS;
+
+    // Deadband filter: thresholds, value of the last significant change and number of suppressed changes.
+    private volatile double deadband = 0;
+    private volatile double deadbandPercent = 0;
+    private double deadbandReference = 0;
+    private long suppressedUpdates = 0;
+
+    // Deviation allowed when compressing the history of the data point.
+    private volatile double compressionDeviation = 0;
 
     /**
      * Creates the floating point data point with the given ID. Note that the ID has to be unique and that the
@@ -17,7 +36,7 @@ public class FloatDataPoint extends DataPoint {
      * @param process SCADA process to which the data point has to be added.
      */
     public FloatDataPoint(final String id, final Process process) throws DuplicateIdException {
-        super(id, process);
+        super(id, process, DataPointType.FLOATING_POINT);
     }
 
     @Override
@@ -31,32 +50,234 @@ public class FloatDataPoint extends DataPoint {
      * @return Data points floating point value.
      */
     public double getValue() {
-        return value;
+        return image.getDouble(slot);
     }
 
     /**
-     * Updates the data point's value and notifies all listeners about the update.
+     * Updates the data point's value and notifies all listeners about the update. The value gets the actual time as
+     * timestamp and {@link DataPointQuality#GOOD} as quality.
      *
      * @param value The new value for the data point.
      * @param owner Reference to the object that wants to write the value. Used to check if the object has selected the
      *              datapoint before.
      */
     public void setValue(final double value, final Object owner) throws SelectException {
+        setValue(value, System.currentTimeMillis(), DataPointQuality.GOOD, owner);
+    }
+
+    /**
+     * Updates the data point's value, source timestamp and quality and notifies all listeners about the update. If the
+     * process is in single-writer mode, the update is applied asynchronously by the process thread, during a scan cycle
+     * it is staged until the end of the cycle.
+     *
+     * @param value     The new value for the data point.
+     * @param timestamp Time the value was sampled at the source in milliseconds since the epoch.
+     * @param quality   Quality of the value.
+     * @param owner     Reference to the object that wants to write the value. Used to check if the object has selected
+     *                  the datapoint before.
+     */
+    public void setValue(final double value, final long timestamp, final DataPointQuality quality, final Object owner)
+        throws SelectException {
         ensureSelectedBy(owner);
-        boolean changed = value != this.value;
-        this.value = value;
-        update(changed);
+        final long meta = metaOf(timestamp, quality);
+        if (stage(Double.doubleToRawLongBits(value), meta)) {
+            return;
+        }
+        final ProcessEventLoop writer = getWriter();
+        if (writer != null) {
+            writer.post(this, Double.doubleToRawLongBits(value), meta);
+        } else {
+            assign(value, meta);
+        }
+    }
+
+    private void assign(final double value, final long meta) {
+        final int token = image.beginWrite();
+        final boolean changed;
+        try {
+            changed = store(token, Double.doubleToRawLongBits(value)) | storeMeta(token, meta);
+        } finally {
+            image.endWrite(token);
+        }
+        notifyListeners(value, changed, meta);
+    }
+
+    @Override
+    boolean store(final int token, final long bits) {
+        final double value = Double.longBitsToDouble(bits);
+        boolean changed = value != getValue();
+        image.setDouble(token, slot, value);
+        if (changed && (deadband != 0 || deadbandPercent != 0)) {
+            changed = isSignificant(value);
+        }
+        return changed;
+    }
+
+    private synchronized boolean isSignificant(final double value) {
+        final double delta = Math.abs(value - deadbandReference);
+        final double threshold = Math.max(deadband, Math.abs(deadbandReference) * deadbandPercent / 100);
+
+        // Moves from or to NaN and infinite values are always significant.
+        if (delta > threshold || Double.isNaN(delta) || Double.isInfinite(delta)) {
+            deadbandReference = value;
+            return true;
+        }
+        ++suppressedUpdates;
+        return false;
+    }
+
+    /**
+     * Returns the absolute deadband of the data point.
+     *
+     * @return Absolute deadband, 0 if not set.
+     */
+    public double getDeadband() {
+        return deadband;
+    }
+
+    /**
+     * Sets the absolute deadband of the data point. An update is only considered as change if the value differs more
+     * than the deadband from the value of the last change. If a percent deadband is set too, the value has to move
+     * beyond both deadbands.
+     *
+     * @param deadband Absolute deadband, 0 to disable.
+     */
+    public void setDeadband(final double deadband) {
+        checkDeadband(deadband);
+        synchronized (this) {
+            deadbandReference = getValue();
+            this.deadband = deadband;
+        }
+    }
+
+    /**
+     * Returns the percent deadband of the data point.
+     *
+     * @return Deadband in percent of the value of the last change, 0 if not set.
+     */
+    public double getDeadbandPercent() {
+        return deadbandPercent;
+    }
+
+    /**
+     * Sets the percent deadband of the data point. An update is only considered as change if the value differs more
+     * than the given percentage of the value of the last change from that value. If an absolute deadband is set too,
+     * the value has to move beyond both deadbands.
+     *
+     * @param percent Deadband in percent of the value of the last change, 0 to disable.
+     */
+    public void setDeadbandPercent(final double percent) {
+        checkDeadband(percent);
+        synchronized (this) {
+            deadbandReference = getValue();
+            deadbandPercent = percent;
+        }
+    }
+
+    private static void checkDeadband(final double deadband) {
+        if (!(deadband >= 0) || Double.isInfinite(deadband)) {
+            throw new IllegalArgumentException("Deadband has to be a positive finite number!");
+        }
+    }
+
+    /**
+     * Returns the number of updates that changed the value, but not by more than the deadband, and were therefore not
+     * reported as changes.
+     *
+     * @return Number of suppressed changes.
+     */
+    public synchronized long getSuppressedUpdates() {
+        return suppressedUpdates;
+    }
+
+    /**
+     * Returns the compression deviation used when recording the history of the data point.
+     *
+     * @return Compression deviation, 0 if the history is not compressed.
+     */
+    public double getCompressionDeviation() {
+        return compressionDeviation;
+    }
+
+    /**
+     * Sets the compression deviation used when recording the history of the data point. The history then only
+     * contains the samples needed to reconstruct every update within the given deviation by linear interpolation.
+     *
+     * @param deviation Compression deviation, 0 to record every update.
+     */
+    public void setCompressionDeviation(final double deviation) {
+        if (!(deviation >= 0) || Double.isInfinite(deviation)) {
+            throw new IllegalArgumentException("Compression deviation has to be a positive finite number!");
+        }
+        compressionDeviation = deviation;
+    }
+
+    @Override
+    void dispatch(final boolean changed, final long bits, final long meta) {
+        notifyListeners(Double.longBitsToDouble(bits), changed, meta);
+    }
+
+    private void notifyListeners(final double value, final boolean changed, final long meta) {
+        for (final FloatValueListener listener : valueUpdateListeners) {
+            listener.onValue(this, value);
+        }
+        if (changed) {
+            for (final FloatValueListener listener : valueChangeListeners) {
+                listener.onValue(this, value);
+            }
+        }
+        update(changed, Double.doubleToRawLongBits(value), meta);
+    }
+
+    /**
+     * Adds a typed value listener to the data point. The listener gets the new value passed directly, so there is no
+     * need to read and convert the value. If onlyOnChanges is false, the listener will be informed about each update
+     * of the data point, otherwise only if the value actually changes.
+     *
+     * @param listener      Reference to the listener.
+     * @param onlyOnChanges If true, the listener is informed only if the data point's value effectively changes.
+     */
+    public final void addValueListener(final FloatValueListener listener, final boolean onlyOnChanges) {
+        if (listener != null) {
+            synchronized (this) {
+                if (onlyOnChanges) {
+                    valueChangeListeners = added(valueChangeListeners, listener);
+                } else {
+                    valueUpdateListeners = added(valueUpdateListeners, listener);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the given typed value listener from the data point.
+     *
+     * @param listener Reference to the listener.
+     */
+    public final void removeValueListener(final FloatValueListener listener) {
+        if (listener != null) {
+            synchronized (this) {
+                valueChangeListeners = removed(valueChangeListeners, listener);
+                valueUpdateListeners = removed(valueUpdateListeners, listener);
+            }
+        }
     }
 
     @Override
     public String getStringValue() {
-        return Double.toString(value);
+        return Double.toString(getValue());
     }
 
     @Override
     public void setStringValue(final String value, final Object owner) throws ConversionException, SelectException {
+        setStringValue(value, System.currentTimeMillis(), DataPointQuality.GOOD, owner);
+    }
+
+    @Override
+    public void setStringValue(final String value, final long timestamp, final DataPointQuality quality,
+                               final Object owner) throws ConversionException, SelectException {
         try {
-            setValue(Double.parseDouble(value), owner);
+            setValue(Double.parseDouble(value), timestamp, quality, owner);
         } catch (NumberFormatException | NullPointerException e) {
             throw new ConversionException(value, String.class, FloatDataPoint.class);
         }
@@ -64,11 +285,17 @@ public class FloatDataPoint extends DataPoint {
 
     @Override
     public double getDoubleValue() {
-        return value;
+        return getValue();
     }
 
     @Override
     public void setDoubleValue(final double value, final Object owner) throws ConversionException, SelectException {
-        setValue(value, owner);
+        setDoubleValue(value, System.currentTimeMillis(), DataPointQuality.GOOD, owner);
+    }
+
+    @Override
+    public void setDoubleValue(final double value, final long timestamp, final DataPointQuality quality,
+                               final Object owner) throws ConversionException, SelectException {
+        setValue(value, timestamp, quality, owner);
     }
 }
@@ -0,0 +1,20 @@
+package ch.hevs.jscada.model;
+
+/**
+ * Interface in order to get notified about updates or value changes of a floating point data point. In contrast to the
+ * generic {@link DataPointListener}, the new value is passed directly as a primitive, so neither casting nor any
+ * conversion of the value is needed.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ * @see FloatDataPoint#addValueListener(FloatValueListener, boolean)
+ */
+public interface FloatValueListener {
+    /**
+     * The data point has been updated or changed (Depends which method used when adding the listener to the data
+     * point).
+     *
+     * @param dataPoint The data point that has been updated or changed.
+     * @param value     The new value of the data point.
+     */
+    void onValue(FloatDataPoint dataPoint, double value);
+}
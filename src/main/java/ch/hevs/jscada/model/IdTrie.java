@@ -0,0 +1,201 @@
+package ch.hevs.jscada.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trie over hierarchical data point IDs. IDs are split into segments at the dots, so "plant1.boiler3.temp" is stored
+ * under the path plant1 &rarr; boiler3 &rarr; temp. Keys or patterns can contain two kinds of wildcards:
+ * <ul>
+ * <li><b>*</b> matches exactly one segment, "plant1.*.temp" matches "plant1.boiler3.temp" but not "plant1.temp".</li>
+ * <li><b>**</b> matches any number of segments (including none), "plant1.boiler3.**" matches "plant1.boiler3" and
+ * everything below.</li>
+ * </ul>
+ * The trie can be used in both directions: {@link #collect(String, Collection)} finds all values stored under keys
+ * matching a pattern, {@link #collectMatching(String, Collection)} finds all values stored under patterns matching a
+ * key.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+final class IdTrie<T> {
+    /**
+     * Wildcard matching exactly one segment.
+     */
+    static final String ANY_SEGMENT = "*";
+
+    /**
+     * Wildcard matching any number of segments.
+     */
+    static final String ANY_SEGMENTS = "**";
+
+    private static final class Node<T> {
+        private Map<String, Node<T>> children = null;
+        private List<T> values = null;
+
+        Node<T> child(final String segment) {
+            return children != null ? children.get(segment) : null;
+        }
+    }
+
+    private final Node<T> root = new Node<>();
+
+    /**
+     * Stores the value under the given key.
+     *
+     * @param key   Dotted key or pattern.
+     * @param value Value to store.
+     */
+    void put(final String key, final T value) {
+        Node<T> node = root;
+        for (final String segment : split(key)) {
+            if (node.children == null) {
+                node.children = new HashMap<>();
+            }
+            Node<T> child = node.children.get(segment);
+            if (child == null) {
+                child = new Node<>();
+                node.children.put(segment, child);
+            }
+            node = child;
+        }
+        if (node.values == null) {
+            node.values = new ArrayList<>(1);
+        }
+        node.values.add(value);
+    }
+
+    /**
+     * Removes the given value from the values stored under the given key.
+     *
+     * @param key   Dotted key or pattern.
+     * @param value Value to remove, compared using equals.
+     * @return True if a value was removed.
+     */
+    boolean remove(final String key, final Object value) {
+        Node<T> node = root;
+        for (final String segment : split(key)) {
+            node = node.child(segment);
+            if (node == null) {
+                return false;
+            }
+        }
+        return node.values != null && node.values.remove(value);
+    }
+
+    /**
+     * Adds all values stored under keys matching the given pattern to the given collection.
+     *
+     * @param pattern Pattern, may contain the wildcards * and **.
+     * @param out     Collection to add the values to.
+     */
+    void collect(final String pattern, final Collection<? super T> out) {
+        collect(root, split(pattern), 0, out);
+    }
+
+    private static <T> void collect(final Node<T> node, final String[] segments, final int index,
+                                    final Collection<? super T> out) {
+        if (index == segments.length) {
+            if (node.values != null) {
+                out.addAll(node.values);
+            }
+            return;
+        }
+
+        final String segment = segments[index];
+        if (ANY_SEGMENTS.equals(segment)) {
+            // Either the wildcard matches no more segment or it consumes one segment and stays active.
+            collect(node, segments, index + 1, out);
+            if (node.children != null) {
+                for (final Node<T> child : node.children.values()) {
+                    collect(child, segments, index, out);
+                }
+            }
+        } else if (ANY_SEGMENT.equals(segment)) {
+            if (node.children != null) {
+                for (final Node<T> child : node.children.values()) {
+                    collect(child, segments, index + 1, out);
+                }
+            }
+        } else {
+            final Node<T> child = node.child(segment);
+            if (child != null) {
+                collect(child, segments, index + 1, out);
+            }
+        }
+    }
+
+    /**
+     * Adds all values stored under patterns matching the given key to the given collection.
+     *
+     * @param key Dotted key without wildcards.
+     * @param out Collection to add the values to.
+     */
+    void collectMatching(final String key, final Collection<? super T> out) {
+        collectMatching(root, split(key), 0, out);
+    }
+
+    private static <T> void collectMatching(final Node<T> node, final String[] segments, final int index,
+                                            final Collection<? super T> out) {
+        // A ** pattern segment can consume any number of the remaining key segments.
+        final Node<T> anySegments = node.child(ANY_SEGMENTS);
+        if (anySegments != null) {
+            for (int i = index; i <= segments.length; ++i) {
+                collectMatching(anySegments, segments, i, out);
+            }
+        }
+
+        if (index == segments.length) {
+            if (node.values != null) {
+                out.addAll(node.values);
+            }
+            return;
+        }
+
+        final Node<T> child = node.child(segments[index]);
+        if (child != null) {
+            collectMatching(child, segments, index + 1, out);
+        }
+        final Node<T> anySegment = node.child(ANY_SEGMENT);
+        if (anySegment != null) {
+            collectMatching(anySegment, segments, index + 1, out);
+        }
+    }
+
+    /**
+     * Returns true if the given key matches the given pattern.
+     *
+     * @param pattern Pattern, may contain the wildcards * and **.
+     * @param key     Dotted key without wildcards.
+     * @return True if the key matches the pattern.
+     */
+    static boolean matches(final String pattern, final String key) {
+        return matches(split(pattern), 0, split(key), 0);
+    }
+
+    private static boolean matches(final String[] pattern, final int patternIndex, final String[] key,
+                                   final int keyIndex) {
+        if (patternIndex == pattern.length) {
+            return keyIndex == key.length;
+        }
+
+        // A ** pattern segment can consume any number of the remaining key segments.
+        final String segment = pattern[patternIndex];
+        if (ANY_SEGMENTS.equals(segment)) {
+            for (int i = keyIndex; i <= key.length; ++i) {
+                if (matches(pattern, patternIndex + 1, key, i)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return keyIndex < key.length && (ANY_SEGMENT.equals(segment) || segment.equals(key[keyIndex]))
+            && matches(pattern, patternIndex + 1, key, keyIndex + 1);
+    }
+
+    private static String[] split(final String key) {
+        return key.split("\\.", -1);
+    }
+}
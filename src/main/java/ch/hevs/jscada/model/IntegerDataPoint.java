@@ -6,8 +6,10 @@ package ch.hevs.jscada.model;
  * @author Michael Clausen (michael.clausen@hevs.ch)
  */
 public class IntegerDataPoint extends DataPoint {
-    // Data point's value
-    private long value;
+    // Typed value listeners.
+    private static final IntegerValueListener[] NO_VALUE_LISTENERS = new IntegerValueListener[0];
+    private volatile IntegerValueListener[] valueUpdateListeners = NO_VALUE_LISTENERS;
+    private volatile IntegerValueListener[] valueChangeListeners = NO_VALUE_LISTENERS;
 
     /**
      * Creates the integer data point with the given ID. Note that the ID has to be unique and that the
@@ -17,7 +19,7 @@ public class IntegerDataPoint extends DataPoint {
      * @param process SCADA process to which the data point has to be added.
      */
     public IntegerDataPoint(final String id, final Process process) throws DuplicateIdException {
-        super(id, process);
+        super(id, process, DataPointType.INTEGER);
     }
 
     @Override
@@ -31,32 +33,132 @@ public class IntegerDataPoint extends DataPoint {
      * @return Data points integer value.
      */
     public long getValue() {
-        return value;
+        return image.getLong(slot);
     }
 
     /**
-     * Updates the data point's value and notifies all listeners about the update.
+     * Updates the data point's value and notifies all listeners about the update. The value gets the actual time as
+     * timestamp and {@link DataPointQuality#GOOD} as quality.
      *
      * @param value The new value for the data point.
      * @param owner Reference to the object that wants to write the value. Used to check if the object has selected the
      *              datapoint before.
      */
     public void setValue(final long value, final Object owner) throws SelectException {
+        setValue(value, System.currentTimeMillis(), DataPointQuality.GOOD, owner);
+    }
+
+    /**
+     * Updates the data point's value, source timestamp and quality and notifies all listeners about the update. If the
+     * process is in single-writer mode, the update is applied asynchronously by the process thread, during a scan cycle
+     * it is staged until the end of the cycle.
+     *
+     * @param value     The new value for the data point.
+     * @param timestamp Time the value was sampled at the source in milliseconds since the epoch.
+     * @param quality   Quality of the value.
+     * @param owner     Reference to the object that wants to write the value. Used to check if the object has selected
+     *                  the datapoint before.
+     */
+    public void setValue(final long value, final long timestamp, final DataPointQuality quality, final Object owner)
+        throws SelectException {
         ensureSelectedBy(owner);
-        boolean changed = value != this.value;
-        this.value = value;
-        update(changed);
+        final long meta = metaOf(timestamp, quality);
+        if (stage(value, meta)) {
+            return;
+        }
+        final ProcessEventLoop writer = getWriter();
+        if (writer != null) {
+            writer.post(this, value, meta);
+        } else {
+            assign(value, meta);
+        }
+    }
+
+    private void assign(final long value, final long meta) {
+        final int token = image.beginWrite();
+        final boolean changed;
+        try {
+            changed = store(token, value) | storeMeta(token, meta);
+        } finally {
+            image.endWrite(token);
+        }
+        notifyListeners(value, changed, meta);
+    }
+
+    @Override
+    boolean store(final int token, final long bits) {
+        final long value = bits;
+        boolean changed = value != getValue();
+        image.setLong(token, slot, value);
+        return changed;
+    }
+
+    @Override
+    void dispatch(final boolean changed, final long bits, final long meta) {
+        notifyListeners(bits, changed, meta);
+    }
+
+    private void notifyListeners(final long value, final boolean changed, final long meta) {
+        for (final IntegerValueListener listener : valueUpdateListeners) {
+            listener.onValue(this, value);
+        }
+        if (changed) {
+            for (final IntegerValueListener listener : valueChangeListeners) {
+                listener.onValue(this, value);
+            }
+        }
+        update(changed, value, meta);
+    }
+
+    /**
+     * Adds a typed value listener to the data point. The listener gets the new value passed directly, so there is no
+     * need to read and convert the value. If onlyOnChanges is false, the listener will be informed about each update
+     * of the data point, otherwise only if the value actually changes.
+     *
+     * @param listener      Reference to the listener.
+     * @param onlyOnChanges If true, the listener is informed only if the data point's value effectively changes.
+     */
+    public final void addValueListener(final IntegerValueListener listener, final boolean onlyOnChanges) {
+        if (listener != null) {
+            synchronized (this) {
+                if (onlyOnChanges) {
+                    valueChangeListeners = added(valueChangeListeners, listener);
+                } else {
+                    valueUpdateListeners = added(valueUpdateListeners, listener);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the given typed value listener from the data point.
+     *
+     * @param listener Reference to the listener.
+     */
+    public final void removeValueListener(final IntegerValueListener listener) {
+        if (listener != null) {
+            synchronized (this) {
+                valueChangeListeners = removed(valueChangeListeners, listener);
+                valueUpdateListeners = removed(valueUpdateListeners, listener);
+            }
+        }
     }
 
     @Override
     public String getStringValue() {
-        return Long.toString(value);
+        return Long.toString(getValue());
     }
 
     @Override
     public void setStringValue(final String value, final Object owner) throws ConversionException, SelectException {
+        setStringValue(value, System.currentTimeMillis(), DataPointQuality.GOOD, owner);
+    }
+
+    @Override
+    public void setStringValue(final String value, final long timestamp, final DataPointQuality quality,
+                               final Object owner) throws ConversionException, SelectException {
         try {
-            setValue(Long.parseLong(value), owner);
+            setValue(Long.parseLong(value), timestamp, quality, owner);
         } catch (NumberFormatException e) {
             throw new ConversionException(value, String.class, IntegerDataPoint.class);
         }
@@ -64,11 +166,17 @@ public class IntegerDataPoint extends DataPoint {
 
     @Override
     public double getDoubleValue() {
-        return value;
+        return getValue();
     }
 
     @Override
     public void setDoubleValue(final double value, final Object owner) throws ConversionException, SelectException {
-        setValue((long) value, owner);
+        setDoubleValue(value, System.currentTimeMillis(), DataPointQuality.GOOD, owner);
+    }
+
+    @Override
+    public void setDoubleValue(final double value, final long timestamp, final DataPointQuality quality,
+                               final Object owner) throws ConversionException, SelectException {
+        setValue((long) value, timestamp, quality, owner);
     }
 }
@@ -1,20 +1,210 @@
 package ch.hevs.jscada.model;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The SCADA process contains all elements defined by a certain SCADA installation or system. It organizes all
  * data points, alarms, events and other data related to a SCADA model.
+ * <br><br>
+ * By default data point updates are applied directly by the thread writing the value. In single-writer mode (see
+ * {@link #setSingleWriter(boolean)}) all updates are instead posted to a single process thread which applies them in
+ * order and notifies the data point listeners, so connections synchronized in parallel never race on a data point.
+ * <br><br>
+ * Updates written during a scan cycle (see {@link #beginScanCycle()}) are staged and applied all at once at the end
+ * of the cycle, like the input image of a PLC which does not change while the program runs.
  *
  * @author Michael Clausen (michael.clausen@hevs.ch)
  */
 public class Process {
-    // Data points registry.
+    /**
+     * Handle returned by {@link #handleOf(String)} for IDs that do not belong to any data point.
+     */
+    public static final int NO_HANDLE = -1;
+
+    // Data points registry, sorted by ID.
     private final Map<String, DataPoint> dataPoints = new TreeMap<>();
 
+    // Hash index for fast lookups by ID and data points indexed by their handle.
+    private final Map<String, DataPoint> index = new HashMap<>();
+    private DataPoint[] handles = new DataPoint[16];
+
+    // Versions of the data point updates.
+    private final ChangeLog changeLog = new ChangeLog();
+
+    // Trie over the hierarchical IDs of all data points, the wildcard subscriptions indexed by pattern and the list of
+    // all subscriptions. The subscriptions are guarded by the monitor of the subscription trie.
+    private final IdTrie<DataPoint> idTrie = new IdTrie<>();
+    private final IdTrie<Subscription> subscriptions = new IdTrie<>();
+    private final List<Subscription> subscribers = new ArrayList<>();
+
     // List of all listeners for structure changes.
     private final List<ProcessListener> processListeners = new ArrayList<>();
 
+    // Process-wide data point listeners, copy-on-write arrays like the listeners of the data points.
+    @SuppressWarnings("unchecked")
+    private static final DataPointListener<DataPoint>[] NO_LISTENERS =
+        (DataPointListener<DataPoint>[]) new DataPointListener<?>[0];
+    private final Object listenersLock = new Object();
+    private volatile DataPointListener<DataPoint>[] updateListeners = NO_LISTENERS;
+    private volatile DataPointListener<DataPoint>[] changeListeners = NO_LISTENERS;
+    private static final SampleListener[] NO_SAMPLE_LISTENERS = new SampleListener[0];
+    private volatile SampleListener[] sampleListeners = NO_SAMPLE_LISTENERS;
+
+    // Storage of the data point values.
+    private ProcessImage image = new ProcessImage(ProcessStorage.HEAP);
+
+    // Process thread applying all updates in single-writer mode, null if updates are applied by the writing thread.
+    private volatile ProcessEventLoop eventLoop = null;
+
+    // Scan cycles: number of running cycles and the cycle each thread is attached to.
+    private final AtomicInteger scanCycles = new AtomicInteger();
+    private final ThreadLocal<ScanCycle> attachedScanCycle = new ThreadLocal<>();
+    private final ScanCycleStatistics scanStatistics = new ScanCycleStatistics();
+
+    // Staging buffers of ended scan cycles, reused by the next cycles. Guarded by the monitor of the deque.
+    private final Deque<BatchWriter> stagingBuffers = new ArrayDeque<>();
+
+    /**
+     * Returns where the values of the data points are stored.
+     *
+     * @return Process image storage type.
+     */
+    public synchronized ProcessStorage getStorage() {
+        return image.getStorage();
+    }
+
+    /**
+     * Selects where the values of the data points are stored. The storage can only be changed as long as the process
+     * does not contain any data points.
+     *
+     * @param storage Process image storage type.
+     */
+    public synchronized void setStorage(final ProcessStorage storage) {
+        if (storage == null) {
+            throw new IllegalArgumentException("Process storage can not be null!");
+        }
+        if (!dataPoints.isEmpty()) {
+            throw new IllegalStateException("The process storage can not be changed once data points were added!");
+        }
+        if (storage != image.getStorage()) {
+            image = new ProcessImage(storage);
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated in order to store the values of all data points.
+     *
+     * @return Size of the process image in bytes.
+     */
+    public synchronized long getImageSize() {
+        return image.getAllocatedBytes();
+    }
+
+    /**
+     * Returns true if the process is in single-writer mode.
+     *
+     * @return True if all data point updates are applied by the process thread.
+     */
+    public boolean isSingleWriter() {
+        return eventLoop != null;
+    }
+
+    /**
+     * Enables or disables the single-writer mode. In single-writer mode every data point update is posted to the
+     * process thread, which applies the updates in the order they were posted and calls the data point listeners. Thus
+     * listeners are always called from the same thread. Updates done by listeners themselves are applied immediately.
+     * <br><br>
+     * When disabling the mode, all pending updates are applied before the method returns.
+     *
+     * @param singleWriter True to enable the single-writer mode, false to apply the updates in the writing thread.
+     */
+    public synchronized void setSingleWriter(final boolean singleWriter) {
+        if (singleWriter && eventLoop == null) {
+            eventLoop = new ProcessEventLoop();
+        } else if (!singleWriter && eventLoop != null) {
+            final ProcessEventLoop loop = eventLoop;
+            eventLoop = null;
+            loop.shutdown();
+        }
+    }
+
+    /**
+     * Executes the given task on the process thread if the process is in single-writer mode, otherwise the task is
+     * executed immediately by the calling thread. Tasks are executed in order with the data point updates, so a task
+     * sees all updates posted before.
+     *
+     * @param task Task to execute.
+     */
+    public void execute(final Runnable task) {
+        final ProcessEventLoop loop = eventLoop;
+        if (loop != null && !loop.inEventLoop()) {
+            loop.post(task);
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * Starts a new batch of data point updates. The updates collected by the returned writer are applied together when
+     * the batch is committed and the listeners of each data point are notified once per batch.
+     *
+     * @return Batch writer for this process.
+     */
+    public BatchWriter beginBatch() {
+        return new BatchWriter(this);
+    }
+
+    /**
+     * Starts a new scan cycle with its own staging buffer. Updates written by the threads attached to the cycle (see
+     * {@link ScanCycle#attach()}) are staged until the cycle ends, so the values seen by listeners, readers and
+     * snapshots stay those of the previous cycle. Scan cycles can overlap, for example if connections with different
+     * synchronization intervals are synchronized at the same time, each cycle is swapped in when it ends. The staging
+     * buffer of an ended cycle is reused by the next cycle, so there are only as many buffers as overlapping cycles.
+     *
+     * @return The new scan cycle.
+     */
+    public ScanCycle beginScanCycle() {
+        scanCycles.incrementAndGet();
+        BatchWriter buffer;
+        synchronized (stagingBuffers) {
+            buffer = stagingBuffers.pollFirst();
+        }
+        if (buffer == null) {
+            buffer = new BatchWriter(this);
+        }
+        return new ScanCycle(this, buffer);
+    }
+
+    /**
+     * Returns true if a scan cycle is running and data point updates are staged.
+     *
+     * @return True if a scan cycle is running.
+     */
+    public boolean isScanCycleRunning() {
+        return scanCycles.get() > 0;
+    }
+
+    /**
+     * Returns the statistics of the scan cycles of the process.
+     *
+     * @return Snapshot of the scan cycle statistics.
+     */
+    public ScanCycleStatistics getScanCycleStatistics() {
+        return scanStatistics.snapshot();
+    }
+
+    /**
+     * Waits until all data point updates posted before the call have been applied. Returns immediately if the process
+     * is not in single-writer mode.
+     */
+    public void flush() {
+        final ProcessEventLoop loop = eventLoop;
+        if (loop != null) {
+            loop.flush();
+        }
+    }
+
     /**
      * Returns the data point with the given ID if it exists, otherwise it returns null.
      *
@@ -22,7 +212,32 @@ public class Process {
      * @return Reference to the data point or null if the point does not exist.
      */
     public DataPoint getDataPoint(final String id) {
-        return dataPoints.get(id);
+        return index.get(id);
+    }
+
+    /**
+     * Returns the handle of the data point with the given ID. The handle is a small integer assigned to each data point
+     * when it is added to the process, the handles of a process are dense and start at 0. Looking up a data point by
+     * its handle using {@link #getDataPoint(int)} is a simple array access.
+     *
+     * @param id ID of the data point.
+     * @return Handle of the data point or {@link #NO_HANDLE} if the data point does not exist.
+     */
+    public int handleOf(final String id) {
+        final DataPoint dataPoint = index.get(id);
+        return dataPoint != null ? dataPoint.getHandle() : NO_HANDLE;
+    }
+
+    /**
+     * Returns the data point with the given handle if it exists, otherwise it returns null.
+     *
+     * @param handle Handle of the data point.
+     * @return Reference to the data point or null if there is no data point with the given handle.
+     * @see #handleOf(String)
+     */
+    public DataPoint getDataPoint(final int handle) {
+        final DataPoint[] handles = this.handles;
+        return handle >= 0 && handle < handles.length ? handles[handle] : null;
     }
 
     /**
@@ -43,6 +258,144 @@ public class Process {
         }
     }
 
+    /**
+     * Returns the version of the process. Every data point update is stamped with a version taken from a sequence
+     * increasing with each update, the version of the process is the version of the last update of any data point.
+     *
+     * @return Actual version, 0 if no data point was ever updated.
+     */
+    public long getVersion() {
+        return changeLog.getVersion();
+    }
+
+    /**
+     * Returns the data points updated after the given version, ordered by the version of their last update. A client
+     * polling for changes remembers the version returned by {@link #getVersion()} before reading and passes it on the
+     * next call. The updates are looked up in a ring indexed by version, so the call only visits the updates made
+     * since the given version and recording updates never takes a lock. Only if more updates than the ring holds were
+     * made since the given version, the versions of all data points are scanned.
+     *
+     * @param version Version returned by a previous call to {@link #getVersion()}, 0 to get all updated data points.
+     * @return Data points updated after the given version.
+     */
+    public List<DataPoint> changesSince(final long version) {
+        final int[] updated = changeLog.updatedSince(version);
+        final List<DataPoint> changes = new ArrayList<>(updated.length);
+        for (final int handle : updated) {
+            changes.add(getDataPoint(handle));
+        }
+        return changes;
+    }
+
+    /**
+     * Takes a consistent snapshot of the values of all data points. The snapshot contains the values as they were at a
+     * single point in time, even while connections keep writing. Writers are never blocked by a snapshot. Values
+     * written using a {@link BatchWriter} are either all or none part of the snapshot.
+     *
+     * @param snapshot Snapshot to reuse in order to avoid allocations, null to create a new snapshot.
+     * @return The snapshot.
+     */
+    public ProcessSnapshot takeSnapshot(final ProcessSnapshot snapshot) {
+        final ProcessSnapshot target = snapshot != null ? snapshot : new ProcessSnapshot();
+        target.version = getVersion();
+        getImage().snapshot(target);
+        return target;
+    }
+
+    /**
+     * Returns all data points with an ID matching the given pattern, sorted by ID. The IDs are treated as hierarchical
+     * paths with the segments separated by dots. A pattern segment "*" matches exactly one ID segment and "**" matches
+     * any number of segments, so "plant1.boiler3.**" returns the data point "plant1.boiler3" (if it exists) and all
+     * data points below and "plant1.*.temp" returns the temp data point of every plant1 element. The data points are
+     * looked up using a trie, so only the matching part of the process is visited.
+     *
+     * @param pattern ID pattern.
+     * @return All matching data points.
+     */
+    public Collection<DataPoint> getDataPoints(final String pattern) {
+        final Set<DataPoint> matching = new TreeSet<>();
+        idTrie.collect(pattern, matching);
+        return matching;
+    }
+
+    /**
+     * Returns true if the given data point ID matches the given pattern, see {@link #getDataPoints(String)} for the
+     * syntax of the patterns.
+     *
+     * @param pattern ID pattern.
+     * @param id      Data point ID.
+     * @return True if the ID matches the pattern.
+     */
+    public static boolean matches(final String pattern, final String id) {
+        return IdTrie.matches(pattern, id);
+    }
+
+    /**
+     * Adds the listener to all data points with an ID matching the given pattern (see {@link #getDataPoints(String)}
+     * for the pattern syntax). Data points matching the pattern that are added to the process later get the listener
+     * too. A data point matching several patterns the listener is subscribed to informs the listener only once.
+     *
+     * @param pattern       ID pattern.
+     * @param listener      Reference to the listener.
+     * @param onlyOnChanges If true, the listener is informed only if the data point's value effectively changes.
+     */
+    public void subscribe(final String pattern, final DataPointListener<DataPoint> listener,
+                          final boolean onlyOnChanges) {
+        if (pattern == null || listener == null) {
+            throw new IllegalArgumentException("Pattern and listener can not be null!");
+        }
+        synchronized (subscriptions) {
+            Subscription subscription = null;
+            for (final Subscription subscriber : subscribers) {
+                if (subscriber.listener.equals(listener) && subscriber.onlyOnChanges == onlyOnChanges) {
+                    subscription = subscriber;
+                }
+            }
+            if (subscription == null) {
+                subscription = new Subscription(listener, onlyOnChanges);
+                subscribers.add(subscription);
+            }
+            for (final DataPoint dataPoint : getDataPoints(pattern)) {
+                if (!subscription.matches(dataPoint.getId())) {
+                    dataPoint.addListener(subscription, onlyOnChanges);
+                }
+            }
+            subscription.patterns.add(pattern);
+            subscriptions.put(pattern, subscription);
+        }
+    }
+
+    /**
+     * Removes a subscription added using {@link #subscribe(String, DataPointListener, boolean)}. The listener is
+     * removed from the data points matching the pattern, except from those matching another pattern the listener is
+     * still subscribed to. Listeners added directly to the data points are not affected.
+     *
+     * @param pattern  ID pattern used to subscribe.
+     * @param listener Reference to the listener.
+     */
+    public void unsubscribe(final String pattern, final DataPointListener<DataPoint> listener) {
+        if (pattern == null || listener == null) {
+            return;
+        }
+        synchronized (subscriptions) {
+            final Iterator<Subscription> iterator = subscribers.iterator();
+            while (iterator.hasNext()) {
+                final Subscription subscription = iterator.next();
+                if (subscription.listener.equals(listener) && subscription.patterns.remove(pattern)) {
+                    subscriptions.remove(pattern, subscription);
+                    for (final DataPoint dataPoint : getDataPoints(pattern)) {
+                        if (!subscription.matches(dataPoint.getId())) {
+                            dataPoint.removeListener(subscription);
+                        }
+                    }
+                    if (subscription.patterns.isEmpty()) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Returns the complete list of all data points.
      *
@@ -57,12 +410,85 @@ public class Process {
      *
      * @param listener Reference to the listener.
      */
-    public void removeListenerFromAllDataPoints(final DataPointListener listener) {
+    public void removeListenerFromAllDataPoints(final DataPointListener<?> listener) {
         for (final DataPoint dataPoint : dataPoints.values()) {
             dataPoint.removeListener(listener);
         }
     }
 
+    /**
+     * Adds a listener informed about the updates of all data points of the process, including the data points added
+     * later. This is much cheaper than adding the listener to every single data point for consumers interested in all
+     * data points like loggers or historians. If onlyOnChanges is true, the listener is informed only if the value of a
+     * data point actually changes.
+     *
+     * @param listener      Reference to the listener.
+     * @param onlyOnChanges If true, the listener is informed only if the data point's value effectively changes.
+     */
+    public void addDataPointListener(final DataPointListener<DataPoint> listener, final boolean onlyOnChanges) {
+        if (listener != null) {
+            synchronized (listenersLock) {
+                if (onlyOnChanges) {
+                    changeListeners = DataPoint.added(changeListeners, listener);
+                } else {
+                    updateListeners = DataPoint.added(updateListeners, listener);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the given process-wide data point listener.
+     *
+     * @param listener Reference to the listener.
+     */
+    public void removeDataPointListener(final DataPointListener<DataPoint> listener) {
+        if (listener != null) {
+            synchronized (listenersLock) {
+                changeListeners = DataPoint.removed(changeListeners, listener);
+                updateListeners = DataPoint.removed(updateListeners, listener);
+            }
+        }
+    }
+
+    /**
+     * Adds a listener informed about every update of all data points of the process, including the data points added
+     * later, together with the value, timestamp and quality of the update.
+     *
+     * @param listener Reference to the listener.
+     */
+    public void addSampleListener(final SampleListener listener) {
+        if (listener != null) {
+            synchronized (listenersLock) {
+                final SampleListener[] listeners = Arrays.copyOf(sampleListeners, sampleListeners.length + 1);
+                listeners[listeners.length - 1] = listener;
+                sampleListeners = listeners;
+            }
+        }
+    }
+
+    /**
+     * Removes the given sample listener.
+     *
+     * @param listener Reference to the listener.
+     */
+    public void removeSampleListener(final SampleListener listener) {
+        if (listener != null) {
+            synchronized (listenersLock) {
+                final SampleListener[] listeners = sampleListeners;
+                for (int i = 0; i < listeners.length; ++i) {
+                    if (listeners[i] == listener) {
+                        final SampleListener[] copy = new SampleListener[listeners.length - 1];
+                        System.arraycopy(listeners, 0, copy, 0, i);
+                        System.arraycopy(listeners, i + 1, copy, i, listeners.length - i - 1);
+                        sampleListeners = copy;
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
     public void addProcessListener(ProcessListener listener) {
         processListeners.add(listener);
     }
@@ -71,20 +497,155 @@ public class Process {
         processListeners.remove(listener);
     }
 
+    /**
+     * Stages the update of the given data point if the calling thread is attached to a running scan cycle.
+     *
+     * @param dataPoint Data point to update.
+     * @param bits      New value encoded as 64 bit word.
+     * @param meta      Packed timestamp and quality.
+     * @return True if the update was staged, false if it has to be applied immediately.
+     */
+    boolean stage(final DataPoint dataPoint, final long bits, final long meta) {
+        if (scanCycles.get() == 0) {
+            return false;
+        }
+        final ScanCycle cycle = attachedScanCycle.get();
+        return cycle != null && cycle.stage(dataPoint, bits, meta);
+    }
+
+    /**
+     * Stages the first count updates of the given arrays if the calling thread is attached to a running scan cycle.
+     *
+     * @param points Data points to update.
+     * @param values New values encoded as 64 bit words.
+     * @param metas  Packed timestamps and qualities.
+     * @param count  Number of updates.
+     * @return True if the updates were staged, false if they have to be applied immediately.
+     */
+    boolean stage(final DataPoint[] points, final long[] values, final long[] metas, final int count) {
+        if (scanCycles.get() == 0) {
+            return false;
+        }
+        final ScanCycle cycle = attachedScanCycle.get();
+        return cycle != null && cycle.stage(points, values, metas, count);
+    }
+
+    void attach(final ScanCycle cycle) {
+        attachedScanCycle.set(cycle);
+    }
+
+    void detach(final ScanCycle cycle) {
+        if (attachedScanCycle.get() == cycle) {
+            attachedScanCycle.remove();
+        }
+    }
+
+    void scanCycleEnded(final BatchWriter buffer, final long cycleTime, final long swapTime, final int updates) {
+        // The buffer of the cycle is empty after the swap, it is handed over to the next cycle.
+        buffer.discard();
+        synchronized (stagingBuffers) {
+            stagingBuffers.addFirst(buffer);
+        }
+        scanCycles.decrementAndGet();
+        scanStatistics.record(cycleTime, swapTime, updates);
+    }
+
+    long recordUpdate(final DataPoint dataPoint) {
+        return changeLog.record(dataPoint.getHandle());
+    }
+
+    long getVersion(final DataPoint dataPoint) {
+        return changeLog.getVersion(dataPoint.getHandle());
+    }
+
+    void dataPointUpdated(final DataPoint dataPoint, final boolean changed) {
+        for (final DataPointListener<DataPoint> listener : updateListeners) {
+            listener.dataPointUpdated(dataPoint);
+        }
+        if (changed) {
+            for (final DataPointListener<DataPoint> listener : changeListeners) {
+                listener.dataPointUpdated(dataPoint);
+            }
+        }
+    }
+
+    void sampleRecorded(final DataPoint dataPoint, final long bits, final long meta) {
+        final SampleListener[] listeners = sampleListeners;
+        if (listeners.length > 0) {
+            final long timestamp = DataPoint.timestampOf(meta);
+            final DataPointQuality quality = DataPoint.qualityOf(meta);
+            for (final SampleListener listener : listeners) {
+                listener.onSample(dataPoint, bits, timestamp, quality);
+            }
+        }
+    }
+
+    synchronized ProcessImage getImage() {
+        return image;
+    }
+
+    ProcessEventLoop getEventLoop() {
+        return eventLoop;
+    }
+
     void addDataPoint(final DataPoint dataPoint) throws DuplicateIdException {
         final String id = dataPoint.getId();
 
         // Check for duplicate ID.
-        if (dataPoints.containsKey(dataPoint.getId())) {
+        if (index.containsKey(id)) {
             throw new DuplicateIdException(id);
         }
 
-        // Register the data point.
+        // Register the data point and assign the next handle.
+        final int handle = index.size();
+        if (handle == handles.length) {
+            handles = Arrays.copyOf(handles, 2 * handles.length);
+        }
+        handles[handle] = dataPoint;
+        dataPoint.handle = handle;
         dataPoints.put(id, dataPoint);
+        index.put(id, dataPoint);
+        idTrie.put(id, dataPoint);
+
+        // Add the listeners of matching subscriptions, once even if several of their patterns match.
+        synchronized (subscriptions) {
+            final Set<Subscription> matching = new LinkedHashSet<>();
+            subscriptions.collectMatching(id, matching);
+            for (final Subscription subscription : matching) {
+                dataPoint.addListener(subscription, subscription.onlyOnChanges);
+            }
+        }
 
         // Inform listeners.
         for (final ProcessListener listener : processListeners) {
             listener.dataPointAdded(this, dataPoint);
         }
     }
+
+    // Listener subscribed to one or more ID patterns. The subscription is added to the matching data points instead of
+    // the listener itself, so it never interferes with the listener being added directly to a data point.
+    private static final class Subscription implements DataPointListener<DataPoint> {
+        private final DataPointListener<DataPoint> listener;
+        private final boolean onlyOnChanges;
+        private final List<String> patterns = new ArrayList<>(1);
+
+        private Subscription(final DataPointListener<DataPoint> listener, final boolean onlyOnChanges) {
+            this.listener = listener;
+            this.onlyOnChanges = onlyOnChanges;
+        }
+
+        private boolean matches(final String id) {
+            for (final String pattern : patterns) {
+                if (IdTrie.matches(pattern, id)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void dataPointUpdated(final DataPoint dataPoint) {
+            listener.dataPointUpdated(dataPoint);
+        }
+    }
 }
@@ -0,0 +1,210 @@
+package ch.hevs.jscada.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single thread applying all data point updates of a {@link Process} running in single-writer mode.
+ * <br><br>
+ * Any number of threads (for example the synchronization workers of the connections) can post updates into a lock-free
+ * multi-producer single-consumer ring of preallocated update records, so posting a value does not allocate any
+ * object. The process thread takes the updates out of the ring in the order they were posted, applies them to the data
+ * points and calls the {@link DataPointListener}s. As only this thread writes to the data points, the values can be
+ * read from any thread without any locking. If the ring is full, the posting threads wait for the process thread.
+ * <br><br>
+ * Updates posted after the loop has terminated are applied directly by the posting thread, so no update gets lost
+ * while the single-writer mode is disabled.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+final class ProcessEventLoop implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(ProcessEventLoop.class);
+
+    // Number of update records, has to be a power of two.
+    static final int CAPACITY = 4096;
+    private static final int MASK = CAPACITY - 1;
+
+    // Value of the claim sequence once the loop has terminated.
+    private static final long CLOSED = -1;
+
+    // Update records: data point, value encoded as 64 bit word and packed timestamp and quality, or a task.
+    private final DataPoint[] points = new DataPoint[CAPACITY];
+    private final long[] values = new long[CAPACITY];
+    private final long[] metas = new long[CAPACITY];
+    private final Runnable[] tasks = new Runnable[CAPACITY];
+
+    // Sequence of the record published in each slot, -1 if the slot was never used.
+    private final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+
+    // Next sequence to claim by a producer, CLOSED once the loop has terminated.
+    private final AtomicLong claimed = new AtomicLong();
+
+    // Next sequence to apply by the process thread.
+    private volatile long consumed = 0;
+
+    // The process thread.
+    private final Thread thread;
+
+    // False once the loop has been asked to stop.
+    private volatile boolean running = true;
+
+    // True while the process thread is parked because the ring was empty.
+    private volatile boolean waiting = false;
+
+    ProcessEventLoop() {
+        for (int i = 0; i < CAPACITY; ++i) {
+            published.set(i, -1);
+        }
+        thread = new Thread(this, "jscada-process");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns true if the calling thread is the process thread.
+     *
+     * @return True if called from the process thread.
+     */
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Posts an update of the given data point to the process thread. The updates are applied in the order they were
+     * posted.
+     *
+     * @param dataPoint Data point to update.
+     * @param bits      New value encoded as 64 bit word.
+     * @param meta      Packed timestamp and quality.
+     */
+    void post(final DataPoint dataPoint, final long bits, final long meta) {
+        final long sequence = claim();
+        if (sequence == CLOSED) {
+            dataPoint.apply(bits, meta);
+            return;
+        }
+        final int index = (int) sequence & MASK;
+        points[index] = dataPoint;
+        values[index] = bits;
+        metas[index] = meta;
+        publish(index, sequence);
+    }
+
+    /**
+     * Posts the given task to the process thread. The task is executed in order with the data point updates.
+     *
+     * @param task Task to execute.
+     */
+    void post(final Runnable task) {
+        final long sequence = claim();
+        if (sequence == CLOSED) {
+            task.run();
+            return;
+        }
+        final int index = (int) sequence & MASK;
+        tasks[index] = task;
+        publish(index, sequence);
+    }
+
+    private long claim() {
+        while (true) {
+            final long sequence = claimed.get();
+            if (sequence == CLOSED) {
+                return CLOSED;
+            }
+            if (claimed.compareAndSet(sequence, sequence + 1)) {
+                // Wait for the process thread to free the slot if the ring is full.
+                while (sequence - consumed >= CAPACITY) {
+                    LockSupport.parkNanos(1000);
+                }
+                return sequence;
+            }
+        }
+    }
+
+    private void publish(final int index, final long sequence) {
+        published.set(index, sequence);
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Waits until all updates posted before the call have been applied. Returns immediately if called from the process
+     * thread itself.
+     */
+    void flush() {
+        if (inEventLoop() || !thread.isAlive()) {
+            return;
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the process thread after all pending updates have been applied and waits for the thread to terminate.
+     */
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+        if (!inEventLoop()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        long sequence = 0;
+        while (true) {
+            final int index = (int) sequence & MASK;
+            if (published.get(index) == sequence) {
+                final DataPoint dataPoint = points[index];
+                final Runnable task = tasks[index];
+                points[index] = null;
+                tasks[index] = null;
+                try {
+                    if (dataPoint != null) {
+                        dataPoint.apply(values[index], metas[index]);
+                    } else {
+                        task.run();
+                    }
+                } catch (RuntimeException e) {
+                    log.error("Exception while applying data point update.", e);
+                }
+                consumed = ++sequence;
+            } else if (claimed.get() != sequence) {
+                // A producer has claimed the slot but not yet published the update.
+                Thread.yield();
+            } else if (running) {
+                // Announce that we are going to sleep and check the ring again in order to not miss a wakeup.
+                waiting = true;
+                if (published.get(index) != sequence && running) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+            } else if (claimed.compareAndSet(sequence, CLOSED)) {
+                // All updates have been applied, later updates are applied by the posting threads.
+                return;
+            }
+        }
+    }
+}
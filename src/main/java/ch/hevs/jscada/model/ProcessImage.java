@@ -0,0 +1,449 @@
+package ch.hevs.jscada.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Columnar storage of the values of all data points of a process. Floating point and integer values are stored as 64
+ * bit words in one column each, boolean values are packed as bits into a third column. Each data point owns a slot in
+ * the column of its type. A fourth column holds the source timestamp and the quality of every data point, packed into
+ * a 64 bit word (see {@link DataPoint#getTimestamp()}), each data point owns a slot in this column too.
+ * <br><br>
+ * The columns are divided into pages of fixed size, so they can grow without copying the values and without moving
+ * them while other threads are reading.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+final class ProcessImage {
+    // Number of 64 bit words per page.
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // Storage type.
+    private final ProcessStorage storage;
+
+    // Columns.
+    private final WordColumn floats;
+    private final WordColumn integers;
+    private final WordColumn booleans;
+    private final WordColumn metas;
+
+    // Column identifiers used in the undo log.
+    private static final int FLOATS = 0;
+    private static final int INTEGERS = 1;
+    private static final int BOOLEANS = 2;
+    private static final int METAS = 3;
+
+    // Number of slots allocated in each column.
+    private int floatCount = 0;
+    private int integerCount = 0;
+    private int booleanCount = 0;
+    private int metaCount = 0;
+
+    // Write phase and the number of writes in progress for the actual and the previous phase.
+    private volatile int phase = 0;
+    private final AtomicInteger[] writers = {new AtomicInteger(), new AtomicInteger()};
+
+    // Undo log of the snapshot in progress for each phase, null if the writes of the phase do not need to be logged.
+    private final AtomicReferenceArray<Queue<long[]>> undoLogs = new AtomicReferenceArray<>(2);
+
+    // Only one snapshot at a time.
+    private final Object snapshotLock = new Object();
+
+    ProcessImage(final ProcessStorage storage) {
+        this.storage = storage;
+        floats = newColumn();
+        integers = newColumn();
+        booleans = newColumn();
+        metas = newColumn();
+    }
+
+    private WordColumn newColumn() {
+        return storage == ProcessStorage.OFF_HEAP ? new OffHeapColumn() : new HeapColumn();
+    }
+
+    /**
+     * Returns the storage type of the image.
+     *
+     * @return Storage type.
+     */
+    ProcessStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Allocates a new slot in the column for the given data point type.
+     *
+     * @param type Data point type.
+     * @return Slot index.
+     */
+    synchronized int allocate(final DataPointType type) {
+        switch (type) {
+            case FLOATING_POINT:
+                floats.ensureCapacity(floatCount + 1);
+                return floatCount++;
+
+            case INTEGER:
+                integers.ensureCapacity(integerCount + 1);
+                return integerCount++;
+
+            case BOOLEAN:
+                booleans.ensureCapacity((booleanCount >>> 6) + 1);
+                return booleanCount++;
+
+            default:
+                throw new IllegalArgumentException("Unsupported data point type " + type);
+        }
+    }
+
+    /**
+     * Allocates a new slot in the timestamp and quality column.
+     *
+     * @return Slot index.
+     */
+    synchronized int allocateMeta() {
+        metas.ensureCapacity(metaCount + 1);
+        return metaCount++;
+    }
+
+    /**
+     * Gives back the timestamp and quality slot allocated last, used if the registration of the data point fails.
+     *
+     * @param slot Slot index.
+     */
+    synchronized void releaseMeta(final int slot) {
+        if (slot == metaCount - 1) {
+            metas.set(slot, 0);
+            --metaCount;
+        }
+    }
+
+    /**
+     * Gives back the slot allocated last for the given type, used if the registration of the data point fails. The
+     * value of the slot is reset.
+     *
+     * @param type Data point type.
+     * @param slot Slot index.
+     */
+    synchronized void release(final DataPointType type, final int slot) {
+        switch (type) {
+            case FLOATING_POINT:
+                if (slot == floatCount - 1) {
+                    floats.set(slot, 0);
+                    --floatCount;
+                }
+                break;
+
+            case INTEGER:
+                if (slot == integerCount - 1) {
+                    integers.set(slot, 0);
+                    --integerCount;
+                }
+                break;
+
+            case BOOLEAN:
+                if (slot == booleanCount - 1) {
+                    booleans.setBits(slot >>> 6, 1L << slot, false);
+                    --booleanCount;
+                }
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated by the columns of the image.
+     *
+     * @return Allocated memory in bytes.
+     */
+    long getAllocatedBytes() {
+        return 8L * PAGE_SIZE * (floats.getPageCount() + integers.getPageCount() + booleans.getPageCount()
+            + metas.getPageCount());
+    }
+
+    double getDouble(final int slot) {
+        return Double.longBitsToDouble(floats.get(slot));
+    }
+
+    long getLong(final int slot) {
+        return integers.get(slot);
+    }
+
+    boolean getBoolean(final int slot) {
+        return (booleans.get(slot >>> 6) & (1L << slot)) != 0;
+    }
+
+    long getMeta(final int slot) {
+        return metas.get(slot);
+    }
+
+    /**
+     * Starts a write to the image. All values written using the returned token up to {@link #endWrite(int)} appear
+     * together in a snapshot or not at all. Writers never wait for snapshots.
+     *
+     * @return Write token to pass to the set methods and to {@link #endWrite(int)}.
+     */
+    int beginWrite() {
+        while (true) {
+            final int phase = this.phase;
+            writers[phase & 1].incrementAndGet();
+            if (phase == this.phase) {
+                return phase;
+            }
+            // A snapshot has started in the meantime, retry with the new phase.
+            writers[phase & 1].decrementAndGet();
+        }
+    }
+
+    /**
+     * Ends a write started using {@link #beginWrite()}.
+     *
+     * @param token Write token.
+     */
+    void endWrite(final int token) {
+        writers[token & 1].decrementAndGet();
+    }
+
+    void setDouble(final int token, final int slot, final double value) {
+        final Queue<long[]> undoLog = undoLogs.get(token & 1);
+        if (undoLog != null) {
+            undoLog.offer(new long[]{FLOATS, slot, floats.get(slot)});
+        }
+        floats.set(slot, Double.doubleToRawLongBits(value));
+    }
+
+    void setLong(final int token, final int slot, final long value) {
+        final Queue<long[]> undoLog = undoLogs.get(token & 1);
+        if (undoLog != null) {
+            undoLog.offer(new long[]{INTEGERS, slot, integers.get(slot)});
+        }
+        integers.set(slot, value);
+    }
+
+    void setBoolean(final int token, final int slot, final boolean value) {
+        final Queue<long[]> undoLog = undoLogs.get(token & 1);
+        if (undoLog != null) {
+            undoLog.offer(new long[]{BOOLEANS, slot, getBoolean(slot) ? 1 : 0});
+        }
+        booleans.setBits(slot >>> 6, 1L << slot, value);
+    }
+
+    void setMeta(final int token, final int slot, final long meta) {
+        final Queue<long[]> undoLog = undoLogs.get(token & 1);
+        if (undoLog != null) {
+            undoLog.offer(new long[]{METAS, slot, metas.get(slot)});
+        }
+        metas.set(slot, meta);
+    }
+
+    /**
+     * Copies all values of the image as they were at a single point in time into the given snapshot. Writers are not
+     * blocked while the snapshot is taken: Once the snapshot has started, writers save the values they overwrite into
+     * an undo log. The snapshot waits for the writes started before to finish, copies the columns and finally restores
+     * the overwritten values from the undo log into the copy.
+     *
+     * @param snapshot Snapshot to fill.
+     */
+    void snapshot(final ProcessSnapshot snapshot) {
+        synchronized (snapshotLock) {
+            takeSnapshot(snapshot);
+        }
+    }
+
+    private void takeSnapshot(final ProcessSnapshot snapshot) {
+        final int floatCount, integerCount, booleanCount, metaCount;
+        synchronized (this) {
+            floatCount = this.floatCount;
+            integerCount = this.integerCount;
+            booleanCount = this.booleanCount;
+            metaCount = this.metaCount;
+        }
+        final int booleanWords = (booleanCount + 63) >>> 6;
+        snapshot.ensureCapacity(floatCount, integerCount, booleanWords, metaCount);
+
+        // Let new writes log the values they overwrite and wait for the writes that do not.
+        final Queue<long[]> undoLog = new ConcurrentLinkedQueue<>();
+        final int start = phase;
+        undoLogs.set((start + 1) & 1, undoLog);
+        phase = start + 1;
+        awaitWriters(start);
+
+        // Copy the columns, they may already contain values written after the start of the snapshot.
+        for (int i = 0; i < floatCount; ++i) {
+            snapshot.floats[i] = Double.longBitsToDouble(floats.get(i));
+        }
+        for (int i = 0; i < integerCount; ++i) {
+            snapshot.integers[i] = integers.get(i);
+        }
+        for (int i = 0; i < booleanWords; ++i) {
+            snapshot.booleans[i] = booleans.get(i);
+        }
+        for (int i = 0; i < metaCount; ++i) {
+            snapshot.metas[i] = metas.get(i);
+        }
+
+        // Stop logging and wait for all writers using the undo log.
+        phase = start + 2;
+        awaitWriters(start + 1);
+        undoLogs.set((start + 1) & 1, null);
+
+        // Restore the overwritten values, the oldest entry for a slot is applied last.
+        final long[][] entries = undoLog.toArray(new long[0][]);
+        for (int i = entries.length - 1; i >= 0; --i) {
+            final int slot = (int) entries[i][1];
+            final long bits = entries[i][2];
+            switch ((int) entries[i][0]) {
+                case FLOATS:
+                    if (slot < floatCount) {
+                        snapshot.floats[slot] = Double.longBitsToDouble(bits);
+                    }
+                    break;
+
+                case INTEGERS:
+                    if (slot < integerCount) {
+                        snapshot.integers[slot] = bits;
+                    }
+                    break;
+
+                case BOOLEANS:
+                    if (slot >>> 6 < booleanWords) {
+                        snapshot.booleans[slot >>> 6] = bits != 0 ? snapshot.booleans[slot >>> 6] | (1L << slot)
+                            : snapshot.booleans[slot >>> 6] & ~(1L << slot);
+                    }
+                    break;
+
+                case METAS:
+                    if (slot < metaCount) {
+                        snapshot.metas[slot] = bits;
+                    }
+                    break;
+
+                default:
+                    break;
+            }
+        }
+        snapshot.image = this;
+        snapshot.floatCount = floatCount;
+        snapshot.integerCount = integerCount;
+        snapshot.booleanCount = booleanCount;
+        snapshot.metaCount = metaCount;
+    }
+
+    private void awaitWriters(final int phase) {
+        final AtomicInteger counter = writers[phase & 1];
+        while (counter.get() != 0) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Column of 64 bit words organized in pages.
+     */
+    private static abstract class WordColumn {
+        abstract void ensureCapacity(int words);
+
+        abstract int getPageCount();
+
+        abstract long get(int index);
+
+        abstract void set(int index, long value);
+
+        abstract void setBits(int index, long mask, boolean value);
+    }
+
+    /**
+     * Column on the Java heap. Every page is an atomic array, so the values are read and written with volatile
+     * semantics.
+     */
+    private static final class HeapColumn extends WordColumn {
+        private volatile AtomicLongArray[] pages = new AtomicLongArray[0];
+
+        @Override
+        void ensureCapacity(final int words) {
+            final int pageCount = (words + PAGE_MASK) >>> PAGE_SHIFT;
+            if (pageCount > pages.length) {
+                final AtomicLongArray[] grown = Arrays.copyOf(pages, pageCount);
+                for (int i = pages.length; i < pageCount; ++i) {
+                    grown[i] = new AtomicLongArray(PAGE_SIZE);
+                }
+                pages = grown;
+            }
+        }
+
+        @Override
+        int getPageCount() {
+            return pages.length;
+        }
+
+        @Override
+        long get(final int index) {
+            return pages[index >>> PAGE_SHIFT].get(index & PAGE_MASK);
+        }
+
+        @Override
+        void set(final int index, final long value) {
+            pages[index >>> PAGE_SHIFT].set(index & PAGE_MASK, value);
+        }
+
+        @Override
+        void setBits(final int index, final long mask, final boolean value) {
+            final AtomicLongArray page = pages[index >>> PAGE_SHIFT];
+            long word;
+            do {
+                word = page.get(index & PAGE_MASK);
+            } while (!page.compareAndSet(index & PAGE_MASK, word, value ? word | mask : word & ~mask));
+        }
+    }
+
+    /**
+     * Column in direct buffers outside of the Java heap. The buffers do not offer atomic operations, so bits are
+     * modified while holding the column's lock.
+     */
+    private static final class OffHeapColumn extends WordColumn {
+        private volatile LongBuffer[] pages = new LongBuffer[0];
+
+        @Override
+        void ensureCapacity(final int words) {
+            final int pageCount = (words + PAGE_MASK) >>> PAGE_SHIFT;
+            if (pageCount > pages.length) {
+                final LongBuffer[] grown = Arrays.copyOf(pages, pageCount);
+                for (int i = pages.length; i < pageCount; ++i) {
+                    grown[i] = ByteBuffer.allocateDirect(8 * PAGE_SIZE).order(ByteOrder.nativeOrder()).asLongBuffer();
+                }
+                pages = grown;
+            }
+        }
+
+        @Override
+        int getPageCount() {
+            return pages.length;
+        }
+
+        @Override
+        long get(final int index) {
+            return pages[index >>> PAGE_SHIFT].get(index & PAGE_MASK);
+        }
+
+        @Override
+        void set(final int index, final long value) {
+            pages[index >>> PAGE_SHIFT].put(index & PAGE_MASK, value);
+        }
+
+        @Override
+        synchronized void setBits(final int index, final long mask, final boolean value) {
+            final LongBuffer page = pages[index >>> PAGE_SHIFT];
+            final long word = page.get(index & PAGE_MASK);
+            page.put(index & PAGE_MASK, value ? word | mask : word & ~mask);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ch.hevs.jscada.model;
+
+import java.util.Arrays;
+
+/**
+ * Consistent copy of the values of all data points of a process at a single point in time, taken using
+ * {@link Process#takeSnapshot(ProcessSnapshot)}.
+ * <br><br>
+ * The values are stored in primitive arrays that are reused when the same snapshot object is passed again to take
+ * the next snapshot, so periodic snapshots do not allocate memory once the arrays are big enough. The values of the
+ * data points are read using the getValue() methods, their timestamps and qualities using {@link #getTimestamp} and
+ * {@link #getQuality}.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+public final class ProcessSnapshot {
+    // Image the snapshot was taken from.
+    ProcessImage image = null;
+
+    // Copied columns.
+    double[] floats = new double[0];
+    long[] integers = new long[0];
+    long[] booleans = new long[0];
+    long[] metas = new long[0];
+    int floatCount = 0;
+    int integerCount = 0;
+    int booleanCount = 0;
+    int metaCount = 0;
+
+    // Version of the process at the time the snapshot was taken.
+    long version = 0;
+
+    void ensureCapacity(final int floatCount, final int integerCount, final int booleanWords, final int metaCount) {
+        if (floats.length < floatCount) {
+            floats = Arrays.copyOf(floats, floatCount);
+        }
+        if (integers.length < integerCount) {
+            integers = Arrays.copyOf(integers, integerCount);
+        }
+        if (booleans.length < booleanWords) {
+            booleans = Arrays.copyOf(booleans, booleanWords);
+        }
+        if (metas.length < metaCount) {
+            metas = Arrays.copyOf(metas, metaCount);
+        }
+    }
+
+    /**
+     * Returns the version of the process at the time the snapshot was taken. All updates with a version lower or equal
+     * to this version are contained in the snapshot, a few more recent updates may be contained too.
+     *
+     * @return Process version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the value the given floating point data point had when the snapshot was taken.
+     *
+     * @param dataPoint Data point.
+     * @return Value of the data point.
+     */
+    public double getValue(final FloatDataPoint dataPoint) {
+        check(dataPoint, dataPoint.slot < floatCount);
+        return floats[dataPoint.slot];
+    }
+
+    /**
+     * Returns the value the given integer data point had when the snapshot was taken.
+     *
+     * @param dataPoint Data point.
+     * @return Value of the data point.
+     */
+    public long getValue(final IntegerDataPoint dataPoint) {
+        check(dataPoint, dataPoint.slot < integerCount);
+        return integers[dataPoint.slot];
+    }
+
+    /**
+     * Returns the value the given boolean data point had when the snapshot was taken.
+     *
+     * @param dataPoint Data point.
+     * @return Value of the data point.
+     */
+    public boolean getValue(final BooleanDataPoint dataPoint) {
+        check(dataPoint, dataPoint.slot < booleanCount);
+        return (booleans[dataPoint.slot >>> 6] & (1L << dataPoint.slot)) != 0;
+    }
+
+    /**
+     * Returns the source timestamp the given data point had when the snapshot was taken.
+     *
+     * @param dataPoint Data point.
+     * @return Source timestamp in milliseconds since the epoch.
+     */
+    public long getTimestamp(final DataPoint dataPoint) {
+        check(dataPoint, dataPoint.metaSlot >= 0 && dataPoint.metaSlot < metaCount);
+        return DataPoint.timestampOf(metas[dataPoint.metaSlot]);
+    }
+
+    /**
+     * Returns the quality the given data point had when the snapshot was taken.
+     *
+     * @param dataPoint Data point.
+     * @return Quality of the value.
+     */
+    public DataPointQuality getQuality(final DataPoint dataPoint) {
+        check(dataPoint, dataPoint.metaSlot >= 0 && dataPoint.metaSlot < metaCount);
+        return DataPoint.qualityOf(metas[dataPoint.metaSlot]);
+    }
+
+    private void check(final DataPoint dataPoint, final boolean inRange) {
+        if (dataPoint.image != image || !inRange) {
+            throw new IllegalArgumentException(String.format("Datapoint \"%s\" is not part of the snapshot!",
+                dataPoint.getId()));
+        }
+    }
+}
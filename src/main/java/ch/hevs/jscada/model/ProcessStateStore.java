@@ -0,0 +1,586 @@
+package ch.hevs.jscada.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Durable store of the last values of the data points of a process, so that a restarted SCADA system starts with the
+ * values it had before instead of 0 or false until the next poll of the devices.
+ * <br><br>
+ * Every update of a data point is appended to a write-ahead log (WAL) with the value, timestamp and quality of the
+ * update itself (see {@link SampleListener}). The log is buffered and written to disk by a background thread every
+ * sync interval, so at most the updates of the last sync interval are lost on a crash. The buffer is handed over to
+ * the background thread, so updates are never delayed by the disk.
+ * Every checkpoint interval, the values of all data points are taken from a consistent snapshot of the process (see
+ * {@link Process#takeSnapshot(ProcessSnapshot)}) and written to a memory-mapped checkpoint file, the log files
+ * written before are deleted once the checkpoint and its directory entry are on disk.
+ * <br><br>
+ * On {@link #open()}, the last checkpoint is loaded and the log files written after it are replayed. All restored
+ * values are applied in a single batch (see {@link BatchWriter}) including their timestamps and qualities, so the
+ * listeners (for example the outputs of the connections) get the restored values before the SCADA system starts.
+ * Values of data points which no longer exist or changed their type are ignored.
+ * <br><br>
+ * File formats, all numbers in big endian order:
+ * <pre>
+ * checkpoint: int magic, int version, long sequence of the first log to replay, int number of records, records
+ * log:        int magic, int version, records
+ * record:     short length of the ID, byte[] ID (UTF-8), byte type, long value, long timestamp and quality
+ * </pre>
+ * The value is stored as 64 bit word: the raw bits of floating point values, integer values as is and booleans as 0
+ * or 1. A record cut off at the end of a log file by a crash is ignored.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+public final class ProcessStateStore {
+    private static final Logger log = LoggerFactory.getLogger(ProcessStateStore.class);
+
+    public static final int DEFAULT_SYNC_INTERVAL = 1000;
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 60000;
+
+    // File formats.
+    private static final int CHECKPOINT_MAGIC = 0x4A534350;
+    private static final int LOG_MAGIC = 0x4A53574C;
+    private static final int VERSION = 1;
+    private static final int CHECKPOINT_HEADER_SIZE = 20;
+    private static final int LOG_HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 2 + 1 + 8 + 8;
+    private static final Charset ID_CHARSET = Charset.forName("UTF-8");
+    private static final String CHECKPOINT = "checkpoint.dat";
+    private static final String LOG_PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final DataPointType[] TYPES = DataPointType.values();
+
+    // Process and directory of the store files.
+    private final Process process;
+    private final File directory;
+
+    // Configuration.
+    private volatile int syncInterval = DEFAULT_SYNC_INTERVAL;
+    private volatile int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+    // Actual log file, its sequence number and the buffered records. Guarded by the log lock.
+    private final Object logLock = new Object();
+    private FileChannel logChannel = null;
+    private long logSequence = 0;
+    private ByteBuffer logBuffer = ByteBuffer.allocate(64 * 1024);
+
+    // Buffer handed over by the log lock and written to disk, guarded by the sync lock. Only one sync at a time, so the
+    // records are written in order.
+    private final Object syncLock = new Object();
+    private ByteBuffer syncBuffer = ByteBuffer.allocate(64 * 1024);
+
+    // Encoded IDs indexed by handle.
+    private byte[][] ids = new byte[0][];
+
+    // Background thread writing the log and the checkpoints, not interrupted as this would close the log channel.
+    private Thread thread = null;
+    private volatile boolean running = false;
+    private final Object wakeup = new Object();
+
+    // Snapshot reused for the checkpoints, only one checkpoint at a time.
+    private final Object checkpointLock = new Object();
+    private ProcessSnapshot snapshot = null;
+
+    // Restore statistics.
+    private volatile int restoredCount = 0;
+    private volatile long restoreTime = 0;
+
+    private final SampleListener listener = new SampleListener() {
+        @Override
+        public void onSample(final DataPoint dataPoint, final long bits, final long timestamp,
+                             final DataPointQuality quality) {
+            append(dataPoint, bits, DataPoint.metaOf(timestamp, quality));
+        }
+    };
+
+    /**
+     * Creates a store for the given process. The store does nothing before it is opened.
+     *
+     * @param process   Process whose values have to be stored.
+     * @param directory Directory for the store files, created if it does not exist.
+     */
+    public ProcessStateStore(final Process process, final File directory) {
+        if (process == null || directory == null) {
+            throw new IllegalArgumentException("Process and directory can not be null!");
+        }
+        this.process = process;
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the interval at which the log is written to disk.
+     *
+     * @return Sync interval in milliseconds.
+     */
+    public int getSyncInterval() {
+        return syncInterval;
+    }
+
+    /**
+     * Sets the interval at which the log is written to disk, the updates of the last interval are lost on a crash.
+     *
+     * @param syncInterval Sync interval in milliseconds.
+     */
+    public void setSyncInterval(final int syncInterval) {
+        if (syncInterval <= 0) {
+            throw new IllegalArgumentException("Sync interval has to be positive!");
+        }
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * Returns the interval at which checkpoints are written.
+     *
+     * @return Checkpoint interval in milliseconds.
+     */
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Sets the interval at which checkpoints are written. Longer intervals mean longer logs to replay on restart.
+     *
+     * @param checkpointInterval Checkpoint interval in milliseconds.
+     */
+    public void setCheckpointInterval(final int checkpointInterval) {
+        if (checkpointInterval <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval has to be positive!");
+        }
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Returns true if the store has been opened and records the updates.
+     *
+     * @return True if open.
+     */
+    public synchronized boolean isOpen() {
+        return running;
+    }
+
+    /**
+     * Restores the values stored in the directory into the process and starts recording the updates. Data points have
+     * to be added to the process before. Does nothing if the store is already open.
+     *
+     * @throws IOException If the directory can not be created or a store file can not be read.
+     */
+    public synchronized void open() throws IOException {
+        if (running) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create state directory \"" + directory + "\"!");
+        }
+
+        restore();
+
+        // Continue with a new log after the existing ones.
+        final long[] sequences = logSequences();
+        synchronized (logLock) {
+            logSequence = sequences.length > 0 ? sequences[sequences.length - 1] + 1 : 0;
+            openLog();
+        }
+        process.addSampleListener(listener);
+
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                background();
+            }
+        }, "jscada-state");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops recording the updates and writes a last checkpoint.
+     *
+     * @throws IOException If the checkpoint could not be written.
+     */
+    public synchronized void close() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        process.removeSampleListener(listener);
+        synchronized (wakeup) {
+            wakeup.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+
+        try {
+            checkpoint();
+        } finally {
+            // The log started by the last checkpoint is empty.
+            synchronized (logLock) {
+                if (logChannel != null) {
+                    logChannel.close();
+                    logChannel = null;
+                    if (!logFile(logSequence).delete()) {
+                        log.warn("Could not delete the state log \"{}\".", logFile(logSequence));
+                    }
+                }
+            }
+        }
+    }
+
+    private void background() {
+        long nextCheckpoint = System.currentTimeMillis() + checkpointInterval;
+        while (running) {
+            synchronized (wakeup) {
+                try {
+                    wakeup.wait(syncInterval);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            if (!running) {
+                return;
+            }
+            try {
+                if (System.currentTimeMillis() >= nextCheckpoint) {
+                    checkpoint();
+                    nextCheckpoint = System.currentTimeMillis() + checkpointInterval;
+                } else {
+                    sync();
+                }
+            } catch (IOException e) {
+                log.error("Could not write the process state!", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered updates to the log file and forces them to the storage device.
+     *
+     * @throws IOException If the log could not be written.
+     */
+    public void sync() throws IOException {
+        synchronized (syncLock) {
+            final FileChannel channel;
+            synchronized (logLock) {
+                channel = logChannel;
+                if (channel == null) {
+                    return;
+                }
+                handOver();
+            }
+            writeLog(channel);
+        }
+    }
+
+    /**
+     * Writes a checkpoint containing the values of all data points and deletes the logs no longer needed.
+     *
+     * @throws IOException If the checkpoint could not be written.
+     */
+    public void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            // Start a new log, every update in the previous logs has been applied before the snapshot is taken.
+            final long firstLog;
+            synchronized (syncLock) {
+                final FileChannel channel;
+                synchronized (logLock) {
+                    channel = logChannel;
+                    if (channel != null) {
+                        handOver();
+                        ++logSequence;
+                        openLog();
+                    }
+                    firstLog = logSequence;
+                }
+                if (channel != null) {
+                    try {
+                        writeLog(channel);
+                    } finally {
+                        channel.close();
+                    }
+                }
+            }
+            snapshot = process.takeSnapshot(snapshot);
+
+            final DataPoint[] dataPoints = process.getDataPoints().toArray(new DataPoint[0]);
+            long size = CHECKPOINT_HEADER_SIZE;
+            int count = 0;
+            for (final DataPoint dataPoint : dataPoints) {
+                if (isStored(dataPoint)) {
+                    size += RECORD_SIZE + idOf(dataPoint).length;
+                    ++count;
+                }
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Checkpoint too large!");
+            }
+
+            final File temporary = new File(directory, CHECKPOINT + ".tmp");
+            final RandomAccessFile file = new RandomAccessFile(temporary, "rw");
+            try {
+                file.setLength(size);
+                final MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(CHECKPOINT_MAGIC);
+                buffer.putInt(VERSION);
+                buffer.putLong(firstLog);
+                buffer.putInt(count);
+                for (final DataPoint dataPoint : dataPoints) {
+                    if (isStored(dataPoint)) {
+                        putRecord(buffer, idOf(dataPoint), dataPoint.getType(), snapshotBits(dataPoint),
+                            snapshot.metas[dataPoint.metaSlot]);
+                    }
+                }
+                buffer.force();
+            } finally {
+                file.close();
+            }
+            Files.move(temporary.toPath(), new File(directory, CHECKPOINT).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory();
+
+            for (final long sequence : logSequences()) {
+                if (sequence < firstLog && !logFile(sequence).delete()) {
+                    log.warn("Could not delete the state log \"{}\".", logFile(sequence));
+                }
+            }
+        }
+    }
+
+    // Only the values of the build-in data points that have been written at least once are stored.
+    private boolean isStored(final DataPoint dataPoint) {
+        return dataPoint.image != null && dataPoint.metaSlot < snapshot.metaCount &&
+            DataPoint.qualityOf(snapshot.metas[dataPoint.metaSlot]) != DataPointQuality.NO_VALUE;
+    }
+
+    private long snapshotBits(final DataPoint dataPoint) {
+        if (dataPoint instanceof FloatDataPoint) {
+            return Double.doubleToRawLongBits(snapshot.getValue((FloatDataPoint) dataPoint));
+        } else if (dataPoint instanceof IntegerDataPoint) {
+            return snapshot.getValue((IntegerDataPoint) dataPoint);
+        } else {
+            return snapshot.getValue((BooleanDataPoint) dataPoint) ? 1 : 0;
+        }
+    }
+
+    // Makes sure the renamed checkpoint survives a crash before the old logs are deleted.
+    private void syncDirectory() {
+        try {
+            final FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // Directories can not be opened or forced on all platforms.
+            log.debug("Could not sync the state directory \"{}\".", directory, e);
+        }
+    }
+
+    private void append(final DataPoint dataPoint, final long bits, final long meta) {
+        if (dataPoint.image == null) {
+            return;
+        }
+        synchronized (logLock) {
+            if (logChannel == null) {
+                return;
+            }
+            final byte[] id = idOf(dataPoint);
+            if (logBuffer.remaining() < RECORD_SIZE + id.length) {
+                // The log is never written while the lock is held, grow the buffer and wake up the background thread.
+                final ByteBuffer grown = ByteBuffer.allocate(
+                    Math.max(2 * logBuffer.capacity(), logBuffer.position() + RECORD_SIZE + id.length));
+                logBuffer.flip();
+                grown.put(logBuffer);
+                logBuffer = grown;
+                synchronized (wakeup) {
+                    wakeup.notifyAll();
+                }
+            }
+            putRecord(logBuffer, id, dataPoint.getType(), bits, meta);
+        }
+    }
+
+    private static void putRecord(final ByteBuffer buffer, final byte[] id, final DataPointType type, final long bits,
+                                  final long meta) {
+        buffer.putShort((short) id.length);
+        buffer.put(id);
+        buffer.put((byte) type.ordinal());
+        buffer.putLong(bits);
+        buffer.putLong(meta);
+    }
+
+    private byte[] idOf(final DataPoint dataPoint) {
+        final int handle = dataPoint.getHandle();
+        synchronized (logLock) {
+            if (handle >= ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(handle + 1, 2 * ids.length));
+            }
+            if (ids[handle] == null) {
+                ids[handle] = dataPoint.getId().getBytes(ID_CHARSET);
+            }
+            return ids[handle];
+        }
+    }
+
+    // Has to be called with the log lock held.
+    private void openLog() throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(logFile(logSequence), "rw");
+        file.setLength(0);
+        logChannel = file.getChannel();
+        logBuffer.clear();
+        logBuffer.putInt(LOG_MAGIC);
+        logBuffer.putInt(VERSION);
+    }
+
+    // Has to be called with the sync and the log lock held, swaps the buffered records into the sync buffer.
+    private void handOver() {
+        final ByteBuffer records = logBuffer;
+        logBuffer = syncBuffer;
+        logBuffer.clear();
+        syncBuffer = records;
+    }
+
+    // Has to be called with the sync lock held, writes the sync buffer and forces it to the storage device.
+    private void writeLog(final FileChannel channel) throws IOException {
+        syncBuffer.flip();
+        try {
+            while (syncBuffer.hasRemaining()) {
+                channel.write(syncBuffer);
+            }
+            channel.force(false);
+        } finally {
+            syncBuffer.clear();
+        }
+    }
+
+    private File logFile(final long sequence) {
+        return new File(directory, String.format("%s%016d%s", LOG_PREFIX, sequence, LOG_SUFFIX));
+    }
+
+    private long[] logSequences() {
+        final String[] names = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith(LOG_PREFIX) && name.endsWith(LOG_SUFFIX);
+            }
+        });
+        if (names == null) {
+            return new long[0];
+        }
+        final long[] sequences = new long[names.length];
+        int count = 0;
+        for (final String name : names) {
+            try {
+                sequences[count] = Long.parseLong(name.substring(LOG_PREFIX.length(),
+                    name.length() - LOG_SUFFIX.length()));
+                ++count;
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring unknown file \"{}\" in the state directory.", name);
+            }
+        }
+        final long[] result = Arrays.copyOf(sequences, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private void restore() throws IOException {
+        final long start = System.nanoTime();
+        final BatchWriter batch = process.beginBatch();
+        long firstLog = 0;
+
+        final File checkpoint = new File(directory, CHECKPOINT);
+        if (checkpoint.isFile()) {
+            final RandomAccessFile file = new RandomAccessFile(checkpoint, "r");
+            try {
+                final MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+                if (buffer.remaining() >= CHECKPOINT_HEADER_SIZE && buffer.getInt() == CHECKPOINT_MAGIC &&
+                    buffer.getInt() == VERSION) {
+                    firstLog = buffer.getLong();
+                    buffer.getInt();
+                    readRecords(buffer, batch);
+                } else {
+                    log.warn("Ignoring state checkpoint \"{}\" with unknown format.", checkpoint);
+                }
+            } finally {
+                file.close();
+            }
+        }
+
+        for (final long sequence : logSequences()) {
+            if (sequence >= firstLog) {
+                final byte[] content = Files.readAllBytes(logFile(sequence).toPath());
+                final ByteBuffer buffer = ByteBuffer.wrap(content);
+                if (buffer.remaining() >= LOG_HEADER_SIZE && buffer.getInt() == LOG_MAGIC &&
+                    buffer.getInt() == VERSION) {
+                    readRecords(buffer, batch);
+                }
+            }
+        }
+
+        restoredCount = batch.size();
+        batch.commit();
+        process.flush();
+        restoreTime = (System.nanoTime() - start) / 1000;
+        log.info("Restored {} data points from \"{}\" in {}ms.", restoredCount, directory, restoreTime / 1000);
+    }
+
+    private void readRecords(final ByteBuffer buffer, final BatchWriter batch) {
+        while (buffer.remaining() >= 2) {
+            final int idLength = buffer.getShort() & 0xFFFF;
+            if (buffer.remaining() < idLength + RECORD_SIZE - 2) {
+                // Cut off by a crash.
+                return;
+            }
+            final byte[] id = new byte[idLength];
+            buffer.get(id);
+            final int type = buffer.get();
+            final long bits = buffer.getLong();
+            final long meta = buffer.getLong();
+
+            final DataPoint dataPoint = process.getDataPoint(new String(id, ID_CHARSET));
+            if (dataPoint != null && dataPoint.image != null && type >= 0 && type < TYPES.length &&
+                dataPoint.getType() == TYPES[type]) {
+                batch.put(dataPoint, bits, meta);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of data points restored when the store was opened.
+     *
+     * @return Number of data points.
+     */
+    public int getRestoredCount() {
+        return restoredCount;
+    }
+
+    /**
+     * Returns the time it took to restore the values when the store was opened, including reading the files.
+     *
+     * @return Restore time in microseconds.
+     */
+    public long getRestoreTime() {
+        return restoreTime;
+    }
+}
@@ -0,0 +1,24 @@
+package ch.hevs.jscada.model;
+
+/**
+ * Defines where the process image - the values of all data points of a {@link Process} - is stored.
+ * <br><br>
+ * In both cases the values are not stored inside the data point objects, but in primitive columns (one for each data
+ * point type) indexed by the slot of the data point. The data point objects are only thin views over these columns.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ * @see Process#setStorage(ProcessStorage)
+ */
+public enum ProcessStorage {
+    /**
+     * The columns are primitive arrays on the Java heap. Updates are immediately visible to all threads.
+     */
+    HEAP,
+
+    /**
+     * The columns are direct buffers outside of the Java heap, so even millions of values do not add to the garbage
+     * collection load. Updates are not guaranteed to be immediately visible to other threads, use the single-writer mode
+     * and {@link Process#execute(Runnable)} in order to read consistent values from other threads.
+     */
+    OFF_HEAP
+}
@@ -0,0 +1,26 @@
+package ch.hevs.jscada.model;
+
+/**
+ * Interface in order to get notified about every update of any data point of a process together with the value, the
+ * source timestamp and the quality of the update itself. In contrast to a {@link DataPointListener} reading the value
+ * back from the data point, the values passed always belong together, even if another thread updates the data point
+ * in the meantime. Used by consumers recording the updates like historians.
+ * <br><br>
+ * Only the updates of the build-in data point types are passed to sample listeners.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ * @see Process#addSampleListener(SampleListener)
+ */
+public interface SampleListener {
+    /**
+     * A data point has been updated.
+     *
+     * @param dataPoint The data point that has been updated.
+     * @param bits      The new value encoded as 64 bit word: the raw bits of the double for floating point data points
+     *                  (see {@link Double#longBitsToDouble(long)}), the value for integer data points and 0 or 1 for
+     *                  boolean data points.
+     * @param timestamp Time the value was sampled at the source in milliseconds since the epoch.
+     * @param quality   Quality of the value.
+     */
+    void onSample(DataPoint dataPoint, long bits, long timestamp, DataPointQuality quality);
+}
@@ -0,0 +1,128 @@
+package ch.hevs.jscada.model;
+
+/**
+ * A scan cycle of a {@link Process} started with {@link Process#beginScanCycle()}. Every cycle has its own staging
+ * buffer: updates written by the threads attached to the cycle are not applied, they are staged into the buffer
+ * instead and swapped into the process all at once when the cycle ends. If a data point is written several times
+ * during the cycle, only the last value is kept. Once the cycle has ended, its buffer is reused by a later cycle of
+ * the same process. Updates written by other threads are not affected, so cycles can
+ * overlap without delaying each other.
+ * <br><br>
+ * Example:
+ * <pre>
+ * {@code
+ * ScanCycle cycle = process.beginScanCycle();
+ * cycle.attach();
+ * try {
+ *     // Read the inputs...
+ * } finally {
+ *     cycle.detach();
+ * }
+ * cycle.end();
+ * }
+ * </pre>
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ */
+public final class ScanCycle {
+    // Process the cycle belongs to.
+    private final Process process;
+
+    // Updates staged during the cycle, guarded by the monitor of the cycle. Owned by the process once the cycle ended.
+    private final BatchWriter buffer;
+    private boolean ended = false;
+
+    // Start time of the cycle in nanoseconds.
+    private final long start = System.nanoTime();
+
+    ScanCycle(final Process process, final BatchWriter buffer) {
+        this.process = process;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Attaches the calling thread to the cycle: until the thread is detached or the cycle ends, all data point updates
+     * written by the thread are staged.
+     */
+    public void attach() {
+        process.attach(this);
+    }
+
+    /**
+     * Detaches the calling thread from the cycle, updates written afterwards by the thread are applied immediately.
+     */
+    public void detach() {
+        process.detach(this);
+    }
+
+    /**
+     * Returns true if the cycle has ended.
+     *
+     * @return True if the staged updates have been swapped into the process.
+     */
+    public synchronized boolean isEnded() {
+        return ended;
+    }
+
+    /**
+     * Ends the cycle. All updates staged during the cycle are applied at once, as a single write for snapshots, and then
+     * the listeners of all updated data points are notified in one pass. Thus outputs attached to the data points get
+     * the values of a complete cycle. In single-writer mode the updates are applied by the process thread. Updates
+     * written by threads still attached to the cycle are applied immediately from now on.
+     */
+    public void end() {
+        final int updates;
+        synchronized (this) {
+            if (ended) {
+                throw new IllegalStateException("Scan cycle already ended!");
+            }
+            ended = true;
+            updates = buffer.size();
+        }
+        detach();
+
+        // No update can be staged anymore, so the buffer is applied outside of the lock.
+        final long swapStart = System.nanoTime();
+        try {
+            buffer.publish();
+        } finally {
+            final long now = System.nanoTime();
+            process.scanCycleEnded(buffer, (now - start) / 1000, (now - swapStart) / 1000, updates);
+        }
+    }
+
+    /**
+     * Stages the update of the given data point unless the cycle has ended.
+     *
+     * @param dataPoint Data point to update.
+     * @param bits      New value encoded as 64 bit word.
+     * @param meta      Packed timestamp and quality.
+     * @return True if the update was staged, false if it has to be applied immediately.
+     */
+    synchronized boolean stage(final DataPoint dataPoint, final long bits, final long meta) {
+        if (ended) {
+            return false;
+        }
+        buffer.put(dataPoint, bits, meta);
+        return true;
+    }
+
+    /**
+     * Stages the first count updates of the given arrays unless the cycle has ended.
+     *
+     * @param points Data points to update.
+     * @param values New values encoded as 64 bit words.
+     * @param metas  Packed timestamps and qualities.
+     * @param count  Number of updates.
+     * @return True if the updates were staged, false if they have to be applied immediately.
+     */
+    synchronized boolean stage(final DataPoint[] points, final long[] values, final long[] metas, final int count) {
+        if (ended) {
+            return false;
+        }
+        for (int i = 0; i < count; ++i) {
+            buffer.put(points[i], values[i], metas[i]);
+        }
+        return true;
+    }
+}
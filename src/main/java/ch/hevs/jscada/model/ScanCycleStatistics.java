@@ -0,0 +1,112 @@
+package ch.hevs.jscada.model;
+
+/**
+ * Statistics about the scan cycles of a {@link Process}. The cycle time is the time from the start of a scan cycle
+ * until all updates of the cycle have been applied, the swap time is the part of it spent applying the staged updates
+ * and notifying the listeners (which includes handing the new values over to the outputs).
+ * <br><br>
+ * Instances returned by the process are snapshots and do not change anymore.
+ *
+ * @author Michael Clausen (michael.clausen@hevs.ch)
+ * @see Process#getScanCycleStatistics()
+ */
+public final class ScanCycleStatistics {
+    private long count = 0;
+    private long lastCycleTime = 0;
+    private long maxCycleTime = 0;
+    private long lastSwapTime = 0;
+    private long maxSwapTime = 0;
+    private int lastUpdates = 0;
+    private int maxUpdates = 0;
+
+    ScanCycleStatistics() {
+    }
+
+    private ScanCycleStatistics(final ScanCycleStatistics other) {
+        count = other.count;
+        lastCycleTime = other.lastCycleTime;
+        maxCycleTime = other.maxCycleTime;
+        lastSwapTime = other.lastSwapTime;
+        maxSwapTime = other.maxSwapTime;
+        lastUpdates = other.lastUpdates;
+        maxUpdates = other.maxUpdates;
+    }
+
+    /**
+     * Returns the number of completed scan cycles.
+     *
+     * @return Number of scan cycles.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the duration of the last scan cycle.
+     *
+     * @return Cycle time in microseconds.
+     */
+    public long getLastCycleTime() {
+        return lastCycleTime;
+    }
+
+    /**
+     * Returns the longest duration of a scan cycle.
+     *
+     * @return Cycle time in microseconds.
+     */
+    public long getMaxCycleTime() {
+        return maxCycleTime;
+    }
+
+    /**
+     * Returns the time the last scan cycle needed to apply its updates and to notify the listeners. In single-writer
+     * mode the updates are applied by the process thread and this is only the time needed to hand them over.
+     *
+     * @return Swap time in microseconds.
+     */
+    public long getLastSwapTime() {
+        return lastSwapTime;
+    }
+
+    /**
+     * Returns the longest time a scan cycle needed to apply its updates and to notify the listeners.
+     *
+     * @return Swap time in microseconds.
+     */
+    public long getMaxSwapTime() {
+        return maxSwapTime;
+    }
+
+    /**
+     * Returns the number of data points updated by the last scan cycle.
+     *
+     * @return Number of updated data points.
+     */
+    public int getLastUpdates() {
+        return lastUpdates;
+    }
+
+    /**
+     * Returns the biggest number of data points updated by a single scan cycle.
+     *
+     * @return Number of updated data points.
+     */
+    public int getMaxUpdates() {
+        return maxUpdates;
+    }
+
+    synchronized void record(final long cycleTime, final long swapTime, final int updates) {
+        ++count;
+        lastCycleTime = cycleTime;
+        maxCycleTime = Math.max(maxCycleTime, cycleTime);
+        lastSwapTime = swapTime;
+        maxSwapTime = Math.max(maxSwapTime, swapTime);
+        lastUpdates = updates;
+        maxUpdates = Math.max(maxUpdates, updates);
+    }
+
+    synchronized ScanCycleStatistics snapshot() {
+        return new ScanCycleStatistics(this);
+    }
+}
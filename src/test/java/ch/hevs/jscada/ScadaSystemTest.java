@@ -1,15 +1,25 @@
 package ch.hevs.jscada;
 
+import ch.hevs.jscada.config.ConfigurationDictionary;
 import ch.hevs.jscada.model.DuplicateIdException;
 import ch.hevs.jscada.io.ConnectionGroup;
+import ch.hevs.jscada.io.Synchronizable;
+import ch.hevs.jscada.io.SynchronizableListener;
 import ch.hevs.jscada.io.field.dummy.DummyConnection;
 import ch.hevs.jscada.model.BooleanDataPoint;
+import ch.hevs.jscada.model.FloatDataPoint;
 import ch.hevs.jscada.model.Process;
+import ch.hevs.jscada.model.ProcessStateStore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import static org.junit.Assert.*;
 
 public class ScadaSystemTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void creationAndDefaultProperties() {
         ScadaSystem scadaSystem = new ScadaSystem();
@@ -84,4 +94,88 @@ public class ScadaSystemTest {
         scadaSystem.stop();
         assertFalse(scadaSystem.isActive());
     }
+
+    @Test
+    public void synchronizationExecutorFollowsSystem() throws DuplicateIdException, InterruptedException {
+        ScadaSystem scadaSystem = new ScadaSystem();
+        scadaSystem.getConnections().addConnection("test", new DummyConnection());
+
+        assertFalse(scadaSystem.getConnections().getSynchronizationExecutor().isRunning());
+        scadaSystem.start();
+        assertTrue(scadaSystem.getConnections().getSynchronizationExecutor().isRunning());
+        Thread.sleep(500);
+        assertEquals(1, scadaSystem.getConnections().getSynchronizationExecutor().getCompletedTasks());
+        assertEquals(0, scadaSystem.getConnections().getSynchronizationExecutor().getQueueDepth());
+        scadaSystem.stop();
+        assertFalse(scadaSystem.getConnections().getSynchronizationExecutor().isRunning());
+    }
+
+    @Test
+    public void scanCycle() throws Exception {
+        final ScadaSystem scadaSystem = new ScadaSystem();
+
+        // The dummy connection loops the output back to the input.
+        DummyConnection connection = new DummyConnection();
+        scadaSystem.getConnections().addConnection("dummy", connection);
+        ConfigurationDictionary configuration = new ConfigurationDictionary();
+        configuration.set("id", "loop");
+        final FloatDataPoint input = new FloatDataPoint("input", scadaSystem.getProcess());
+        FloatDataPoint output = new FloatDataPoint("output", scadaSystem.getProcess());
+        input.select(connection);
+        output.select(this);
+        connection.addInput(input, configuration);
+        connection.addOutput(output, configuration);
+        output.setValue(5, this);
+
+        // The input is swapped in after the listeners registered before have been notified about the end of the cycle.
+        SynchronizableListener listener = new SynchronizableListener() {
+            @Override
+            public void willSynchronize(Synchronizable synchronizable) {
+            }
+
+            @Override
+            public void didSynchronize(Synchronizable synchronizable) {
+                assertTrue(scadaSystem.getProcess().isScanCycleRunning());
+                assertEquals(0., input.getValue(), 0.);
+            }
+        };
+        scadaSystem.getConnections().addSynchronizableListener(listener);
+        scadaSystem.setScanCycle(true);
+        assertTrue(scadaSystem.isScanCycle());
+        scadaSystem.getConnections().synchronize();
+        scadaSystem.getConnections().removeSynchronizableListener(listener);
+        assertEquals(5., input.getValue(), 0.);
+        assertEquals(1, scadaSystem.getProcess().getScanCycleStatistics().getCount());
+
+        scadaSystem.setScanCycle(false);
+        output.setValue(6, this);
+        scadaSystem.getConnections().synchronize();
+        assertEquals(6., input.getValue(), 0.);
+        assertEquals(1, scadaSystem.getProcess().getScanCycleStatistics().getCount());
+    }
+
+    @Test
+    public void stateStore() throws Exception {
+        ScadaSystem scadaSystem = new ScadaSystem();
+        scadaSystem.setSynchronizationInterval(ScadaSystem.NO_SYNCHRONIZATION);
+        scadaSystem.setStateStore(new ProcessStateStore(scadaSystem.getProcess(), folder.getRoot()));
+        FloatDataPoint setpoint = new FloatDataPoint("setpoint", scadaSystem.getProcess());
+        setpoint.select(this);
+        scadaSystem.start();
+        assertTrue(scadaSystem.getStateStore().isOpen());
+        setpoint.setValue(21.5, this);
+        scadaSystem.stop();
+        assertFalse(scadaSystem.getStateStore().isOpen());
+
+        // The value is restored when the new system starts, before the first synchronization.
+        ScadaSystem restarted = new ScadaSystem();
+        restarted.setSynchronizationInterval(ScadaSystem.NO_SYNCHRONIZATION);
+        restarted.setStateStore(new ProcessStateStore(restarted.getProcess(), folder.getRoot()));
+        FloatDataPoint restored = new FloatDataPoint("setpoint", restarted.getProcess());
+        assertEquals(0., restored.getValue(), 0.);
+        restarted.start();
+        assertEquals(21.5, restored.getValue(), 0.);
+        assertEquals(1, restarted.getStateStore().getRestoredCount());
+        restarted.stop();
+    }
 }
@@ -3,6 +3,9 @@ package ch.hevs.jscada.factory;
 import ch.hevs.jscada.config.ConfigurationDictionary;
 import ch.hevs.jscada.ScadaSystem;
 import ch.hevs.jscada.config.ConfigurationException;
+import ch.hevs.jscada.io.ConnectionGroup;
+import ch.hevs.jscada.io.OverrunPolicy;
+import ch.hevs.jscada.io.ThreadMode;
 import ch.hevs.jscada.io.field.dummy.DummyConnection;
 import ch.hevs.jscada.model.*;
 import ch.hevs.jscada.model.Process;
@@ -213,6 +216,222 @@ public class XmlScadaSystemFactoryTest {
         ScadaSystemFactory.load("xml", config);
     }
 
+    @Test
+    public void synchronizationThreads() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/synchronize-threads.xml");
+        ScadaSystem scadaSystem = ScadaSystemFactory.load("xml", config);
+
+        assertEquals(4, scadaSystem.getConnections().getSynchronizationExecutor().getThreadCount());
+        assertEquals(OverrunPolicy.STRETCH, scadaSystem.getConnections().getOverrunPolicy());
+        assertEquals(ThreadMode.PLATFORM, scadaSystem.getConnections().getSynchronizationExecutor().getThreadMode());
+    }
+
+    @Test
+    public void synchronizationThreadMode() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/synchronize-virtual-threads.xml");
+        ScadaSystem scadaSystem = ScadaSystemFactory.load("xml", config);
+
+        assertEquals(ThreadMode.VIRTUAL, scadaSystem.getConnections().getSynchronizationExecutor().getThreadMode());
+    }
+
+    @Test
+    public void singleWriter() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/single-writer.xml");
+        ScadaSystem scadaSystem = ScadaSystemFactory.load("xml", config);
+
+        assertTrue(scadaSystem.getProcess().isSingleWriter());
+        scadaSystem.getProcess().setSingleWriter(false);
+    }
+
+    @Test
+    public void scanCycle() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/scan-cycle.xml");
+        ScadaSystem scadaSystem = ScadaSystemFactory.load("xml", config);
+
+        assertTrue(scadaSystem.isScanCycle());
+    }
+
+    @Test
+    public void stateStore() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/state-store.xml");
+        ScadaSystem scadaSystem = ScadaSystemFactory.load("xml", config);
+
+        ProcessStateStore stateStore = scadaSystem.getStateStore();
+        assertNotNull(stateStore);
+        assertEquals(new File("state"), stateStore.getDirectory());
+        assertEquals(ProcessStateStore.DEFAULT_SYNC_INTERVAL, stateStore.getSyncInterval());
+        assertEquals(300000, stateStore.getCheckpointInterval());
+        assertFalse(stateStore.isOpen());
+    }
+
+    @Test(expected = SAXParseException.class)
+    public void invalidFieldStateSyncInterval() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/invalid-field-stateSyncInterval.xml");
+        ScadaSystemFactory.load("xml", config);
+    }
+
+    @Test
+    public void deadband() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/deadband.xml");
+        ScadaSystem scadaSystem = ScadaSystemFactory.load("xml", config);
+
+        FloatDataPoint temperature = scadaSystem.getProcess().getDataPoint("TEMPERATURE", FloatDataPoint.class);
+        assertEquals(0.5, temperature.getDeadband(), 0.);
+        assertEquals(0., temperature.getDeadbandPercent(), 0.);
+        FloatDataPoint pressure = scadaSystem.getProcess().getDataPoint("PRESSURE", FloatDataPoint.class);
+        assertEquals(0., pressure.getDeadband(), 0.);
+        assertEquals(2., pressure.getDeadbandPercent(), 0.);
+    }
+
+    @Test(expected = SAXParseException.class)
+    public void invalidInputDeadband() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/invalid-input-deadband.xml");
+        ScadaSystemFactory.load("xml", config);
+    }
+
+    @Test(expected = SAXParseException.class)
+    public void invalidInputDeadbandType() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/invalid-input-deadband-type.xml");
+        ScadaSystemFactory.load("xml", config);
+    }
+
+    @Test
+    public void compressionDeviation() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/compression-deviation.xml");
+        ScadaSystem scadaSystem = ScadaSystemFactory.load("xml", config);
+
+        Process process = scadaSystem.getProcess();
+        assertEquals(0.25, process.getDataPoint("TEMPERATURE", FloatDataPoint.class).getCompressionDeviation(), 0.);
+        assertEquals(0., process.getDataPoint("PRESSURE", FloatDataPoint.class).getCompressionDeviation(), 0.);
+        assertEquals(1.5, process.getDataPoint("SETPOINT", FloatDataPoint.class).getCompressionDeviation(), 0.);
+    }
+
+    @Test(expected = SAXParseException.class)
+    public void invalidInputCompressionDeviation() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/invalid-input-compressionDeviation.xml");
+        ScadaSystemFactory.load("xml", config);
+    }
+
+    @Test(expected = SAXParseException.class)
+    public void invalidOutputCompressionDeviationType() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/invalid-output-compressionDeviation-type.xml");
+        ScadaSystemFactory.load("xml", config);
+    }
+
+    @Test
+    public void processStorage() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/process-storage.xml");
+        ScadaSystem scadaSystem = ScadaSystemFactory.load("xml", config);
+
+        assertEquals(ProcessStorage.OFF_HEAP, scadaSystem.getProcess().getStorage());
+        assertNotNull(scadaSystem.getProcess().getDataPoint("TEST.FLOAT", FloatDataPoint.class));
+    }
+
+    @Test(expected = SAXParseException.class)
+    public void invalidFieldProcessStorage() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/invalid-field-processStorage.xml");
+        ScadaSystemFactory.load("xml", config);
+    }
+
+    @Test(expected = SAXParseException.class)
+    public void invalidFieldScanCycle() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/invalid-field-scanCycle.xml");
+        ScadaSystemFactory.load("xml", config);
+    }
+
+    @Test(expected = SAXParseException.class)
+    public void invalidFieldSingleWriter() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/invalid-field-singleWriter.xml");
+        ScadaSystemFactory.load("xml", config);
+    }
+
+    @Test(expected = SAXParseException.class)
+    public void invalidFieldSynchronizationThreadMode() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/invalid-field-synchronizeThreadMode.xml");
+        ScadaSystemFactory.load("xml", config);
+    }
+
+    @Test(expected = SAXParseException.class)
+    public void invalidFieldOverrunPolicy() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/invalid-field-synchronizeOverrunPolicy.xml");
+        ScadaSystemFactory.load("xml", config);
+    }
+
+    @Test(expected = SAXParseException.class)
+    public void invalidFieldSynchronizationThreads() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/invalid-field-synchronizeThreads.xml");
+        ScadaSystemFactory.load("xml", config);
+    }
+
+    @Test
+    public void connectionSynchronizationInterval() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/connection-synchronizeInterval.xml");
+        ScadaSystem scadaSystem = ScadaSystemFactory.load("xml", config);
+
+        assertEquals(60000, scadaSystem.getSynchronizationInterval());
+        assertEquals(100, scadaSystem.getConnections().getSynchronizeInterval("FAST"));
+        assertEquals(ConnectionGroup.DEFAULT_SYNCHRONIZE_INTERVAL,
+            scadaSystem.getConnections().getSynchronizeInterval("SLOW"));
+    }
+
+    @Test
+    public void connectionSynchronizationTimeout() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/connection-synchronizeTimeout.xml");
+        ScadaSystem scadaSystem = ScadaSystemFactory.load("xml", config);
+
+        assertEquals(250, scadaSystem.getConnections().getSynchronizeTimeout("DUMMY"));
+    }
+
+    @Test(expected = SAXParseException.class)
+    public void invalidConnectionSynchronizationTimeout() throws Exception {
+        ConfigurationDictionary config = new ConfigurationDictionary();
+        config.set("source", "RESOURCE");
+        config.set("resource", "configurations/xml/invalid-connection-synchronizeTimeout.xml");
+        ScadaSystemFactory.load("xml", config);
+    }
+
     @Test(expected = SAXParseException.class)
     public void missingConnectionClass() throws Exception {
         ConfigurationDictionary config = new ConfigurationDictionary();
@@ -0,0 +1,331 @@
+package ch.hevs.jscada.io;
+
+import ch.hevs.jscada.ScadaSystem;
+import ch.hevs.jscada.config.ConfigurationDictionary;
+import ch.hevs.jscada.io.field.AbstractFieldConnection;
+import ch.hevs.jscada.io.field.FieldConnectionMode;
+import ch.hevs.jscada.model.DataPoint;
+import ch.hevs.jscada.model.DuplicateIdException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ConnectionGroupTest {
+    private final ConnectionGroup group = new ConnectionGroup();
+
+    static class SleepingConnection extends AbstractFieldConnection {
+        final AtomicInteger synchronizations = new AtomicInteger();
+        volatile long sleepMs;
+        volatile boolean ignoreInterrupts = false;
+
+        SleepingConnection(final long sleepMs) {
+            this.sleepMs = sleepMs;
+        }
+
+        @Override
+        public void initialize(ConfigurationDictionary configuration, ScadaSystem scadaSystem) {}
+
+        @Override
+        public void deinitialize(ScadaSystem scadaSystem) {}
+
+        @Override
+        public void addInput(DataPoint dataPoint, ConfigurationDictionary inputConfiguration) {}
+
+        @Override
+        public void addOutput(DataPoint dataPoint, ConfigurationDictionary outputConfiguration) {}
+
+        @Override
+        public List<FieldConnectionMode> supportedModes() {
+            return Collections.singletonList(FieldConnectionMode.SYNCHRONOUS);
+        }
+
+        @Override
+        public FieldConnectionMode getMode() {
+            return FieldConnectionMode.SYNCHRONOUS;
+        }
+
+        @Override
+        public void setMode(FieldConnectionMode mode) {}
+
+        @Override
+        public void synchronize() {
+            synchronizations.incrementAndGet();
+            final long end = System.currentTimeMillis() + sleepMs;
+            while (System.currentTimeMillis() < end) {
+                try {
+                    Thread.sleep(Math.max(1, end - System.currentTimeMillis()));
+                } catch (InterruptedException e) {
+                    if (!ignoreInterrupts) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    @After
+    public void after() {
+        group.stopSynchronization();
+    }
+
+    @Test
+    public void synchronizesAllConnections() throws DuplicateIdException {
+        SleepingConnection a = new SleepingConnection(0);
+        SleepingConnection b = new SleepingConnection(0);
+        group.addConnection("a", a);
+        group.addConnection("b", b);
+
+        group.synchronize();
+        group.synchronize();
+
+        assertEquals(2, a.synchronizations.get());
+        assertEquals(2, b.synchronizations.get());
+        assertEquals(4, group.getSynchronizationExecutor().getCompletedTasks());
+    }
+
+    @Test
+    public void synchronizesOnVirtualThreads() throws DuplicateIdException {
+        final SynchronizationExecutor executor = group.getSynchronizationExecutor();
+        executor.setThreadMode(ThreadMode.VIRTUAL);
+        executor.setThreadCount(1);
+        final List<SleepingConnection> connections = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            SleepingConnection connection = new SleepingConnection(0);
+            group.addConnection("c" + i, connection);
+            connections.add(connection);
+        }
+
+        group.synchronize();
+
+        // Falls back to platform threads on Java runtimes without virtual threads.
+        assertEquals(SynchronizationExecutor.isVirtualThreadSupported(), executor.isVirtual());
+        for (SleepingConnection connection: connections) {
+            assertEquals(1, connection.synchronizations.get());
+        }
+        assertEquals(0, executor.getActiveWorkers());
+        assertEquals(0, executor.getQueueDepth());
+    }
+
+    @Test
+    public void queuedConnectionSynchronizedAfterRestart() throws Exception {
+        final SynchronizationExecutor executor = group.getSynchronizationExecutor();
+        executor.setThreadCount(1);
+        SleepingConnection a = new SleepingConnection(300);
+        SleepingConnection b = new SleepingConnection(300);
+        group.addConnection("a", a);
+        group.addConnection("b", b);
+
+        // Stop the executor while b is still waiting for the only worker, the cycle completes normally.
+        final AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread cycle = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    group.synchronize();
+                } catch (Throwable t) {
+                    thrown.set(t);
+                }
+            }
+        });
+        cycle.start();
+        Thread.sleep(100);
+        executor.stop();
+        cycle.join();
+        assertNull(thrown.get());
+        assertEquals(1, a.synchronizations.get());
+        assertEquals(0, b.synchronizations.get());
+
+        executor.start();
+        group.synchronize();
+        assertEquals(2, a.synchronizations.get());
+        assertEquals(1, b.synchronizations.get());
+    }
+
+    @Test
+    public void synchronizeTimeout() throws DuplicateIdException {
+        final SleepingConnection hanging = new SleepingConnection(10000);
+        SleepingConnection fast = new SleepingConnection(10);
+        group.addConnection("hanging", hanging);
+        group.addConnection("fast", fast);
+        group.setSynchronizeTimeout("hanging", 200);
+        assertEquals(200, group.getSynchronizeTimeout("hanging"));
+        assertEquals(ConnectionGroup.NO_SYNCHRONIZE_TIMEOUT, group.getSynchronizeTimeout("fast"));
+
+        final List<Exception> exceptions = new ArrayList<>();
+        group.addConnectionListener(new ConnectionListener() {
+            @Override
+            public void connectionStateChanged(Connection connection, ConnectionState state) {}
+
+            @Override
+            public void connectionThrownException(Connection connection, Exception exception) {
+                assertSame(hanging, connection);
+                exceptions.add(exception);
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        group.synchronize();
+        long duration = System.currentTimeMillis() - start;
+
+        assertTrue(duration < 2000);
+        assertEquals(1, fast.synchronizations.get());
+        assertEquals(1, exceptions.size());
+        assertTrue(exceptions.get(0) instanceof SynchronizeTimeoutException);
+    }
+
+    @Test
+    public void synchronizeExceptionReported() throws DuplicateIdException {
+        SleepingConnection failing = new SleepingConnection(0) {
+            @Override
+            public void synchronize() {
+                super.synchronize();
+                throw new IllegalStateException("Device not responding");
+            }
+        };
+        group.addConnection("failing", failing);
+        final List<Exception> exceptions = new ArrayList<>();
+        group.addConnectionListener(new ConnectionListener() {
+            @Override
+            public void connectionStateChanged(Connection connection, ConnectionState state) {}
+
+            @Override
+            public void connectionThrownException(Connection connection, Exception exception) {
+                exceptions.add(exception);
+            }
+        });
+
+        group.synchronize();
+        assertEquals(1, exceptions.size());
+        assertTrue(exceptions.get(0) instanceof IllegalStateException);
+
+        // The connection is synchronized again by the next cycle.
+        group.synchronize();
+        assertEquals(2, failing.synchronizations.get());
+    }
+
+    @Test
+    public void abandonedConnectionIsNotSynchronizedAgainWhileBusy() throws DuplicateIdException,
+        InterruptedException {
+        SleepingConnection stubborn = new SleepingConnection(1000);
+        stubborn.ignoreInterrupts = true;
+        group.addConnection("stubborn", stubborn);
+        group.setSynchronizeTimeout("stubborn", 100);
+
+        group.synchronize();
+        group.synchronize();
+        assertEquals(1, stubborn.synchronizations.get());
+
+        Thread.sleep(1200);
+        stubborn.sleepMs = 0;
+        group.synchronize();
+        assertEquals(2, stubborn.synchronizations.get());
+    }
+
+    @Test
+    public void multiRateSynchronization() throws DuplicateIdException, InterruptedException {
+        SleepingConnection fast = new SleepingConnection(0);
+        SleepingConnection slow = new SleepingConnection(0);
+        group.addConnection("fast", fast);
+        group.addConnection("slow", slow);
+        group.setSynchronizeInterval("fast", 50);
+        assertEquals(50, group.getSynchronizeInterval("fast"));
+        assertEquals(ConnectionGroup.DEFAULT_SYNCHRONIZE_INTERVAL, group.getSynchronizeInterval("slow"));
+
+        group.startSynchronization(10000);
+        assertTrue(group.isSynchronizing());
+        Thread.sleep(525);
+        group.stopSynchronization();
+        assertFalse(group.isSynchronizing());
+
+        assertTrue(fast.synchronizations.get() >= 8);
+        assertEquals(1, slow.synchronizations.get());
+    }
+
+    @Test
+    public void noDefaultSynchronization() throws DuplicateIdException, InterruptedException {
+        SleepingConnection fast = new SleepingConnection(0);
+        SleepingConnection never = new SleepingConnection(0);
+        group.addConnection("fast", fast);
+        group.addConnection("never", never);
+        group.setSynchronizeInterval("fast", 50);
+
+        group.startSynchronization(0);
+        Thread.sleep(200);
+        group.stopSynchronization();
+
+        assertTrue(fast.synchronizations.get() > 0);
+        assertEquals(0, never.synchronizations.get());
+    }
+
+    private SynchronizationStatistics runOverloaded(final OverrunPolicy policy) throws DuplicateIdException,
+        InterruptedException {
+        SleepingConnection slow = new SleepingConnection(150);
+        group.addConnection("slow", slow);
+        group.setSynchronizeInterval("slow", 50);
+        group.setOverrunPolicy(policy);
+        assertEquals(policy, group.getOverrunPolicy());
+
+        group.startSynchronization(0);
+        Thread.sleep(1000);
+        group.stopSynchronization();
+
+        // Missed synchronizations must never be executed back to back.
+        assertTrue(slow.synchronizations.get() <= 8);
+        return group.getSynchronizationStatistics("slow");
+    }
+
+    @Test
+    public void overrunSkip() throws DuplicateIdException, InterruptedException {
+        SynchronizationStatistics statistics = runOverloaded(OverrunPolicy.SKIP);
+        assertTrue(statistics.getCount() > 0);
+        assertEquals(statistics.getCount(), statistics.getOverruns());
+        assertTrue(statistics.getSkipped() > 0);
+        assertTrue(statistics.getMaxDuration() >= 150);
+        assertEquals(50, statistics.getInterval());
+        assertTrue(group.getCycleStatistics().getOverruns() > 0);
+    }
+
+    @Test
+    public void overrunDelay() throws DuplicateIdException, InterruptedException {
+        SynchronizationStatistics statistics = runOverloaded(OverrunPolicy.DELAY);
+        assertTrue(statistics.getOverruns() > 0);
+        assertEquals(0, statistics.getSkipped());
+    }
+
+    @Test
+    public void overrunStretch() throws DuplicateIdException, InterruptedException {
+        SynchronizationStatistics statistics = runOverloaded(OverrunPolicy.STRETCH);
+        assertTrue(statistics.getOverruns() > 0);
+        assertTrue(statistics.getInterval() >= 150);
+        assertEquals(0, statistics.getSkipped());
+    }
+
+    @Test
+    public void noOverrun() throws DuplicateIdException, InterruptedException {
+        SleepingConnection fast = new SleepingConnection(0);
+        group.addConnection("fast", fast);
+        group.setSynchronizeInterval("fast", 50);
+
+        group.startSynchronization(0);
+        Thread.sleep(500);
+        group.stopSynchronization();
+
+        SynchronizationStatistics statistics = group.getSynchronizationStatistics("fast");
+        assertTrue(statistics.getCount() >= 5);
+        assertEquals(0, statistics.getOverruns());
+        assertEquals(0, statistics.getSkipped());
+        assertEquals(0, group.getCycleStatistics().getOverruns());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void synchronizeTimeoutOfUnknownConnection() {
+        group.setSynchronizeTimeout("unknown", 100);
+    }
+}
@@ -0,0 +1,100 @@
+package ch.hevs.jscada.io.history;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public final class BlockEncoderTest {
+    private final BlockEncoder encoder = new BlockEncoder();
+    private final BlockDecoder decoder = new BlockDecoder();
+
+    private void assertRoundTrip(final long[] timestamps, final double[] values) {
+        encoder.reset();
+        for (int i = 0; i < timestamps.length; ++i) {
+            encoder.append(timestamps[i], values[i]);
+        }
+        assertEquals(timestamps.length, encoder.getCount());
+        assertEquals(timestamps[0], encoder.getFirstTimestamp());
+        assertEquals(timestamps[timestamps.length - 1], encoder.getLastTimestamp());
+
+        // Decode at an offset in order to check that the offset is respected.
+        ByteBuffer buffer = ByteBuffer.allocate(encoder.getByteCount() + 3);
+        buffer.position(3);
+        encoder.writeTo(buffer);
+        assertFalse(buffer.hasRemaining());
+
+        decoder.reset(buffer, 3, encoder.getByteCount(), encoder.getFirstTimestamp(), encoder.getCount());
+        for (int i = 0; i < timestamps.length; ++i) {
+            assertTrue(decoder.next());
+            assertEquals(timestamps[i], decoder.getTimestamp());
+            assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(decoder.getValue()));
+        }
+        assertFalse(decoder.next());
+    }
+
+    @Test
+    public void periodicSamples() {
+        long[] timestamps = new long[1000];
+        double[] values = new double[1000];
+        for (int i = 0; i < timestamps.length; ++i) {
+            timestamps[i] = 1400000000000L + 1000L * i;
+            values[i] = 20. + (i / 100) * 0.5;
+        }
+        assertRoundTrip(timestamps, values);
+
+        // Constant intervals and values cost two bits per sample.
+        assertTrue(encoder.getByteCount() < 8 + 2 * timestamps.length / 8 + 200);
+    }
+
+    @Test
+    public void irregularSamples() {
+        Random random = new Random(42);
+        long[] timestamps = new long[5000];
+        double[] values = new double[5000];
+        long timestamp = -5000;
+        for (int i = 0; i < timestamps.length; ++i) {
+            // Jitter, huge gaps and timestamps going backwards.
+            switch (random.nextInt(4)) {
+                case 0:
+                    timestamp += random.nextInt(100);
+                    break;
+                case 1:
+                    timestamp += random.nextInt(100000);
+                    break;
+                case 2:
+                    timestamp -= random.nextInt(10);
+                    break;
+                default:
+                    timestamp += (long) random.nextInt() * random.nextInt(1000);
+                    break;
+            }
+            timestamps[i] = timestamp;
+            values[i] = random.nextInt(3) == 0 ? random.nextGaussian() * 1e6 : values[Math.max(i - 1, 0)];
+        }
+        values[10] = Double.NaN;
+        values[11] = Double.POSITIVE_INFINITY;
+        values[12] = -0.;
+        values[13] = Double.MIN_VALUE;
+        assertRoundTrip(timestamps, values);
+    }
+
+    @Test
+    public void singleSample() {
+        assertRoundTrip(new long[]{Long.MAX_VALUE}, new double[]{-1.});
+        assertRoundTrip(new long[]{0, Long.MAX_VALUE, Long.MIN_VALUE}, new double[]{1., 2., 3.});
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void truncatedBlock() {
+        encoder.append(0, 1.);
+        encoder.append(10, 2.);
+        ByteBuffer buffer = ByteBuffer.allocate(encoder.getByteCount());
+        encoder.writeTo(buffer);
+        decoder.reset(buffer, 0, 8, 0, 2);
+        decoder.next();
+        decoder.next();
+    }
+}
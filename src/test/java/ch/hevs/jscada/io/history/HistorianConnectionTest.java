@@ -0,0 +1,226 @@
+package ch.hevs.jscada.io.history;
+
+import ch.hevs.jscada.ScadaSystem;
+import ch.hevs.jscada.config.ConfigurationDictionary;
+import ch.hevs.jscada.io.ConnectionState;
+import ch.hevs.jscada.model.BatchWriter;
+import ch.hevs.jscada.model.BooleanDataPoint;
+import ch.hevs.jscada.model.DataPointQuality;
+import ch.hevs.jscada.model.FloatDataPoint;
+import ch.hevs.jscada.model.IntegerDataPoint;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public final class HistorianConnectionTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScadaSystem scadaSystem = new ScadaSystem();
+    private final HistorianConnection historian = new HistorianConnection();
+
+    private void initialize(final String pattern, final int blockSize) throws Exception {
+        initialize(pattern, blockSize, true);
+    }
+
+    private void initialize(final String pattern, final int blockSize, final boolean rollups) throws Exception {
+        ConfigurationDictionary configuration = new ConfigurationDictionary();
+        configuration.set("rollups", rollups);
+        configuration.set("directory", new File(folder.getRoot(), "history").getPath());
+        configuration.set("pattern", pattern);
+        configuration.set("blockSize", blockSize);
+        configuration.set("segmentSize", 4096L);
+        scadaSystem.getConnections().addConnection("historian", historian);
+        historian.initialize(configuration, scadaSystem);
+        assertEquals(ConnectionState.CONNECTED, historian.getConnectionState());
+    }
+
+    // Reads all samples of all segment files, timestamps and values of each data point are returned as list.
+    private Map<String, List<double[]>> readHistory() throws Exception {
+        Map<String, List<double[]>> history = new HashMap<>();
+        BlockDecoder decoder = new BlockDecoder();
+        for (File segment : SegmentFormat.list(historian.getDirectory())) {
+            RandomAccessFile file = new RandomAccessFile(segment, "r");
+            ByteBuffer buffer = ByteBuffer.allocate((int) file.length());
+            file.getChannel().read(buffer);
+            file.close();
+            buffer.flip();
+            assertEquals(SegmentFormat.MAGIC, buffer.getInt());
+            assertEquals(SegmentFormat.VERSION, buffer.getInt());
+            while (buffer.hasRemaining()) {
+                byte[] id = new byte[buffer.getShort()];
+                buffer.get(id);
+                long first = buffer.getLong();
+                long last = buffer.getLong();
+                int count = buffer.getInt();
+                int length = buffer.getInt();
+                List<double[]> samples = history.get(new String(id, SegmentFormat.ID_CHARSET));
+                if (samples == null) {
+                    samples = new ArrayList<>();
+                    history.put(new String(id, SegmentFormat.ID_CHARSET), samples);
+                }
+                decoder.reset(buffer, buffer.position(), length, first, count);
+                while (decoder.next()) {
+                    samples.add(new double[]{decoder.getTimestamp(), decoder.getValue()});
+                }
+                assertEquals(last, (long) samples.get(samples.size() - 1)[0]);
+                buffer.position(buffer.position() + length);
+            }
+        }
+        return history;
+    }
+
+    @Test
+    public void recordsNumericDataPoints() throws Exception {
+        initialize("plant.**", 10);
+        FloatDataPoint temperature = new FloatDataPoint("plant.temperature", scadaSystem.getProcess());
+        IntegerDataPoint counter = new IntegerDataPoint("plant.counter", scadaSystem.getProcess());
+        BooleanDataPoint alarm = new BooleanDataPoint("plant.alarm", scadaSystem.getProcess());
+        FloatDataPoint other = new FloatDataPoint("other.temperature", scadaSystem.getProcess());
+        temperature.select(this);
+        counter.select(this);
+        alarm.select(this);
+        other.select(this);
+
+        for (int i = 0; i < 1000; ++i) {
+            temperature.setValue(20. + i % 7, 1000L * i, DataPointQuality.GOOD, this);
+            counter.setValue(i, 1000L * i, DataPointQuality.GOOD, this);
+            alarm.setValue(i % 2 == 0, this);
+            other.setValue(i, this);
+        }
+        assertEquals(2000, historian.getSampleCount());
+
+        historian.deinitialize(scadaSystem);
+        assertEquals(ConnectionState.IDLE, historian.getConnectionState());
+        assertTrue(SegmentFormat.list(historian.getDirectory()).length > 1);
+
+        Map<String, List<double[]>> history = readHistory();
+        assertEquals(2, history.size());
+        List<double[]> temperatures = history.get("plant.temperature");
+        List<double[]> counters = history.get("plant.counter");
+        assertEquals(1000, temperatures.size());
+        assertEquals(1000, counters.size());
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(1000. * i, temperatures.get(i)[0], 0.);
+            assertEquals(20. + i % 7, temperatures.get(i)[1], 0.);
+            assertEquals(i, counters.get(i)[1], 0.);
+        }
+
+        // Updates after deinitialization are not recorded.
+        temperature.setValue(0., this);
+        assertEquals(1000, readHistory().get("plant.temperature").size());
+    }
+
+    @Test
+    public void deinitializeWithoutInitialize() throws Exception {
+        historian.deinitialize(scadaSystem);
+        assertEquals(ConnectionState.IDLE, historian.getConnectionState());
+    }
+
+    @Test
+    public void recordsBatchUpdates() throws Exception {
+        initialize("**", 10);
+        FloatDataPoint temperature = new FloatDataPoint("temperature", scadaSystem.getProcess());
+        IntegerDataPoint counter = new IntegerDataPoint("counter", scadaSystem.getProcess());
+        temperature.select(this);
+        counter.select(this);
+        BatchWriter batch = scadaSystem.getProcess().beginBatch();
+        for (int i = 0; i < 100; ++i) {
+            batch.setValue(temperature, i * 0.5, 1000L * i, DataPointQuality.GOOD, this);
+            batch.setValue(counter, i, 2000L * i, DataPointQuality.GOOD, this);
+            batch.commit();
+        }
+        historian.deinitialize(scadaSystem);
+
+        // Every sample gets the timestamp of its own update.
+        Map<String, List<double[]>> history = readHistory();
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(1000. * i, history.get("temperature").get(i)[0], 0.);
+            assertEquals(i * 0.5, history.get("temperature").get(i)[1], 0.);
+            assertEquals(2000. * i, history.get("counter").get(i)[0], 0.);
+            assertEquals(i, history.get("counter").get(i)[1], 0.);
+        }
+    }
+
+    @Test
+    public void compression() throws Exception {
+        initialize("**", HistorianConnection.DEFAULT_BLOCK_SIZE);
+        FloatDataPoint temperature = new FloatDataPoint("temperature", scadaSystem.getProcess());
+        temperature.select(this);
+        for (int i = 0; i < 100000; ++i) {
+            temperature.setValue(20. + (i / 60) * 0.25, 1000L * i, DataPointQuality.GOOD, this);
+        }
+        historian.flush();
+
+        // Periodically sampled, slowly changing values need far less than the 16 bytes of a raw sample.
+        assertTrue(historian.getBytesWritten() < 100000 / 2);
+        assertEquals(100000, readHistory().get("temperature").size());
+        historian.deinitialize(scadaSystem);
+    }
+
+    @Test
+    public void withoutRollups() throws Exception {
+        initialize("**", 10, false);
+        FloatDataPoint temperature = new FloatDataPoint("temperature", scadaSystem.getProcess());
+        temperature.select(this);
+        for (int i = 0; i < 100; ++i) {
+            temperature.setValue(i, 1000L * i, DataPointQuality.GOOD, this);
+        }
+        historian.deinitialize(scadaSystem);
+        assertFalse(new File(historian.getDirectory(), RollupResolution.MINUTE.getDirectoryName()).exists());
+
+        AggregateCursor cursor = new HistoryReader(historian.getDirectory()).aggregate("temperature", 0, 99999, 60000);
+        assertNull(cursor.getResolution());
+        assertTrue(cursor.next());
+        assertEquals(60, cursor.getCount());
+        assertTrue(cursor.next());
+        assertEquals(40, cursor.getCount());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void compressedHistory() throws Exception {
+        initialize("**", 64);
+        FloatDataPoint temperature = new FloatDataPoint("temperature", scadaSystem.getProcess());
+        temperature.setCompressionDeviation(0.1);
+        temperature.select(this);
+        double[] values = new double[3600];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = 20. + 5. * Math.sin(i / 600.);
+            temperature.setValue(values[i], 1000L * i, DataPointQuality.GOOD, this);
+        }
+        historian.deinitialize(scadaSystem);
+        assertEquals(3600, historian.getSampleCount());
+        assertTrue(historian.getStoredSampleCount() < 3600 / 20);
+
+        // Every update can be reconstructed within the deviation.
+        List<double[]> samples = readHistory().get("temperature");
+        assertEquals(historian.getStoredSampleCount(), samples.size());
+        assertEquals(3599000., samples.get(samples.size() - 1)[0], 0.);
+        for (int i = 1, j = 0; i < values.length; ++i) {
+            while (samples.get(j + 1)[0] < 1000. * i) {
+                ++j;
+            }
+            double[] a = samples.get(j);
+            double[] b = samples.get(j + 1);
+            assertEquals(values[i], a[1] + (b[1] - a[1]) * (1000. * i - a[0]) / (b[0] - a[0]), 0.1 + 1e-9);
+        }
+
+        // The rollups are computed from all updates.
+        AggregateCursor cursor = new HistoryReader(historian.getDirectory()).aggregate("temperature", 0, 3599999,
+            3600000);
+        assertEquals(RollupResolution.HOUR, cursor.getResolution());
+        assertTrue(cursor.next());
+        assertEquals(3600, cursor.getCount());
+    }
+}
@@ -0,0 +1,276 @@
+package ch.hevs.jscada.io.history;
+
+import ch.hevs.jscada.ScadaSystem;
+import ch.hevs.jscada.config.ConfigurationDictionary;
+import ch.hevs.jscada.model.DataPointQuality;
+import ch.hevs.jscada.model.FloatDataPoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+public final class HistoryReaderTest {
+    private static final long START = 16204L * 24 * 3600 * 1000;
+    private static final int SAMPLES = 24 * 3600;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScadaSystem scadaSystem = new ScadaSystem();
+    private final HistorianConnection historian = new HistorianConnection();
+    private FloatDataPoint temperature;
+
+    @Before
+    public void setUp() throws Exception {
+        ConfigurationDictionary configuration = new ConfigurationDictionary();
+        configuration.set("directory", new File(folder.getRoot(), "history").getPath());
+        configuration.set("blockSize", 256);
+        configuration.set("segmentSize", 64L * 1024);
+        scadaSystem.getConnections().addConnection("historian", historian);
+        historian.initialize(configuration, scadaSystem);
+
+        // One day of samples every second.
+        temperature = new FloatDataPoint("temperature", scadaSystem.getProcess());
+        temperature.select(this);
+        for (int i = 0; i < SAMPLES; ++i) {
+            temperature.setValue(valueAt(i), START + 1000L * i, DataPointQuality.GOOD, this);
+        }
+        historian.flush();
+    }
+
+    @After
+    public void tearDown() {
+        historian.deinitialize(scadaSystem);
+    }
+
+    private static double valueAt(final int i) {
+        return 20. + (i / 60) % 10;
+    }
+
+    @Test
+    public void queryRange() throws Exception {
+        HistoryReader reader = new HistoryReader(historian.getDirectory());
+        assertTrue(reader.contains("temperature"));
+        assertEquals(SAMPLES / 256 + 1, reader.getBlockCount());
+
+        // Whole day.
+        long[] timestamps = new long[SAMPLES + 10];
+        double[] values = new double[SAMPLES + 10];
+        assertEquals(SAMPLES, reader.query("temperature", Long.MIN_VALUE, Long.MAX_VALUE, timestamps, values));
+        for (int i = 0; i < SAMPLES; ++i) {
+            assertEquals(START + 1000L * i, timestamps[i]);
+            assertEquals(valueAt(i), values[i], 0.);
+        }
+
+        // Ten minutes in the middle, only the overlapping blocks are decoded.
+        HistoryCursor cursor = reader.query("temperature", START + 3600000L, START + 4200000L);
+        assertEquals(601, cursor.read(timestamps, values));
+        assertEquals(-1, cursor.read(timestamps, values));
+        assertEquals(START + 3600000L, timestamps[0]);
+        assertEquals(START + 4200000L, timestamps[600]);
+        assertEquals(valueAt(3600), values[0], 0.);
+        assertTrue(cursor.getDecodedBlocks() <= 4);
+
+        // Outside of the recorded range.
+        assertEquals(0, reader.query("temperature", START - 10000L, START - 1L, timestamps, values));
+        assertEquals(0, reader.query("temperature", START + 1000L * SAMPLES, Long.MAX_VALUE, timestamps, values));
+        assertEquals(0, reader.query("temperature", START + 1000L, START, timestamps, values));
+        assertEquals(0, reader.query("pressure", Long.MIN_VALUE, Long.MAX_VALUE, timestamps, values));
+        assertFalse(reader.contains("pressure"));
+    }
+
+    @Test
+    public void queryInChunks() throws Exception {
+        HistoryReader reader = new HistoryReader(historian.getDirectory());
+        HistoryCursor cursor = reader.query("temperature", START, START + 1000L * (SAMPLES - 1));
+        long[] timestamps = new long[1000];
+        double[] values = new double[1000];
+        int total = 0;
+        int count;
+        while ((count = cursor.read(timestamps, values, 10, 990)) >= 0) {
+            for (int i = 0; i < count; ++i) {
+                assertEquals(START + 1000L * (total + i), timestamps[10 + i]);
+            }
+            total += count;
+        }
+        assertEquals(SAMPLES, total);
+    }
+
+    @Test
+    public void refresh() throws Exception {
+        HistoryReader reader = new HistoryReader(historian.getDirectory());
+        long[] timestamps = new long[10];
+        double[] values = new double[10];
+        long end = START + 1000L * SAMPLES;
+
+        temperature.setValue(1., end, DataPointQuality.GOOD, this);
+        temperature.setValue(2., end + 1000L, DataPointQuality.GOOD, this);
+        // Out of order samples are found too.
+        temperature.setValue(3., START - 1000L, DataPointQuality.GOOD, this);
+        historian.flush();
+        assertEquals(0, reader.query("temperature", end, Long.MAX_VALUE, timestamps, values));
+
+        reader.refresh();
+        assertEquals(2, reader.query("temperature", end, Long.MAX_VALUE, timestamps, values));
+        assertEquals(2., values[1], 0.);
+        assertEquals(1, reader.query("temperature", Long.MIN_VALUE, START - 1L, timestamps, values));
+        assertEquals(3., values[0], 0.);
+    }
+
+    @Test
+    public void truncatedBlockIgnored() throws Exception {
+        File[] segments = SegmentFormat.list(historian.getDirectory());
+        historian.deinitialize(scadaSystem);
+        FileOutputStream out = new FileOutputStream(segments[segments.length - 1], true);
+        out.write(new byte[]{0, 11, 't', 'e', 'm'});
+        out.close();
+
+        HistoryReader reader = new HistoryReader(historian.getDirectory());
+        assertEquals(SAMPLES / 256 + 1, reader.getBlockCount());
+    }
+
+    @Test
+    public void aggregateFromRollups() throws Exception {
+        HistoryReader reader = new HistoryReader(historian.getDirectory());
+        long end = START + 1000L * SAMPLES - 1;
+
+        AggregateCursor cursor = reader.aggregate("temperature", START, end, RollupResolution.DAY.getPeriod());
+        assertEquals(RollupResolution.DAY, cursor.getResolution());
+        assertTrue(cursor.next());
+        assertEquals(START, cursor.getStart());
+        assertEquals(SAMPLES, cursor.getCount());
+        assertEquals(20., cursor.getMin(), 0.);
+        assertEquals(29., cursor.getMax(), 0.);
+        assertEquals(24.5, cursor.getAverage(), 1e-9);
+        assertFalse(cursor.next());
+
+        cursor = reader.aggregate("temperature", START, end, RollupResolution.HOUR.getPeriod());
+        assertEquals(RollupResolution.HOUR, cursor.getResolution());
+        for (int i = 0; i < 24; ++i) {
+            assertTrue(cursor.next());
+            assertEquals(START + i * 3600000L, cursor.getStart());
+            assertEquals(3600, cursor.getCount());
+            assertEquals(24.5, cursor.getAverage(), 1e-9);
+        }
+        assertFalse(cursor.next());
+
+        // Ten minute buckets are computed from the minute rollup.
+        cursor = reader.aggregate("temperature", START, end, 600000L);
+        assertEquals(RollupResolution.MINUTE, cursor.getResolution());
+        int buckets = 0;
+        while (cursor.next()) {
+            assertEquals(START + buckets * 600000L, cursor.getStart());
+            assertEquals(600, cursor.getCount());
+            assertEquals(20., cursor.getMin(), 0.);
+            assertEquals(29., cursor.getMax(), 0.);
+            ++buckets;
+        }
+        assertEquals(144, buckets);
+
+        // All buckets overlapping the range are returned.
+        cursor = reader.aggregate("temperature", START + 1805000L, START + 5400000L, 3600000L);
+        assertTrue(cursor.next());
+        assertEquals(START, cursor.getStart());
+        assertEquals(3600, cursor.getCount());
+        assertTrue(cursor.next());
+        assertEquals(START + 3600000L, cursor.getStart());
+        assertFalse(cursor.next());
+
+        assertFalse(reader.aggregate("temperature", START - 3600000L, START - 1, 60000L).next());
+        assertFalse(reader.aggregate("temperature", end, START, 60000L).next());
+        assertFalse(reader.aggregate("pressure", START, end, 60000L).next());
+    }
+
+    @Test
+    public void aggregateFromSamples() throws Exception {
+        HistoryReader reader = new HistoryReader(historian.getDirectory());
+
+        // Intervals not being a multiple of a rollup resolution are computed from the raw samples.
+        AggregateCursor cursor = reader.aggregate("temperature", START, START + 179999L, 90000L);
+        assertNull(cursor.getResolution());
+        assertTrue(cursor.next());
+        assertEquals(START, cursor.getStart());
+        assertEquals(90, cursor.getCount());
+        assertEquals(20., cursor.getMin(), 0.);
+        assertEquals(21., cursor.getMax(), 0.);
+        assertEquals((60 * 20. + 30 * 21.) / 90, cursor.getAverage(), 1e-9);
+        assertTrue(cursor.next());
+        assertEquals(START + 90000L, cursor.getStart());
+        assertEquals(90, cursor.getCount());
+        assertFalse(cursor.next());
+
+        cursor = reader.aggregate("temperature", START + 1000L, START + 1000L, 1000L);
+        assertTrue(cursor.next());
+        assertEquals(START + 1000L, cursor.getStart());
+        assertEquals(1, cursor.getCount());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void aggregateContinuedAfterFlush() throws Exception {
+        // The aggregates of the last buckets have been written by the flush, they are continued.
+        temperature.setValue(100., START + 1000L * SAMPLES - 500L, DataPointQuality.GOOD, this);
+        temperature.setValue(Double.NaN, START + 1000L * SAMPLES - 400L, DataPointQuality.GOOD, this);
+        historian.flush();
+
+        HistoryReader reader = new HistoryReader(historian.getDirectory());
+        AggregateCursor cursor = reader.aggregate("temperature", START, START, RollupResolution.DAY.getPeriod());
+        assertTrue(cursor.next());
+        assertEquals(SAMPLES + 1, cursor.getCount());
+        assertEquals(100., cursor.getMax(), 0.);
+        assertFalse(cursor.next());
+
+        cursor = reader.aggregate("temperature", START + 1000L * SAMPLES - 1, START + 1000L * SAMPLES - 1, 60000L);
+        assertTrue(cursor.next());
+        assertEquals(61, cursor.getCount());
+        assertEquals(20. + 9, cursor.getMin(), 0.);
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void aggregateAcrossUnflushedDay() throws Exception {
+        // The full blocks of the second day are written, but its day and hour aggregates are still open.
+        long day = RollupResolution.DAY.getPeriod();
+        for (int i = 0; i < SAMPLES; ++i) {
+            temperature.setValue(valueAt(i), START + day + 1000L * i, DataPointQuality.GOOD, this);
+        }
+        historian.awaitWrites();
+        int written = SAMPLES / 256 * 256;
+
+        HistoryReader reader = new HistoryReader(historian.getDirectory());
+        AggregateCursor cursor = reader.aggregate("temperature", START, START + 2 * day - 1, day);
+        assertEquals(RollupResolution.HOUR, cursor.getResolution());
+        assertTrue(cursor.next());
+        assertEquals(START, cursor.getStart());
+        assertEquals(SAMPLES, cursor.getCount());
+        assertTrue(cursor.next());
+        assertEquals(START + day, cursor.getStart());
+        assertEquals(written, cursor.getCount());
+        assertEquals(20., cursor.getMin(), 0.);
+        assertEquals(29., cursor.getMax(), 0.);
+        assertFalse(cursor.next());
+
+        long total = 0;
+        cursor = reader.aggregate("temperature", START, START + 2 * day - 1, RollupResolution.HOUR.getPeriod());
+        while (cursor.next()) {
+            total += cursor.getCount();
+        }
+        assertEquals(SAMPLES + written, total);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidInterval() throws Exception {
+        new HistoryReader(historian.getDirectory()).aggregate("temperature", 0, 1, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLength() throws Exception {
+        new HistoryReader(historian.getDirectory()).query("temperature", 0, 1).read(new long[2], new double[1], 0, 2);
+    }
+}
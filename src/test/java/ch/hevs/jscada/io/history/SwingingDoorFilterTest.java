@@ -0,0 +1,87 @@
+package ch.hevs.jscada.io.history;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public final class SwingingDoorFilterTest {
+    private final SwingingDoorFilter filter = new SwingingDoorFilter();
+    private final List<long[]> stored = new ArrayList<>();
+
+    private void add(final long timestamp, final double value, final double deviation) {
+        collect(filter.add(timestamp, value, deviation));
+    }
+
+    private void collect(final int count) {
+        for (int i = 0; i < count; ++i) {
+            stored.add(new long[]{filter.timestamps[i], Double.doubleToRawLongBits(filter.values[i])});
+        }
+    }
+
+    private double interpolate(final long timestamp) {
+        for (int i = 1; i < stored.size(); ++i) {
+            long t0 = stored.get(i - 1)[0];
+            long t1 = stored.get(i)[0];
+            if (timestamp >= t0 && timestamp <= t1) {
+                double v0 = Double.longBitsToDouble(stored.get(i - 1)[1]);
+                double v1 = Double.longBitsToDouble(stored.get(i)[1]);
+                return t1 == t0 ? v1 : v0 + (v1 - v0) * (timestamp - t0) / (t1 - t0);
+            }
+        }
+        return Double.longBitsToDouble(stored.get(stored.size() - 1)[1]);
+    }
+
+    @Test
+    public void boundedError() {
+        Random random = new Random(7);
+        double[] values = new double[10000];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = 50. + 20. * Math.sin(i / 500.) + random.nextGaussian() * 0.05;
+            add(1000L * i, values[i], 0.5);
+        }
+        collect(filter.flush());
+
+        assertEquals(0L, stored.get(0)[0]);
+        assertEquals(1000L * (values.length - 1), stored.get(stored.size() - 1)[0]);
+        assertTrue(stored.size() < values.length / 20);
+        for (int i = 0; i < values.length; ++i) {
+            assertEquals(values[i], interpolate(1000L * i), 0.5 + 1e-9);
+        }
+    }
+
+    @Test
+    public void ramp() {
+        for (int i = 0; i < 1000; ++i) {
+            add(10L * i, 3. * i, 0.1);
+        }
+        assertEquals(1, stored.size());
+        collect(filter.flush());
+        assertEquals(2, stored.size());
+        assertEquals(9990L, stored.get(1)[0]);
+        assertEquals(2997., Double.longBitsToDouble(stored.get(1)[1]), 1e-6);
+        assertEquals(0, filter.flush());
+    }
+
+    @Test
+    public void notCompressed() {
+        // No deviation, NaN values and samples not newer than the previous one are always stored.
+        add(0, 1., 0.);
+        add(1, 1., 0.);
+        add(2, 1., 1.);
+        add(3, Double.NaN, 1.);
+        add(4, 1., 1.);
+        add(5, 1., 1.);
+        add(5, 2., 1.);
+        add(4, 3., 1.);
+        assertEquals(8, stored.size());
+        long[] expected = {0, 1, 2, 3, 4, 5, 5, 4};
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(expected[i], stored.get(i)[0]);
+        }
+        assertTrue(Double.isNaN(Double.longBitsToDouble(stored.get(3)[1])));
+    }
+}
@@ -0,0 +1,135 @@
+package ch.hevs.jscada.io.scheduling;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TimingWheelTest {
+    private static class ManualClock implements Clock {
+        long time = 1000;
+
+        @Override
+        public long currentTimeMillis() {
+            return time;
+        }
+    }
+
+    private final ManualClock clock = new ManualClock();
+    private final TimingWheel<String> wheel = new TimingWheel<>(clock, 10, 8);
+    private final List<List<String>> batches = new ArrayList<>();
+    private final List<Long> deadlines = new ArrayList<>();
+    private final TimingWheel.ExpirationHandler<String> handler = new TimingWheel.ExpirationHandler<String>() {
+        @Override
+        public void expired(long deadline, List<String> batch) {
+            deadlines.add(deadline);
+            batches.add(batch);
+        }
+    };
+
+    @Test
+    public void expiresAtDeadline() {
+        wheel.schedule("a", 25);
+        assertEquals(1, wheel.size());
+
+        clock.time = 1020;
+        assertEquals(0, wheel.advance(handler));
+        assertTrue(batches.isEmpty());
+
+        clock.time = 1030;
+        assertEquals(1, wheel.advance(handler));
+        assertEquals(1, batches.size());
+        assertEquals("a", batches.get(0).get(0));
+        assertEquals(1030L, (long) deadlines.get(0));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void tasksOfTheSameTickAreBatched() {
+        wheel.schedule("a", 11);
+        wheel.schedule("b", 20);
+        wheel.schedule("c", 21);
+
+        clock.time = 1030;
+        assertEquals(3, wheel.advance(handler));
+        assertEquals(2, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertTrue(batches.get(0).contains("a"));
+        assertTrue(batches.get(0).contains("b"));
+        assertEquals(1, batches.get(1).size());
+        assertEquals("c", batches.get(1).get(0));
+    }
+
+    @Test
+    public void deadlinesBeyondOneRotation() {
+        // The wheel has 8 buckets of 10ms, so 80ms is a full rotation.
+        wheel.schedule("near", 10);
+        wheel.schedule("far", 170);
+
+        clock.time = 1100;
+        assertEquals(1, wheel.advance(handler));
+        assertEquals("near", batches.get(0).get(0));
+
+        clock.time = 1170;
+        assertEquals(1, wheel.advance(handler));
+        assertEquals("far", batches.get(1).get(0));
+        assertEquals(1170L, (long) deadlines.get(1));
+    }
+
+    @Test
+    public void cancel() {
+        TimingWheel<String>.Timeout a = wheel.schedule("a", 10);
+        TimingWheel<String>.Timeout b = wheel.schedule("b", 10);
+        assertTrue(a.isPending());
+        assertTrue(a.cancel());
+        assertFalse(a.isPending());
+        assertFalse(a.cancel());
+        assertEquals(1, wheel.size());
+
+        clock.time = 1010;
+        assertEquals(1, wheel.advance(handler));
+        assertEquals("b", batches.get(0).get(0));
+        assertFalse(b.isPending());
+        assertFalse(b.cancel());
+    }
+
+    @Test
+    public void pastDeadlinesExpireWithNextTick() {
+        clock.time = 1050;
+        wheel.advance(handler);
+        wheel.scheduleAt("late", 1000);
+        assertEquals(1060, wheel.getNextTickTime());
+
+        clock.time = 1060;
+        assertEquals(1, wheel.advance(handler));
+        assertEquals("late", batches.get(0).get(0));
+    }
+
+    @Test
+    public void rescheduleFromHandler() {
+        final TimingWheel.ExpirationHandler<String> periodic = new TimingWheel.ExpirationHandler<String>() {
+            @Override
+            public void expired(long deadline, List<String> batch) {
+                deadlines.add(deadline);
+                wheel.scheduleAt(batch.get(0), deadline + 20);
+            }
+        };
+        wheel.schedule("periodic", 20);
+
+        int expired = 0;
+        while (clock.time < 1100) {
+            clock.time += 10;
+            expired += wheel.advance(periodic);
+        }
+        assertEquals(5, expired);
+        assertEquals(1, wheel.size());
+        assertEquals(1100L, (long) deadlines.get(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidTickDuration() {
+        new TimingWheel<String>(clock, 0, 8);
+    }
+}
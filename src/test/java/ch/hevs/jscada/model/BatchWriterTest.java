@@ -0,0 +1,113 @@
+package ch.hevs.jscada.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public final class BatchWriterTest {
+    private Process process = new Process();
+
+    @Test
+    public void listenersSeeCompleteBatch() throws DuplicateIdException, SelectException {
+        final FloatDataPoint f1 = new FloatDataPoint("f1", process);
+        final IntegerDataPoint i1 = new IntegerDataPoint("i1", process);
+        final BooleanDataPoint b1 = new BooleanDataPoint("b1", process);
+        f1.select(this);
+        i1.select(this);
+        b1.select(this);
+
+        final List<String> notifications = new ArrayList<>();
+        f1.addListener(new DataPointListener<FloatDataPoint>() {
+            @Override
+            public void dataPointUpdated(FloatDataPoint dataPoint) {
+                // All values of the batch are already applied.
+                assertEquals(42, i1.getValue());
+                assertTrue(b1.getValue());
+                notifications.add("f1=" + dataPoint.getValue());
+            }
+        }, false);
+        i1.addValueListener(new IntegerValueListener() {
+            @Override
+            public void onValue(IntegerDataPoint dataPoint, long value) {
+                notifications.add("i1=" + value);
+            }
+        }, true);
+
+        BatchWriter batch = process.beginBatch();
+        batch.setValue(f1, 1., this);
+        batch.setValue(i1, 42, this);
+        batch.setValue(b1, true, this);
+        batch.setValue(f1, 2., this);
+        assertEquals(3, batch.size());
+
+        // Nothing is applied before commit.
+        assertEquals(0., f1.getValue(), 0.);
+        assertTrue(notifications.isEmpty());
+
+        batch.commit();
+        assertEquals(0, batch.size());
+        assertEquals(2., f1.getValue(), 0.);
+        assertEquals(42, i1.getValue());
+        assertTrue(b1.getValue());
+        assertEquals(2, notifications.size());
+        assertTrue(notifications.contains("f1=2.0"));
+        assertTrue(notifications.contains("i1=42"));
+
+        // The writer can be reused, unchanged values only notify update listeners.
+        notifications.clear();
+        batch.setValue(f1, 3., this);
+        batch.setValue(i1, 42, this);
+        batch.commit();
+        assertEquals(1, notifications.size());
+        assertEquals("f1=3.0", notifications.get(0));
+    }
+
+    @Test
+    public void discard() throws DuplicateIdException, SelectException {
+        IntegerDataPoint i1 = new IntegerDataPoint("i1", process);
+        i1.select(this);
+        BatchWriter batch = process.beginBatch();
+        batch.setValue(i1, 1, this);
+        batch.discard();
+        batch.commit();
+        assertEquals(0, i1.getValue());
+
+        batch.setValue(i1, 2, this);
+        batch.commit();
+        assertEquals(2, i1.getValue());
+    }
+
+    @Test(expected = SelectException.class)
+    public void withoutSelection() throws DuplicateIdException, SelectException {
+        IntegerDataPoint i1 = new IntegerDataPoint("i1", process);
+        process.beginBatch().setValue(i1, 1, this);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dataPointOfOtherProcess() throws DuplicateIdException, SelectException {
+        IntegerDataPoint i1 = new IntegerDataPoint("i1", new Process());
+        i1.select(this);
+        process.beginBatch().setValue(i1, 1, this);
+    }
+
+    @Test
+    public void singleWriter() throws DuplicateIdException, SelectException {
+        process.setSingleWriter(true);
+        try {
+            IntegerDataPoint i1 = new IntegerDataPoint("i1", process);
+            i1.select(this);
+            BatchWriter batch = process.beginBatch();
+            for (int i = 1; i <= 100; ++i) {
+                batch.setValue(i1, i, this);
+                batch.commit();
+            }
+            process.flush();
+            assertEquals(100, i1.getValue());
+        } finally {
+            process.setSingleWriter(false);
+        }
+    }
+}
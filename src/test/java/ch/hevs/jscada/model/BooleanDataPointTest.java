@@ -2,6 +2,10 @@ package ch.hevs.jscada.model;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static org.junit.Assert.*;
 
 public final class BooleanDataPointTest implements DataPointListener {
@@ -188,4 +192,32 @@ public final class BooleanDataPointTest implements DataPointListener {
         assertTrue(b2.compareTo(b1) > 0);
         assertTrue(b1.compareTo(null) > 0);
     }
+
+    @Test
+    public void valueListener() throws DuplicateIdException, SelectException {
+        BooleanDataPoint p = new BooleanDataPoint("b1", process);
+        final List<Boolean> updates = new ArrayList<>();
+        final List<Boolean> changes = new ArrayList<>();
+        BooleanValueListener updateListener = new BooleanValueListener() {
+            @Override
+            public void onValue(BooleanDataPoint dataPoint, boolean value) {
+                updates.add(value);
+            }
+        };
+        p.addValueListener(updateListener, false);
+        p.addValueListener(new BooleanValueListener() {
+            @Override
+            public void onValue(BooleanDataPoint dataPoint, boolean value) {
+                changes.add(value);
+            }
+        }, true);
+        p.select(this);
+        p.setValue(false, this);
+        p.setValue(true, this);
+        p.removeValueListener(updateListener);
+        p.setValue(false, this);
+
+        assertEquals(Arrays.asList(false, true), updates);
+        assertEquals(Arrays.asList(true, false), changes);
+    }
 }
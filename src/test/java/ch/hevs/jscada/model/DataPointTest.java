@@ -0,0 +1,364 @@
+package ch.hevs.jscada.model;
+
+import org.junit.Test;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public final class DataPointTest {
+    private Process process = new Process();
+
+    @Test
+    public void listenerRemovedDuringNotification() throws DuplicateIdException, SelectException {
+        final IntegerDataPoint i1 = new IntegerDataPoint("i1", process);
+        final AtomicInteger calls = new AtomicInteger();
+        i1.addListener(new DataPointListener<IntegerDataPoint>() {
+            @Override
+            public void dataPointUpdated(IntegerDataPoint dataPoint) {
+                calls.incrementAndGet();
+                dataPoint.removeListener(this);
+            }
+        }, false);
+        i1.addListener(new DataPointListener<IntegerDataPoint>() {
+            @Override
+            public void dataPointUpdated(IntegerDataPoint dataPoint) {
+                calls.incrementAndGet();
+            }
+        }, false);
+
+        i1.select(this);
+        i1.setValue(1, this);
+        assertEquals(2, calls.get());
+        i1.setValue(2, this);
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void concurrentListenerRegistration() throws Exception {
+        final FloatDataPoint f1 = new FloatDataPoint("f1", process);
+        final AtomicInteger calls = new AtomicInteger();
+        final DataPointListener<FloatDataPoint> permanent = new DataPointListener<FloatDataPoint>() {
+            @Override
+            public void dataPointUpdated(FloatDataPoint dataPoint) {
+                calls.incrementAndGet();
+            }
+        };
+        f1.addListener(permanent, false);
+
+        // Monitors keep subscribing and unsubscribing while the data point gets updated.
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final Thread[] monitors = new Thread[4];
+        for (int i = 0; i < monitors.length; ++i) {
+            monitors[i] = new Thread() {
+                @Override
+                public void run() {
+                    final DataPointListener<FloatDataPoint> listener = new DataPointListener<FloatDataPoint>() {
+                        @Override
+                        public void dataPointUpdated(FloatDataPoint dataPoint) {}
+                    };
+                    try {
+                        while (!done.get()) {
+                            f1.addListener(listener, false);
+                            f1.addListener(listener, true);
+                            f1.removeListener(listener);
+                            f1.removeListener(listener);
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            };
+            monitors[i].start();
+        }
+
+        f1.select(this);
+        try {
+            for (int i = 0; i < 100000; ++i) {
+                f1.setValue(i, this);
+            }
+        } finally {
+            done.set(true);
+            for (Thread monitor : monitors) {
+                monitor.join();
+            }
+        }
+
+        assertNull(error.get());
+        assertEquals(100000, calls.get());
+
+        // All temporary listeners are gone.
+        calls.set(0);
+        f1.removeListener(permanent);
+        f1.setValue(-1, this);
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    public void selectIsExclusive() throws DuplicateIdException, SelectException {
+        BooleanDataPoint b1 = new BooleanDataPoint("b1", process);
+        Object other = new Object();
+
+        assertFalse(b1.isSelected());
+        b1.select(this);
+        b1.select(this);
+        assertTrue(b1.isSelected());
+        try {
+            b1.select(other);
+            fail();
+        } catch (SelectException e) {
+            // Expected.
+        }
+
+        // Only the owner can deselect.
+        b1.deselect(other);
+        assertTrue(b1.isSelected());
+        b1.deselect(this);
+        assertFalse(b1.isSelected());
+        b1.select(other);
+        assertTrue(b1.isSelected());
+    }
+
+    @Test
+    public void concurrentSelectHasExactlyOneWinner() throws Exception {
+        final IntegerDataPoint i1 = new IntegerDataPoint("i1", process);
+        final int sessions = 8;
+        final int rounds = 2000;
+        final CyclicBarrier barrier = new CyclicBarrier(sessions);
+        final AtomicIntegerArray winners = new AtomicIntegerArray(rounds);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        // Operator sessions fight for the data point, the winner of each round writes and releases the data point.
+        final Thread[] threads = new Thread[sessions];
+        for (int i = 0; i < sessions; ++i) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    final Object session = new Object();
+                    try {
+                        for (int round = 0; round < rounds; ++round) {
+                            barrier.await();
+                            boolean won;
+                            try {
+                                i1.select(session);
+                                won = true;
+                            } catch (SelectException e) {
+                                won = false;
+                            }
+                            if (won) {
+                                winners.incrementAndGet(round);
+                                i1.setValue(round, session);
+                            }
+                            barrier.await();
+                            if (won) {
+                                i1.deselect(session);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                        barrier.reset();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(error.get());
+        for (int round = 0; round < rounds; ++round) {
+            assertEquals(1, winners.get(round));
+        }
+        assertEquals(rounds - 1, i1.getValue());
+    }
+
+    @Test
+    public void selectionOfCollectedOwnerCanBeTakenOver() throws Exception {
+        BooleanDataPoint b1 = new BooleanDataPoint("b1", process);
+        b1.select(new Object());
+
+        // The selection is only weakly referenced, so it vanishes once the owner is garbage collected.
+        for (int i = 0; i < 100 && b1.isSelected(); ++i) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertFalse(b1.isSelected());
+        b1.select(this);
+        assertTrue(b1.isSelected());
+    }
+
+    @Test
+    public void timestampAndQuality() throws Exception {
+        final FloatDataPoint f1 = new FloatDataPoint("f1", process);
+        assertEquals(0, f1.getTimestamp());
+        assertEquals(DataPointQuality.NO_VALUE, f1.getQuality());
+
+        final AtomicInteger changes = new AtomicInteger();
+        final AtomicReference<DataPointQuality> reportedQuality = new AtomicReference<>();
+        f1.addListener(new DataPointListener<FloatDataPoint>() {
+            @Override
+            public void dataPointUpdated(FloatDataPoint dataPoint) {
+                changes.incrementAndGet();
+                reportedQuality.set(dataPoint.getQuality());
+            }
+        }, true);
+        f1.select(this);
+
+        // Values without explicit timestamp and quality are stamped with the time of the write.
+        final long before = System.currentTimeMillis();
+        f1.setValue(1., this);
+        assertTrue(f1.getTimestamp() >= before && f1.getTimestamp() <= System.currentTimeMillis());
+        assertEquals(DataPointQuality.GOOD, f1.getQuality());
+
+        // A change of the quality alone is a change too.
+        f1.setValue(1., 1234567890123L, DataPointQuality.BAD, this);
+        assertEquals(1234567890123L, f1.getTimestamp());
+        assertEquals(DataPointQuality.BAD, f1.getQuality());
+        assertEquals(2, changes.get());
+        assertEquals(DataPointQuality.BAD, reportedQuality.get());
+
+        f1.setStringValue("2", -1000L, DataPointQuality.UNCERTAIN, this);
+        assertEquals(2., f1.getValue(), 0.);
+        assertEquals(-1000L, f1.getTimestamp());
+        assertEquals(DataPointQuality.UNCERTAIN, f1.getQuality());
+
+        // Timestamp and quality are part of batches and snapshots.
+        IntegerDataPoint i1 = new IntegerDataPoint("i1", process);
+        i1.select(this);
+        BatchWriter batch = process.beginBatch();
+        batch.setValue(i1, 42, 42000L, DataPointQuality.GOOD, this);
+        batch.commit();
+        ProcessSnapshot snapshot = process.takeSnapshot(null);
+        f1.setDoubleValue(3., 3000L, DataPointQuality.GOOD, this);
+        assertEquals(42000L, i1.getTimestamp());
+        assertEquals(42000L, snapshot.getTimestamp(i1));
+        assertEquals(-1000L, snapshot.getTimestamp(f1));
+        assertEquals(DataPointQuality.UNCERTAIN, snapshot.getQuality(f1));
+        assertEquals(3000L, f1.getTimestamp());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void timestampOutOfRange() throws DuplicateIdException, SelectException {
+        BooleanDataPoint b1 = new BooleanDataPoint("b1", process);
+        b1.select(this);
+        b1.setValue(true, Long.MAX_VALUE, DataPointQuality.GOOD, this);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void qualityNull() throws DuplicateIdException, SelectException {
+        BooleanDataPoint b1 = new BooleanDataPoint("b1", process);
+        b1.select(this);
+        b1.setValue(true, 0, null, this);
+    }
+    @Test
+    public void customDataPointKeepsMetaOnConversionError() throws Exception {
+        final PositiveDataPoint p1 = new PositiveDataPoint("p1", process);
+        p1.select(this);
+        p1.setStringValue("5", 1000, DataPointQuality.GOOD, this);
+        assertEquals(5, p1.value);
+        assertEquals(1000, p1.getTimestamp());
+        assertEquals(DataPointQuality.GOOD, p1.getQuality());
+
+        // The timestamp and quality are not stored if the value can not be converted.
+        try {
+            p1.setStringValue("-1", 2000, DataPointQuality.UNCERTAIN, this);
+            fail();
+        } catch (ConversionException e) {
+            assertEquals(5, p1.value);
+            assertEquals(1000, p1.getTimestamp());
+            assertEquals(DataPointQuality.GOOD, p1.getQuality());
+        }
+        try {
+            p1.setDoubleValue(-1, 3000, DataPointQuality.UNCERTAIN, this);
+            fail();
+        } catch (ConversionException e) {
+            assertEquals(1000, p1.getTimestamp());
+        }
+
+        p1.setDoubleValue(7, 4000, DataPointQuality.UNCERTAIN, this);
+        assertEquals(7, p1.value);
+        assertEquals(4000, p1.getTimestamp());
+        assertEquals(DataPointQuality.UNCERTAIN, p1.getQuality());
+    }
+
+    @Test
+    public void customDataPointMetaNotMixedUpByListeners() throws Exception {
+        final PositiveDataPoint p1 = new PositiveDataPoint("p1", process);
+        final PositiveDataPoint p2 = new PositiveDataPoint("p2", process);
+        p1.select(this);
+        p2.select(this);
+        final Object owner = this;
+        p1.addListener(new DataPointListener<DataPoint>() {
+            @Override
+            public void dataPointUpdated(final DataPoint dataPoint) {
+                try {
+                    p2.setDoubleValue(3, 2000, DataPointQuality.UNCERTAIN, owner);
+                } catch (Exception e) {
+                    fail();
+                }
+            }
+        }, false);
+
+        p1.setDoubleValue(2, 1000, DataPointQuality.GOOD, this);
+        assertEquals(1000, p1.getTimestamp());
+        assertEquals(DataPointQuality.GOOD, p1.getQuality());
+        assertEquals(2000, p2.getTimestamp());
+        assertEquals(DataPointQuality.UNCERTAIN, p2.getQuality());
+
+        // Values written without timestamp do not take the one of a previous write.
+        p2.setDoubleValue(4, this);
+        assertEquals(2000, p2.getTimestamp());
+    }
+
+    // Data point storing its value itself, only accepts positive integers.
+    private static class PositiveDataPoint extends DataPoint {
+        private int value = 0;
+
+        PositiveDataPoint(final String id, final Process process) throws DuplicateIdException {
+            super(id, process);
+        }
+
+        @Override
+        public DataPointType getType() {
+            return DataPointType.INTEGER;
+        }
+
+        @Override
+        public String getStringValue() {
+            return Integer.toString(value);
+        }
+
+        @Override
+        public void setStringValue(final String value, final Object owner)
+            throws ConversionException, SelectException {
+            try {
+                setDoubleValue(Integer.parseInt(value), owner);
+            } catch (NumberFormatException e) {
+                throw new ConversionException(value, String.class, PositiveDataPoint.class);
+            }
+        }
+
+        @Override
+        public double getDoubleValue() {
+            return value;
+        }
+
+        @Override
+        public void setDoubleValue(final double value, final Object owner)
+            throws ConversionException, SelectException {
+            ensureSelectedBy(owner);
+            if (value <= 0) {
+                throw new ConversionException(Double.toString(value), double.class, PositiveDataPoint.class);
+            }
+            final boolean changed = this.value != (int) value;
+            this.value = (int) value;
+            update(changed);
+        }
+    }
+}
@@ -2,6 +2,10 @@ package ch.hevs.jscada.model;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static org.junit.Assert.*;
 
 public final class FloatDataPointTest implements DataPointListener<FloatDataPoint> {
@@ -158,4 +162,105 @@ public final class FloatDataPointTest implements DataPointListener<FloatDataPoin
         assertTrue(f2.compareTo(f1) > 0);
         assertTrue(f1.compareTo(null) > 0);
     }
+
+    @Test
+    public void valueListener() throws DuplicateIdException, SelectException {
+        FloatDataPoint p = new FloatDataPoint("f1", process);
+        final List<Double> updates = new ArrayList<>();
+        final List<Double> changes = new ArrayList<>();
+        FloatValueListener updateListener = new FloatValueListener() {
+            @Override
+            public void onValue(FloatDataPoint dataPoint, double value) {
+                updates.add(value);
+            }
+        };
+        p.addValueListener(updateListener, false);
+        p.addValueListener(new FloatValueListener() {
+            @Override
+            public void onValue(FloatDataPoint dataPoint, double value) {
+                changes.add(value);
+            }
+        }, true);
+        p.select(this);
+        p.setValue(0., this);
+        p.setValue(42.42, this);
+        p.removeValueListener(updateListener);
+        p.setValue(333.33, this);
+
+        assertEquals(Arrays.asList(0., 42.42), updates);
+        assertEquals(Arrays.asList(42.42, 333.33), changes);
+    }
+
+    @Test
+    public void deadband() throws DuplicateIdException, SelectException {
+        p = new FloatDataPoint("f1", process);
+        final List<Double> changes = new ArrayList<>();
+        p.addValueListener(new FloatValueListener() {
+            @Override
+            public void onValue(FloatDataPoint dataPoint, double value) {
+                changes.add(value);
+            }
+        }, true);
+        p.addListener(this, false);
+        p.setDeadband(1.);
+        p.select(this);
+
+        // Small moves are stored and reported as updates, but they are no changes.
+        p.setValue(0.5, this);
+        assertEquals(0.5, reportedValue, 0.);
+        p.setValue(-0.9, this);
+        assertEquals(-0.9, p.getValue(), 0.);
+        assertTrue(changes.isEmpty());
+        assertEquals(2, p.getSuppressedUpdates());
+
+        // The reference is the last change, so a slow drift is reported once it adds up.
+        p.setValue(0.7, this);
+        p.setValue(1.2, this);
+        p.setValue(1.9, this);
+        p.setValue(2.3, this);
+        assertEquals(Arrays.asList(1.2, 2.3), changes);
+        assertEquals(4, p.getSuppressedUpdates());
+
+        p.setValue(Double.NaN, this);
+        assertEquals(3, changes.size());
+    }
+
+    @Test
+    public void deadbandPercent() throws DuplicateIdException, SelectException {
+        p = new FloatDataPoint("f1", process);
+        p.select(this);
+        p.setValue(100., this);
+        p.setDeadbandPercent(5.);
+        p.setDeadband(1.);
+
+        final List<Double> changes = new ArrayList<>();
+        p.addValueListener(new FloatValueListener() {
+            @Override
+            public void onValue(FloatDataPoint dataPoint, double value) {
+                changes.add(value);
+            }
+        }, true);
+        p.setValue(104., this);
+        p.setValue(96., this);
+        p.setValue(106., this);
+        p.setValue(101., this);
+        assertEquals(Arrays.asList(106.), changes);
+        assertEquals(3, p.getSuppressedUpdates());
+
+        // Disabling the deadbands reports every change again.
+        p.setDeadband(0.);
+        p.setDeadbandPercent(0.);
+        p.setValue(101.5, this);
+        assertEquals(Arrays.asList(106., 101.5), changes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeDeadband() throws DuplicateIdException {
+        new FloatDataPoint("f1", process).setDeadband(-1.);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void infiniteCompressionDeviation() throws DuplicateIdException {
+        new FloatDataPoint("f1", process).setCompressionDeviation(Double.POSITIVE_INFINITY);
+    }
 }
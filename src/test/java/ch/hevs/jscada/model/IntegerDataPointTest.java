@@ -2,6 +2,10 @@ package ch.hevs.jscada.model;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static org.junit.Assert.*;
 
 public final class IntegerDataPointTest implements DataPointListener<IntegerDataPoint> {
@@ -158,4 +162,32 @@ public final class IntegerDataPointTest implements DataPointListener<IntegerData
         assertTrue(i2.compareTo(i1) > 0);
         assertTrue(i1.compareTo(null) > 0);
     }
+
+    @Test
+    public void valueListener() throws DuplicateIdException, SelectException {
+        IntegerDataPoint p = new IntegerDataPoint("i1", process);
+        final List<Long> updates = new ArrayList<>();
+        final List<Long> changes = new ArrayList<>();
+        IntegerValueListener updateListener = new IntegerValueListener() {
+            @Override
+            public void onValue(IntegerDataPoint dataPoint, long value) {
+                updates.add(value);
+            }
+        };
+        p.addValueListener(updateListener, false);
+        p.addValueListener(new IntegerValueListener() {
+            @Override
+            public void onValue(IntegerDataPoint dataPoint, long value) {
+                changes.add(value);
+            }
+        }, true);
+        p.select(this);
+        p.setValue(0L, this);
+        p.setValue(42L, this);
+        p.removeValueListener(updateListener);
+        p.setValue(333L, this);
+
+        assertEquals(Arrays.asList(0L, 42L), updates);
+        assertEquals(Arrays.asList(42L, 333L), changes);
+    }
 }
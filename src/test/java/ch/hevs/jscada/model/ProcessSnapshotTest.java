@@ -0,0 +1,107 @@
+package ch.hevs.jscada.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public final class ProcessSnapshotTest {
+    private Process process = new Process();
+
+    @Test
+    public void values() throws DuplicateIdException, SelectException {
+        FloatDataPoint f1 = new FloatDataPoint("f1", process);
+        IntegerDataPoint i1 = new IntegerDataPoint("i1", process);
+        BooleanDataPoint b1 = new BooleanDataPoint("b1", process);
+        f1.select(this);
+        i1.select(this);
+        b1.select(this);
+        f1.setValue(1.5, this);
+        i1.setValue(42, this);
+        b1.setValue(true, this);
+
+        ProcessSnapshot snapshot = process.takeSnapshot(null);
+        assertEquals(3, snapshot.getVersion());
+        f1.setValue(2.5, this);
+        b1.setValue(false, this);
+
+        assertEquals(1.5, snapshot.getValue(f1), 0.);
+        assertEquals(42, snapshot.getValue(i1));
+        assertTrue(snapshot.getValue(b1));
+
+        // The snapshot is reused.
+        assertSame(snapshot, process.takeSnapshot(snapshot));
+        assertEquals(2.5, snapshot.getValue(f1), 0.);
+        assertFalse(snapshot.getValue(b1));
+        assertEquals(5, snapshot.getVersion());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dataPointNotPartOfSnapshot() throws DuplicateIdException {
+        ProcessSnapshot snapshot = process.takeSnapshot(null);
+        snapshot.getValue(new FloatDataPoint("f1", new Process()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dataPointAddedAfterSnapshot() throws DuplicateIdException {
+        ProcessSnapshot snapshot = process.takeSnapshot(null);
+        snapshot.getValue(new IntegerDataPoint("i1", process));
+    }
+
+    @Test
+    public void batchesAreNeverTorn() throws Exception {
+        // Every cycle writes its number into all data points using a batch.
+        final List<IntegerDataPoint> integers = new ArrayList<>();
+        final List<BooleanDataPoint> booleans = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            IntegerDataPoint integer = new IntegerDataPoint("i" + i, process);
+            BooleanDataPoint bool = new BooleanDataPoint("b" + i, process);
+            integer.select(this);
+            bool.select(this);
+            integers.add(integer);
+            booleans.add(bool);
+        }
+
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final Object owner = this;
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                BatchWriter batch = process.beginBatch();
+                try {
+                    for (int cycle = 1; !done.get(); ++cycle) {
+                        for (int i = 0; i < integers.size(); ++i) {
+                            batch.setValue(integers.get(i), cycle, owner);
+                            batch.setValue(booleans.get(i), cycle % 2 == 0, owner);
+                        }
+                        batch.commit();
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        };
+        writer.start();
+
+        ProcessSnapshot snapshot = null;
+        try {
+            for (int i = 0; i < 2000; ++i) {
+                snapshot = process.takeSnapshot(snapshot);
+                final long cycle = snapshot.getValue(integers.get(0));
+                for (int j = 0; j < integers.size(); ++j) {
+                    assertEquals(cycle, snapshot.getValue(integers.get(j)));
+                    assertEquals(cycle != 0 && cycle % 2 == 0, snapshot.getValue(booleans.get(j)));
+                }
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+        assertNull(error.get());
+    }
+}
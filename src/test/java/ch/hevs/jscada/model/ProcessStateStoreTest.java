@@ -0,0 +1,185 @@
+package ch.hevs.jscada.model;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public final class ProcessStateStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<ProcessStateStore> stores = new ArrayList<>();
+
+    @After
+    public void tearDown() throws Exception {
+        for (ProcessStateStore store : stores) {
+            store.close();
+        }
+    }
+
+    private ProcessStateStore open(final Process process) throws Exception {
+        ProcessStateStore store = new ProcessStateStore(process, new File(folder.getRoot(), "state"));
+        store.setSyncInterval(60000);
+        store.setCheckpointInterval(60000);
+        store.open();
+        stores.add(store);
+        return store;
+    }
+
+    private String[] logs() {
+        return new File(folder.getRoot(), "state").list(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.endsWith(".log");
+            }
+        });
+    }
+
+    @Test
+    public void restoreFromCheckpoint() throws Exception {
+        Process process = new Process();
+        FloatDataPoint f1 = new FloatDataPoint("f1", process);
+        IntegerDataPoint i1 = new IntegerDataPoint("i1", process);
+        BooleanDataPoint b1 = new BooleanDataPoint("b1", process);
+        new FloatDataPoint("never.written", process);
+        ProcessStateStore store = open(process);
+        assertEquals(0, store.getRestoredCount());
+
+        f1.select(this);
+        i1.select(this);
+        b1.select(this);
+        f1.setValue(1.5, 1000L, DataPointQuality.UNCERTAIN, this);
+        i1.setValue(42, this);
+        b1.setValue(true, this);
+        store.close();
+        assertFalse(store.isOpen());
+        assertEquals(0, logs().length);
+
+        // The restored values are applied in a single batch, the listeners are notified.
+        Process restored = new Process();
+        FloatDataPoint f2 = new FloatDataPoint("f1", restored);
+        IntegerDataPoint i2 = new IntegerDataPoint("i1", restored);
+        new IntegerDataPoint("b1", restored);
+        FloatDataPoint n2 = new FloatDataPoint("never.written", restored);
+        final List<DataPoint> updates = new ArrayList<>();
+        restored.addDataPointListener(new DataPointListener() {
+            @Override
+            public void dataPointUpdated(final DataPoint dataPoint) {
+                updates.add(dataPoint);
+            }
+        }, false);
+        store = open(restored);
+
+        assertEquals(2, store.getRestoredCount());
+        assertEquals(2, updates.size());
+        assertEquals(1.5, f2.getValue(), 0.);
+        assertEquals(1000L, f2.getTimestamp());
+        assertEquals(DataPointQuality.UNCERTAIN, f2.getQuality());
+        assertEquals(42, i2.getValue());
+        assertEquals(DataPointQuality.GOOD, i2.getQuality());
+        assertEquals(DataPointQuality.NO_VALUE, n2.getQuality());
+        assertFalse(f2.isSelected());
+    }
+
+    @Test
+    public void replayLog() throws Exception {
+        Process process = new Process();
+        FloatDataPoint f1 = new FloatDataPoint("f1", process);
+        IntegerDataPoint i1 = new IntegerDataPoint("i1", process);
+        f1.select(this);
+        i1.select(this);
+        ProcessStateStore store = open(process);
+
+        f1.setValue(1., this);
+        i1.setValue(1, this);
+        store.checkpoint();
+        assertEquals(1, logs().length);
+        f1.setValue(2., this);
+        f1.setValue(3., this);
+        store.sync();
+
+        // Simulate a crash, the last record is cut off.
+        File log = new File(new File(folder.getRoot(), "state"), logs()[0]);
+        FileOutputStream out = new FileOutputStream(log, true);
+        out.write(new byte[]{0, 2, 'i', '1', 2, 0, 0});
+        out.close();
+
+        Process restored = new Process();
+        FloatDataPoint f2 = new FloatDataPoint("f1", restored);
+        IntegerDataPoint i2 = new IntegerDataPoint("i1", restored);
+        ProcessStateStore second = new ProcessStateStore(restored, new File(folder.getRoot(), "state"));
+        second.open();
+        assertEquals(3., f2.getValue(), 0.);
+        assertEquals(1, i2.getValue());
+        assertEquals(2, second.getRestoredCount());
+
+        // The replayed log is kept until the next checkpoint.
+        assertEquals(2, logs().length);
+        second.close();
+        assertEquals(0, logs().length);
+    }
+
+    @Test
+    public void replayLogLargerThanBuffer() throws Exception {
+        Process process = new Process();
+        FloatDataPoint f1 = new FloatDataPoint("f1", process);
+        f1.select(this);
+        ProcessStateStore store = open(process);
+
+        // Every record is logged with the timestamp and quality of its own update.
+        for (int i = 0; i < 10000; ++i) {
+            f1.setValue(i, 1000L + i, i % 2 == 0 ? DataPointQuality.GOOD : DataPointQuality.UNCERTAIN, this);
+        }
+        store.sync();
+
+        Process restored = new Process();
+        FloatDataPoint f2 = new FloatDataPoint("f1", restored);
+        ProcessStateStore second = new ProcessStateStore(restored, new File(folder.getRoot(), "state"));
+        second.open();
+        assertEquals(9999., f2.getValue(), 0.);
+        assertEquals(1000L + 9999, f2.getTimestamp());
+        assertEquals(DataPointQuality.UNCERTAIN, f2.getQuality());
+        second.close();
+    }
+
+    @Test
+    public void restoreTime() throws Exception {
+        Process process = new Process();
+        FloatDataPoint[] dataPoints = new FloatDataPoint[100000];
+        for (int i = 0; i < dataPoints.length; ++i) {
+            dataPoints[i] = new FloatDataPoint("plant.point" + i, process);
+        }
+        BatchWriter batch = process.beginBatch();
+        for (int i = 0; i < dataPoints.length; ++i) {
+            batch.put(dataPoints[i], Double.doubleToRawLongBits(i), DataPoint.metaOf(i, DataPointQuality.GOOD));
+        }
+        batch.commit();
+        open(process).close();
+
+        Process restored = new Process();
+        for (int i = 0; i < dataPoints.length; ++i) {
+            dataPoints[i] = new FloatDataPoint("plant.point" + i, restored);
+        }
+        ProcessStateStore store = open(restored);
+        assertEquals(dataPoints.length, store.getRestoredCount());
+        assertTrue(store.getRestoreTime() > 0);
+        for (int i = 0; i < dataPoints.length; i += 997) {
+            assertEquals(i, dataPoints[i].getValue(), 0.);
+            assertEquals(i, dataPoints[i].getTimestamp());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSyncInterval() {
+        new ProcessStateStore(new Process(), folder.getRoot()).setSyncInterval(0);
+    }
+}
@@ -2,9 +2,13 @@ package ch.hevs.jscada.model;
 
 import org.junit.Test;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertFalse;
-import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
 
 public class ProcessTest {
     private Process process = new Process();
@@ -83,4 +87,595 @@ public class ProcessTest {
         b1.select(this);
         b1.setValue(true, this);
     }
+
+    @Test
+    public void singleWriter() throws Exception {
+        process.setSingleWriter(true);
+        assertTrue(process.isSingleWriter());
+
+        final IntegerDataPoint counter = new IntegerDataPoint("counter", process);
+        final List<String> listenerThreads = Collections.synchronizedList(new ArrayList<String>());
+        counter.addListener(new DataPointListener<IntegerDataPoint>() {
+            @Override
+            public void dataPointUpdated(IntegerDataPoint dataPoint) {
+                listenerThreads.add(Thread.currentThread().getName());
+            }
+        }, false);
+
+        // Each writer increments the counter on the process thread, so no increment gets lost.
+        final Object owner = new Object();
+        counter.select(owner);
+        final Thread[] writers = new Thread[8];
+        for (int i = 0; i < writers.length; ++i) {
+            writers[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; ++j) {
+                        process.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    counter.setValue(counter.getValue() + 1, owner);
+                                } catch (SelectException e) {
+                                    throw new RuntimeException(e);
+                                }
+                            }
+                        });
+                    }
+                }
+            };
+            writers[i].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        process.flush();
+
+        assertEquals(8000, counter.getValue());
+        assertEquals(8000, listenerThreads.size());
+        for (String thread : listenerThreads) {
+            assertEquals("jscada-process", thread);
+        }
+
+        process.setSingleWriter(false);
+        assertFalse(process.isSingleWriter());
+    }
+
+    @Test
+    public void singleWriterAppliesUpdatesInOrder() throws Exception {
+        process.setSingleWriter(true);
+        FloatDataPoint f1 = new FloatDataPoint("f1", process);
+        f1.select(this);
+        for (int i = 1; i <= 1000; ++i) {
+            f1.setValue(i, this);
+        }
+
+        // Disabling the single-writer mode applies all pending updates.
+        process.setSingleWriter(false);
+        assertEquals(1000., f1.getValue(), 0.);
+
+        // Without single-writer mode the value is applied immediately.
+        f1.setValue(42, this);
+        assertEquals(42., f1.getValue(), 0.);
+    }
+
+    @Test
+    public void singleWriterWrapsAroundRing() throws Exception {
+        process.setSingleWriter(true);
+        IntegerDataPoint i1 = new IntegerDataPoint("i1", process);
+        i1.select(this);
+        for (int i = 1; i <= 3 * ProcessEventLoop.CAPACITY; ++i) {
+            i1.setValue(i, this);
+        }
+        process.flush();
+        assertEquals(3 * ProcessEventLoop.CAPACITY, i1.getValue());
+        process.setSingleWriter(false);
+    }
+
+    @Test
+    public void postAfterShutdownIsApplied() throws Exception {
+        process.setSingleWriter(true);
+        FloatDataPoint f1 = new FloatDataPoint("f1", process);
+        final ProcessEventLoop loop = process.getEventLoop();
+        process.setSingleWriter(false);
+
+        // A writer that fetched the loop before the single-writer mode was disabled must not lose its update.
+        loop.post(f1, Double.doubleToRawLongBits(42), DataPoint.metaOf(1000, DataPointQuality.GOOD));
+        assertEquals(42., f1.getValue(), 0.);
+        assertEquals(1000, f1.getTimestamp());
+    }
+
+    @Test
+    public void heapStorage() throws Exception {
+        assertEquals(ProcessStorage.HEAP, process.getStorage());
+        storeValues();
+    }
+
+    @Test
+    public void offHeapStorage() throws Exception {
+        process.setStorage(ProcessStorage.OFF_HEAP);
+        assertEquals(ProcessStorage.OFF_HEAP, process.getStorage());
+        storeValues();
+    }
+
+    private void storeValues() throws DuplicateIdException, SelectException {
+        // Enough points to span several pages of each column.
+        final int count = 10000;
+        assertEquals(0, process.getImageSize());
+        for (int i = 0; i < count; ++i) {
+            new FloatDataPoint("f" + i, process).select(this);
+            new IntegerDataPoint("i" + i, process).select(this);
+            new BooleanDataPoint("b" + i, process).select(this);
+        }
+        assertTrue(process.getImageSize() >= 8L * (2 * count + count / 64));
+
+        for (int i = 0; i < count; ++i) {
+            process.getDataPoint("f" + i, FloatDataPoint.class).setValue(i * .5, this);
+            process.getDataPoint("i" + i, IntegerDataPoint.class).setValue(-i, this);
+            process.getDataPoint("b" + i, BooleanDataPoint.class).setValue(i % 3 == 0, this);
+        }
+        for (int i = 0; i < count; ++i) {
+            assertEquals(i * .5, process.getDataPoint("f" + i, FloatDataPoint.class).getValue(), 0.);
+            assertEquals(-i, process.getDataPoint("i" + i, IntegerDataPoint.class).getValue());
+            assertEquals(i % 3 == 0, process.getDataPoint("b" + i, BooleanDataPoint.class).getValue());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void storageCanNotChangeWithDataPoints() throws DuplicateIdException {
+        new FloatDataPoint("f1", process);
+        process.setStorage(ProcessStorage.OFF_HEAP);
+    }
+
+    @Test
+    public void duplicateIdDoesNotLeakValueSlot() throws DuplicateIdException, SelectException {
+        BooleanDataPoint b1 = new BooleanDataPoint("b1", process);
+        try {
+            new BooleanDataPoint("b1", process);
+            fail();
+        } catch (DuplicateIdException e) {
+            // Expected.
+        }
+        BooleanDataPoint b2 = new BooleanDataPoint("b2", process);
+        b1.select(this);
+        b1.setValue(true, this);
+        assertFalse(b2.getValue());
+        assertEquals(1, b2.slot);
+    }
+
+    @Test
+    public void handles() throws DuplicateIdException {
+        final int count = 100;
+        for (int i = 0; i < count; ++i) {
+            new IntegerDataPoint(String.format("p%03d", count - i), process);
+        }
+
+        // Handles are dense and assigned in registration order.
+        for (int i = 0; i < count; ++i) {
+            final String id = String.format("p%03d", count - i);
+            assertEquals(i, process.handleOf(id));
+            assertEquals(i, process.getDataPoint(id).getHandle());
+            assertSame(process.getDataPoint(id), process.getDataPoint(i));
+        }
+        assertEquals(Process.NO_HANDLE, process.handleOf("inexistent"));
+        assertNull(process.getDataPoint(-1));
+        assertNull(process.getDataPoint(count));
+
+        // Iteration is still sorted by ID.
+        String previous = "";
+        for (DataPoint dataPoint : process.getDataPoints()) {
+            assertTrue(previous.compareTo(dataPoint.getId()) < 0);
+            previous = dataPoint.getId();
+        }
+    }
+
+    @Test
+    public void duplicateIdDoesNotConsumeHandle() throws DuplicateIdException {
+        new BooleanDataPoint("b1", process);
+        try {
+            new FloatDataPoint("b1", process);
+            fail();
+        } catch (DuplicateIdException e) {
+            // Expected.
+        }
+        assertEquals(1, new FloatDataPoint("f1", process).getHandle());
+        assertSame(process.getDataPoint("b1"), process.getDataPoint(0));
+    }
+
+    @Test
+    public void processWideDataPointListener() throws DuplicateIdException, SelectException {
+        final List<String> updates = new ArrayList<>();
+        final List<String> changes = new ArrayList<>();
+        final DataPointListener updateListener = new DataPointListener() {
+            @Override
+            public void dataPointUpdated(DataPoint dataPoint) {
+                updates.add(dataPoint.getId());
+            }
+        };
+        BooleanDataPoint b1 = new BooleanDataPoint("b1", process);
+        process.addDataPointListener(updateListener, false);
+        process.addDataPointListener(new DataPointListener() {
+            @Override
+            public void dataPointUpdated(DataPoint dataPoint) {
+                changes.add(dataPoint.getId());
+            }
+        }, true);
+
+        // Data points added after the listener are covered too.
+        IntegerDataPoint i1 = new IntegerDataPoint("i1", process);
+        b1.select(this);
+        i1.select(this);
+        b1.setValue(false, this);
+        i1.setValue(1, this);
+        assertEquals(Arrays.asList("b1", "i1"), updates);
+        assertEquals(Collections.singletonList("i1"), changes);
+
+        process.removeDataPointListener(updateListener);
+        b1.setValue(true, this);
+        assertEquals(2, updates.size());
+        assertEquals(Arrays.asList("i1", "b1"), changes);
+    }
+
+    private static List<String> ids(Collection<DataPoint> dataPoints) {
+        List<String> ids = new ArrayList<>();
+        for (DataPoint dataPoint : dataPoints) {
+            ids.add(dataPoint.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void hierarchicalLookup() throws DuplicateIdException {
+        new FloatDataPoint("plant1.boiler1.temp", process);
+        new FloatDataPoint("plant1.boiler1.pressure", process);
+        new FloatDataPoint("plant1.boiler3.temp", process);
+        new FloatDataPoint("plant1.boiler3.burner.temp", process);
+        new BooleanDataPoint("plant1.boiler3", process);
+        new FloatDataPoint("plant2.boiler1.temp", process);
+        new FloatDataPoint("plant10.boiler1.temp", process);
+
+        assertEquals(Arrays.asList("plant1.boiler3", "plant1.boiler3.burner.temp", "plant1.boiler3.temp"),
+            ids(process.getDataPoints("plant1.boiler3.**")));
+        assertEquals(Arrays.asList("plant1.boiler1.temp", "plant1.boiler3.temp"),
+            ids(process.getDataPoints("plant1.*.temp")));
+        assertEquals(Arrays.asList("plant1.boiler1.temp", "plant1.boiler3.burner.temp", "plant1.boiler3.temp"),
+            ids(process.getDataPoints("plant1.**.temp")));
+        assertEquals(Arrays.asList("plant1.boiler1.temp", "plant10.boiler1.temp", "plant2.boiler1.temp"),
+            ids(process.getDataPoints("*.boiler1.temp")));
+        assertEquals(Collections.singletonList("plant1.boiler1.pressure"),
+            ids(process.getDataPoints("plant1.boiler1.pressure")));
+        assertTrue(process.getDataPoints("plant3.**").isEmpty());
+        assertEquals(7, process.getDataPoints("**").size());
+    }
+
+    @Test
+    public void sampleListener() throws Exception {
+        final List<String> samples = new ArrayList<>();
+        SampleListener listener = new SampleListener() {
+            @Override
+            public void onSample(DataPoint dataPoint, long bits, long timestamp, DataPointQuality quality) {
+                samples.add(dataPoint.getId() + "=" + bits + "@" + timestamp + "/" + quality);
+            }
+        };
+        process.addSampleListener(listener);
+        FloatDataPoint f1 = new FloatDataPoint("f1", process);
+        IntegerDataPoint i1 = new IntegerDataPoint("i1", process);
+        BooleanDataPoint b1 = new BooleanDataPoint("b1", process);
+        f1.select(this);
+        i1.select(this);
+        b1.select(this);
+        f1.setValue(1.5, 1000, DataPointQuality.GOOD, this);
+        i1.setValue(7, 2000, DataPointQuality.UNCERTAIN, this);
+        BatchWriter batch = process.beginBatch();
+        batch.setValue(b1, true, 3000, DataPointQuality.GOOD, this);
+        batch.commit();
+        assertEquals(Arrays.asList("f1=" + Double.doubleToRawLongBits(1.5) + "@1000/GOOD", "i1=7@2000/UNCERTAIN",
+            "b1=1@3000/GOOD"), samples);
+
+        process.removeSampleListener(listener);
+        i1.setValue(8, this);
+        assertEquals(3, samples.size());
+    }
+
+    @Test
+    public void matches() {
+        assertTrue(Process.matches("**", "plant1.boiler3.temp"));
+        assertTrue(Process.matches("plant1.**", "plant1"));
+        assertTrue(Process.matches("plant1.**.temp", "plant1.boiler3.temp"));
+        assertTrue(Process.matches("plant1.*.temp", "plant1.boiler3.temp"));
+        assertFalse(Process.matches("plant1.*.temp", "plant1.temp"));
+        assertFalse(Process.matches("plant1.*", "plant1.boiler3.temp"));
+        assertFalse(Process.matches("plant2.**", "plant1.boiler3.temp"));
+        assertTrue(Process.matches("plant1.boiler3.temp", "plant1.boiler3.temp"));
+    }
+
+    @Test
+    public void wildcardSubscription() throws DuplicateIdException, SelectException {
+        final List<String> updates = new ArrayList<>();
+        final DataPointListener<DataPoint> listener = new DataPointListener<DataPoint>() {
+            @Override
+            public void dataPointUpdated(DataPoint dataPoint) {
+                updates.add(dataPoint.getId());
+            }
+        };
+        FloatDataPoint existing = new FloatDataPoint("plant1.boiler1.temp", process);
+        process.subscribe("plant1.*.temp", listener, false);
+
+        // Matching data points added later get the listener too.
+        FloatDataPoint added = new FloatDataPoint("plant1.boiler3.temp", process);
+        FloatDataPoint other = new FloatDataPoint("plant1.boiler3.pressure", process);
+        existing.select(this);
+        added.select(this);
+        other.select(this);
+        existing.setValue(1, this);
+        added.setValue(2, this);
+        other.setValue(3, this);
+        assertEquals(Arrays.asList("plant1.boiler1.temp", "plant1.boiler3.temp"), updates);
+
+        updates.clear();
+        process.unsubscribe("plant1.*.temp", listener);
+        existing.setValue(4, this);
+        new FloatDataPoint("plant1.boiler4.temp", process);
+        process.getDataPoint("plant1.boiler4.temp").select(this);
+        ((FloatDataPoint) process.getDataPoint("plant1.boiler4.temp")).setValue(5, this);
+        assertTrue(updates.isEmpty());
+    }
+
+    @Test
+    public void overlappingSubscriptions() throws DuplicateIdException, SelectException {
+        final List<String> updates = new ArrayList<>();
+        final DataPointListener<DataPoint> listener = new DataPointListener<DataPoint>() {
+            @Override
+            public void dataPointUpdated(DataPoint dataPoint) {
+                updates.add(dataPoint.getId());
+            }
+        };
+        FloatDataPoint a1 = new FloatDataPoint("a.1", process);
+        FloatDataPoint a2 = new FloatDataPoint("a.b.2", process);
+        FloatDataPoint c1 = new FloatDataPoint("c.1", process);
+        a1.select(this);
+        a2.select(this);
+        c1.select(this);
+        process.subscribe("a.*", listener, false);
+        process.subscribe("a.**", listener, false);
+        c1.addListener(listener, false);
+
+        // A data point matching both patterns notifies the listener once.
+        a1.setValue(1, this);
+        a2.setValue(1, this);
+        c1.setValue(1, this);
+        assertEquals(Arrays.asList("a.1", "a.b.2", "c.1"), updates);
+
+        // Data points still matching the other pattern keep the listener, direct listeners are not affected.
+        updates.clear();
+        process.unsubscribe("a.*", listener);
+        process.unsubscribe("c.*", listener);
+        a1.setValue(2, this);
+        a2.setValue(2, this);
+        c1.setValue(2, this);
+        assertEquals(Arrays.asList("a.1", "a.b.2", "c.1"), updates);
+
+        updates.clear();
+        process.subscribe("c.*", listener, false);
+        process.unsubscribe("c.*", listener);
+        process.unsubscribe("a.**", listener);
+        a1.setValue(3, this);
+        a2.setValue(3, this);
+        c1.setValue(3, this);
+        assertEquals(Collections.singletonList("c.1"), updates);
+    }
+
+    @Test
+    public void changesSince() throws DuplicateIdException, SelectException {
+        IntegerDataPoint i1 = new IntegerDataPoint("i1", process);
+        IntegerDataPoint i2 = new IntegerDataPoint("i2", process);
+        IntegerDataPoint i3 = new IntegerDataPoint("i3", process);
+        i1.select(this);
+        i2.select(this);
+        i3.select(this);
+        assertEquals(0, process.getVersion());
+        assertTrue(process.changesSince(0).isEmpty());
+
+        i1.setValue(1, this);
+        i2.setValue(1, this);
+        assertEquals(2, process.getVersion());
+        assertEquals(1, i1.getVersion());
+        assertEquals(2, i2.getVersion());
+        assertEquals(0, i3.getVersion());
+        assertEquals(Arrays.asList("i1", "i2"), ids(process.changesSince(0)));
+
+        // A data point updated again moves to the end.
+        final long version = process.getVersion();
+        i3.setValue(1, this);
+        i1.setValue(2, this);
+        assertEquals(Arrays.asList("i3", "i1"), ids(process.changesSince(version)));
+        assertEquals(Arrays.asList("i2", "i3", "i1"), ids(process.changesSince(0)));
+        assertEquals(Collections.singletonList("i1"), ids(process.changesSince(process.getVersion() - 1)));
+        assertTrue(process.changesSince(process.getVersion()).isEmpty());
+
+        // Updating the last data point again or the first one keeps the list consistent.
+        i1.setValue(3, this);
+        i2.setValue(2, this);
+        assertEquals(Arrays.asList("i3", "i1", "i2"), ids(process.changesSince(0)));
+    }
+
+    @Test
+    public void changesSinceAfterManyUpdates() throws DuplicateIdException, SelectException {
+        IntegerDataPoint i1 = new IntegerDataPoint("i1", process);
+        IntegerDataPoint i2 = new IntegerDataPoint("i2", process);
+        i1.select(this);
+        i2.select(this);
+        i2.setValue(1, this);
+        final long version = process.getVersion();
+        for (int i = 0; i < 100000; ++i) {
+            i1.setValue(i, this);
+        }
+
+        // More updates than the change log keeps in its ring are found by scanning all data points.
+        assertEquals(Arrays.asList("i2", "i1"), ids(process.changesSince(0)));
+        assertEquals(Collections.singletonList("i1"), ids(process.changesSince(version)));
+        i2.setValue(2, this);
+        assertEquals(Arrays.asList("i1", "i2"), ids(process.changesSince(process.getVersion() - 2)));
+    }
+
+    @Test
+    public void changesSinceConcurrentWriters() throws Exception {
+        final IntegerDataPoint[] points = new IntegerDataPoint[5000];
+        for (int i = 0; i < points.length; ++i) {
+            points[i] = new IntegerDataPoint("p" + i, process);
+            points[i].select(this);
+        }
+        final Object owner = this;
+        final Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; ++t) {
+            final int first = t;
+            writers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = first; i < points.length; i += writers.length) {
+                        try {
+                            points[i].setValue(i, owner);
+                        } catch (SelectException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            };
+            writers[t].start();
+        }
+        for (final Thread writer : writers) {
+            writer.join();
+        }
+
+        // Every update got its own version and the changes are ordered by version.
+        assertEquals(points.length, process.getVersion());
+        final List<DataPoint> changes = process.changesSince(0);
+        assertEquals(points.length, changes.size());
+        for (int i = 1; i < changes.size(); ++i) {
+            assertTrue(changes.get(i - 1).getVersion() < changes.get(i).getVersion());
+        }
+    }
+
+    @Test
+    public void scanCycle() throws DuplicateIdException, SelectException {
+        final List<String> updates = new ArrayList<>();
+        final IntegerDataPoint i1 = new IntegerDataPoint("i1", process);
+        final IntegerDataPoint i2 = new IntegerDataPoint("i2", process);
+        i1.select(this);
+        i2.select(this);
+        process.addDataPointListener(new DataPointListener<DataPoint>() {
+            @Override
+            public void dataPointUpdated(DataPoint dataPoint) {
+                // All updates of the cycle are visible.
+                assertEquals(2, i1.getValue());
+                assertEquals(3, i2.getValue());
+                updates.add(dataPoint.getId());
+            }
+        }, false);
+
+        ScanCycle cycle = process.beginScanCycle();
+        assertTrue(process.isScanCycleRunning());
+        cycle.attach();
+        i1.setValue(1, this);
+        i1.setValue(2, this);
+        BatchWriter batch = process.beginBatch();
+        batch.setValue(i2, 3, this);
+        batch.commit();
+
+        // Overlapping cycles have their own buffers, ending one does not swap the updates staged by the other.
+        ScanCycle other = process.beginScanCycle();
+        other.end();
+        assertEquals(0, i1.getValue());
+        assertEquals(0, i2.getValue());
+        assertEquals(0, process.getVersion());
+        assertTrue(updates.isEmpty());
+        assertTrue(process.isScanCycleRunning());
+
+        cycle.end();
+        assertTrue(cycle.isEnded());
+        assertFalse(process.isScanCycleRunning());
+        assertEquals(Arrays.asList("i1", "i2"), updates);
+        assertEquals(2, process.getVersion());
+
+        ScanCycleStatistics statistics = process.getScanCycleStatistics();
+        assertEquals(2, statistics.getCount());
+        assertEquals(2, statistics.getLastUpdates());
+        assertTrue(statistics.getMaxCycleTime() >= statistics.getLastSwapTime());
+    }
+
+    @Test
+    public void scanCycleBufferReused() throws DuplicateIdException, SelectException {
+        final IntegerDataPoint i1 = new IntegerDataPoint("i1", process);
+        final IntegerDataPoint i2 = new IntegerDataPoint("i2", process);
+        i1.select(this);
+        i2.select(this);
+        final List<String> updates = new ArrayList<>();
+        process.addDataPointListener(new DataPointListener<DataPoint>() {
+            @Override
+            public void dataPointUpdated(DataPoint dataPoint) {
+                updates.add(dataPoint.getId());
+            }
+        }, false);
+
+        // The next cycle starts with the empty buffer of the previous one, nothing staged before is applied again.
+        for (int i = 1; i <= 3; ++i) {
+            ScanCycle cycle = process.beginScanCycle();
+            cycle.attach();
+            i1.setValue(i, this);
+            if (i == 2) {
+                i2.setValue(i, this);
+            }
+            cycle.detach();
+            assertEquals(i - 1, i1.getValue());
+            cycle.end();
+            assertEquals(i, i1.getValue());
+        }
+        assertEquals(2, i2.getValue());
+        assertEquals(Arrays.asList("i1", "i1", "i2", "i1"), updates);
+        assertEquals(1, process.getScanCycleStatistics().getLastUpdates());
+    }
+
+    @Test
+    public void scanCycleStagesOnlyAttachedThreads() throws Exception {
+        final IntegerDataPoint i1 = new IntegerDataPoint("i1", process);
+        final IntegerDataPoint i2 = new IntegerDataPoint("i2", process);
+        final Object owner = this;
+        i1.select(owner);
+        i2.select(owner);
+
+        // Updates of threads not attached to the cycle are applied immediately.
+        final ScanCycle cycle = process.beginScanCycle();
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                cycle.attach();
+                try {
+                    i1.setValue(1, owner);
+                } catch (SelectException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    cycle.detach();
+                }
+            }
+        };
+        writer.start();
+        writer.join();
+        i2.setValue(2, this);
+        assertEquals(0, i1.getValue());
+        assertEquals(2, i2.getValue());
+
+        // Updates written by a thread still attached after the end of the cycle are applied immediately.
+        cycle.attach();
+        cycle.end();
+        assertEquals(1, i1.getValue());
+        i1.setValue(3, this);
+        assertEquals(3, i1.getValue());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void endScanCycleTwice() {
+        ScanCycle cycle = process.beginScanCycle();
+        cycle.end();
+        cycle.end();
+    }
 }